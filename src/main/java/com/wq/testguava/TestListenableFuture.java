@@ -2,14 +2,15 @@ package com.wq.testguava;
 
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.*;
+import com.wq.testguava.concurrent.BlockingTaskExecutors;
+import com.wq.testguava.concurrent.ChunkedPipeline;
+import com.wq.testguava.concurrent.CompletionStream;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * guava提供了以下几种方式添加回调
@@ -48,10 +49,11 @@ public class TestListenableFuture {
 
         /*获取线程执行的结果*/
         List<ListenableFuture<String>> futures = Lists.newArrayList();
-        ExecutorService pool = Executors.newFixedThreadPool(10);//定义线程数
-
-        /*定义监听线程池的服务*/
-        ListeningExecutorService executorService = MoreExecutors.listeningDecorator(pool);
+        /*
+         * 定义监听线程池的服务：JDK支持时每个任务一个虚拟线程，否则使用10个线程的线程池
+         * （可通过 -Dtestguava.executor.mode=platform 强制使用线程池）
+         */
+        ListeningExecutorService executorService = BlockingTaskExecutors.create("sell-ticket", 10);
         for (String s : list) {
             ListenableFuture<String> future = executorService.submit(new Task(s));
             /*给future添加监听器，用于注册回调方法*/
@@ -74,50 +76,60 @@ public class TestListenableFuture {
             e.printStackTrace();
         } finally {
             System.out.println("操作完毕");
-            pool.shutdown();
+            executorService.shutdown();
         }
     }
 
+    /**
+     * 卖车票（按完成顺序获取结果）：逐个调用future.get()时结果按提交顺序输出，排在前面的慢任务会阻塞后面早已完成的任务，
+     * 并且所有Future在最后一个任务完成之前都不能释放。这里先完成的任务先输出，
+     * 未取走的结果最多100个，卖票速度跟不上时暂停提交，内存占用与车票数量无关
+     */
     @Test
-    public void sellTicket2() {
+    public void sellTicket2() throws InterruptedException {
         List<String> list = createTickets();//获取车票
 
-        /*获取线程执行的结果*/
-        List<ListenableFuture<String>> futures = Lists.newArrayList();
-        ExecutorService pool = Executors.newFixedThreadPool(10);//定义线程数
-
-        /*定义监听线程池的服务*/
-        ListeningExecutorService executorService = MoreExecutors.listeningDecorator(pool);
-        for (String s : list) {
-            ListenableFuture<String> future = executorService.submit(new Task(s));
-            /*给future添加监听器，用于注册回调方法*/
-            future.addListener(
-                    /*第一个参数是Runnable，会在任务task执行完后执行*/
-                    () -> System.out.println("任务执行完毕！"),
-                    /*第二个参数是Executor，用于执行第一个参数的Runnable*/
-                    Runnable::run
-            );
-            futures.add(future);
-        }
-
+        ListeningExecutorService executorService = BlockingTaskExecutors.create("sell-ticket", 10);
         try {
-            //获取所有task的执行结果
-            futures.forEach(future -> {
-                try {
-                    System.out.println("任务执行结果--->>>"+future.get());
-                } catch (InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
+            /*按需为每张车票创建任务，不预先创建全部任务*/
+            List<Callable<String>> tasks = Lists.transform(list, Task::new);
+            AtomicInteger sold = new AtomicInteger();
+            CompletionStream.forEach(executorService, 100, tasks, result -> {
+                if (result.isSuccess()) {
+                    sold.incrementAndGet();
+                    System.out.println("任务执行结果--->>>" + result.getValue());
+                } else {
+                    result.getFailure().printStackTrace();
                 }
             });
-            System.out.println("所有任务执行完毕");
-        } catch (Exception e) {
-            e.printStackTrace();
+            System.out.println("所有任务执行完毕，共卖出" + sold.get() + "张");
         } finally {
             System.out.println("操作完毕");
-            pool.shutdown();
+            executorService.shutdown();
         }
     }
 
+    /**
+     * 卖车票（按块提交）：sellTicket1为每张车票提交一个任务，分配10000个Future和监听器，再聚合10000个Future，
+     * 调度开销远大于卖票本身。这里把车票切分为自适应大小的块，每块作为一个任务，块处理完后立即输出结果，
+     * 只分配块数个任务和一个表示完成的Future，实际数量见输出中的futuresAllocated和futuresPerItem
+     */
+    @Test
+    public void sellTicket3() throws Exception {
+        List<String> list = createTickets();//获取车票
+
+        ListeningExecutorService executorService = BlockingTaskExecutors.create("sell-ticket", 10);
+        ChunkedPipeline<String, String> pipeline = new ChunkedPipeline<>(executorService, 10, s -> new Task(s).call());
+        try {
+            ChunkedPipeline.Report report = pipeline.process(list, (offset, results) ->
+                    /*每块完成后回调一次（按完成顺序），offset为该块第一张车票的下标*/
+                    System.out.println("第" + offset + "张起的" + results.size() + "张车票卖出完毕")).get();
+            System.out.println("所有任务执行完毕，" + report);
+        } finally {
+            System.out.println("操作完毕");
+            executorService.shutdown();
+        }
+    }
 
     /**
      * 内部类，用于处理售票
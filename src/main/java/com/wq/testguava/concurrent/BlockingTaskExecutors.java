@@ -0,0 +1,125 @@
+package com.wq.testguava.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 执行阻塞任务（sleep、远程调用、数据库查询等）的线程池工厂，可以通过配置在虚拟线程和普通线程池之间切换。
+ * 普通线程池的吞吐量受线程数限制：10个线程执行每个耗时2秒的任务，每秒最多完成5个；
+ * 虚拟线程阻塞时不占用系统线程，每个任务一个虚拟线程，吞吐量只受任务本身的耗时和下游容量限制。
+ * 项目按JDK 8编译，虚拟线程（JDK 21+）通过反射创建，当前JDK不支持时回退为固定大小的普通线程池。
+ * 两种方式都包装为ListeningExecutorService，调用方的代码不需要区分。
+ * 通过系统属性 testguava.executor.mode 配置：auto（默认，支持时使用虚拟线程）、virtual、platform
+ */
+public final class BlockingTaskExecutors {
+
+    public static final String MODE_PROPERTY = "testguava.executor.mode";
+
+    public enum Mode {
+        /**
+         * 当前JDK支持时使用虚拟线程，否则使用普通线程池
+         */
+        AUTO,
+        /**
+         * 每个任务一个虚拟线程，当前JDK不支持时抛出IllegalStateException
+         */
+        VIRTUAL,
+        /**
+         * 固定大小的普通线程池
+         */
+        PLATFORM
+    }
+
+    // 当前JDK不支持虚拟线程时为null
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    private static final Method OF_VIRTUAL;
+
+    private static final Method BUILDER_NAME;
+
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Method newThreadPerTaskExecutor = null;
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builder.getMethod("name", String.class, long.class);
+            builderFactory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            //JDK 19/20中虚拟线程是预览特性，未开启--enable-preview时ofVirtual会抛出UnsupportedOperationException
+            ofVirtual.invoke(null);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            newThreadPerTaskExecutor = null;
+        }
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+    }
+
+    private BlockingTaskExecutors() {
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * 系统属性 testguava.executor.mode 配置的模式，未配置时为AUTO
+     */
+    public static Mode configuredMode() {
+        return Mode.valueOf(System.getProperty(MODE_PROPERTY, Mode.AUTO.name()).trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * 按系统属性配置的模式创建
+     *
+     * @param name            线程名前缀
+     * @param platformThreads 使用普通线程池时的线程数
+     */
+    public static ListeningExecutorService create(String name, int platformThreads) {
+        return create(configuredMode(), name, platformThreads);
+    }
+
+    /**
+     * @param name            线程名前缀
+     * @param platformThreads 使用普通线程池时的线程数
+     */
+    public static ListeningExecutorService create(Mode mode, String name, int platformThreads) {
+        Preconditions.checkNotNull(mode);
+        Preconditions.checkNotNull(name);
+        Preconditions.checkArgument(platformThreads > 0, "platformThreads必须大于0，当前platformThreads = %s", platformThreads);
+        Preconditions.checkState(mode != Mode.VIRTUAL || isVirtualThreadSupported(),
+                "当前JDK（%s）不支持虚拟线程，需要JDK 21及以上", System.getProperty("java.version"));
+        if (mode == Mode.PLATFORM || !isVirtualThreadSupported()) {
+            return MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(platformThreads,
+                    new ThreadFactoryBuilder().setNameFormat(name + "-%d").build()));
+        }
+        return MoreExecutors.listeningDecorator(newVirtualThreadPerTaskExecutor(name));
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("创建虚拟线程池失败", e);
+        }
+    }
+}
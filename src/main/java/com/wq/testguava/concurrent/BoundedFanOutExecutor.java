@@ -0,0 +1,386 @@
+package com.wq.testguava.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 有界的并发扇出执行器，用来替代 SynchronousQueue + 大maximumPoolSize 的线程池写法。
+ * 后者在提交的任务数超过maximumPoolSize时直接抛出RejectedExecutionException，因此循环提交任务时必须让线程数>=循环次数。
+ * 这里用信号量限制同时执行的任务数（maxConcurrency，线程数与之相同），提交时不会被拒绝：
+ * 1、submit：没有空闲许可时阻塞提交线程，直到有任务完成（背压），适合生产者可以等待的场景，内存只与maxConcurrency有关；
+ * 2、submitAsync：立即返回Future，任务在等待队列中排队，有许可时再执行，适合不能阻塞的调用线程（等待队列不设上限）；
+ * 3、forEachSuccessful：边提交边输出，每个任务成功后把结果交给consumer，不保留任务的Future和结果，
+ * 几万个任务也只占用maxConcurrency个线程，内存与任务总数无关；
+ * 4、successfulAsList：边提交边聚合，效果同Futures.successfulAsList（失败的任务结果为null），不保留每个任务的Future，
+ * 但结果列表本身与任务数成正比，任务数没有上限时应使用forEachSuccessful。
+ * shutdown后已交给线程池的任务继续执行，submitAsync等待队列中尚未开始的任务以RejectedExecutionException失败；
+ * 拿到许可之后线程池才关闭时同样以RejectedExecutionException失败，许可随之归还
+ */
+public class BoundedFanOutExecutor {
+
+    private final String name;
+
+    private final int maxConcurrency;
+
+    private final Semaphore permits;
+
+    private final ExecutorService delegate;
+
+    // submitAsync提交、尚未拿到许可的任务
+    private final Queue<PendingTask<?>> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final LongAdder completedCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    // 提交线程因背压而阻塞的总时间
+    private final LongAdder blockedNanos = new LongAdder();
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param name           线程名前缀
+     * @param maxConcurrency 同时执行的最大任务数（即线程数）
+     */
+    public BoundedFanOutExecutor(String name, int maxConcurrency) {
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency必须大于0，当前maxConcurrency = %s", maxConcurrency);
+        this.name = Preconditions.checkNotNull(name);
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        //许可保证同时最多只有maxConcurrency个任务进入线程池，队列实际不会堆积
+        this.delegate = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setNameFormat(name + "-%d").build());
+    }
+
+    /**
+     * 提交任务，没有空闲许可时阻塞直到有任务完成
+     *
+     * @throws RejectedExecutionException 等待许可期间执行器已关闭
+     */
+    public <T> ListenableFuture<T> submit(Callable<T> task) throws InterruptedException {
+        checkNotShutdown();
+        ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+        acquire();
+        start(future);
+        return future;
+    }
+
+    /**
+     * 提交任务，等待许可最多timeout，超时返回null（由调用方决定降级或重试）
+     *
+     * @throws RejectedExecutionException 等待许可期间执行器已关闭
+     */
+    public <T> ListenableFuture<T> trySubmit(Callable<T> task, long timeout, TimeUnit timeUnit) throws InterruptedException {
+        checkNotShutdown();
+        ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+        if (!permits.tryAcquire(timeout, timeUnit)) {
+            return null;
+        }
+        start(future);
+        return future;
+    }
+
+    /**
+     * 提交任务，不阻塞调用线程，没有空闲许可时任务在等待队列中排队
+     */
+    public <T> ListenableFuture<T> submitAsync(Callable<T> task) {
+        checkNotShutdown();
+        PendingTask<T> pendingTask = new PendingTask<>(task);
+        pendingCount.incrementAndGet();
+        pending.add(pendingTask);
+        drain();
+        return pendingTask.result;
+    }
+
+    /**
+     * 逐个提交任务（背压方式），每个任务成功后在执行该任务的线程中调用consumer(结果, 提交序号)，consumer可能被并发调用，需要线程安全；
+     * 失败的任务只计入failedCount。不保留任务的Future和结果，内存只与maxConcurrency有关。
+     * 提交过程在调用线程中进行，调用线程会随任务的执行进度被阻塞，直到最后一个任务提交完成。
+     * 返回的Future在所有已提交的任务完成后完成，值为已提交的任务数：提交线程被中断（中断状态保留）
+     * 或执行器在提交过程中关闭时停止提交，已开始的任务照常完成并输出结果
+     */
+    public <T> ListenableFuture<Integer> forEachSuccessful(Iterable<? extends Callable<? extends T>> tasks,
+                                                           ObjIntConsumer<? super T> consumer) {
+        return fanOut(tasks, consumer, index -> {
+        });
+    }
+
+    /**
+     * 逐个提交任务（背压方式）并聚合结果，返回的Future在所有已提交的任务完成后完成，结果顺序与提交顺序一致，失败的任务结果为null。
+     * 提交过程在调用线程中进行，调用线程会随任务的执行进度被阻塞，直到最后一个任务提交完成。
+     * 提交线程被中断或执行器在提交过程中关闭时停止提交（与forEachSuccessful相同），结果列表只包含已尝试提交的任务，
+     * 已完成的任务结果不会丢失
+     */
+    public <T> ListenableFuture<List<T>> successfulAsList(Iterable<? extends Callable<? extends T>> tasks) {
+        List<T> results = Collections.synchronizedList(new ArrayList<>());
+        ListenableFuture<Integer> submitted = fanOut(tasks, (T result, int index) -> results.set(index, result),
+                index -> results.add(null));
+        return Futures.transform(submitted, count -> results, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @param beforeSubmit 拿到许可、提交任务之前调用，参数为提交序号
+     */
+    private <T> ListenableFuture<Integer> fanOut(Iterable<? extends Callable<? extends T>> tasks,
+                                                 ObjIntConsumer<? super T> onSuccess, IntConsumer beforeSubmit) {
+        checkNotShutdown();
+        SettableFuture<Integer> done = SettableFuture.create();
+        AtomicInteger submitted = new AtomicInteger();
+        //初始为1，代表提交过程本身，全部提交完后再减去
+        AtomicInteger remaining = new AtomicInteger(1);
+        Iterator<? extends Callable<? extends T>> iterator = tasks.iterator();
+        try {
+            while (iterator.hasNext()) {
+                Callable<? extends T> task = iterator.next();
+                int index = submitted.get();
+                acquire();
+                beforeSubmit.accept(index);
+                remaining.incrementAndGet();
+                try {
+                    delegate.execute(() -> {
+                        try {
+                            onSuccess.accept(task.call(), index);
+                            completedCount.increment();
+                        } catch (Throwable t) {
+                            failedCount.increment();
+                        } finally {
+                            release();
+                            if (remaining.decrementAndGet() == 0) {
+                                done.set(submitted.get());
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    //拿到许可之后执行器已关闭
+                    rejected();
+                    remaining.decrementAndGet();
+                    break;
+                }
+                submitted.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (remaining.decrementAndGet() == 0) {
+            done.set(submitted.get());
+        }
+        return done;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * 正在执行的任务数
+     */
+    public int getInFlightCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * submitAsync提交、正在等待许可的任务数
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * 提交线程因背压而阻塞的总时间（毫秒）
+     */
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum());
+    }
+
+    /**
+     * 不再接受新任务，已交给线程池的任务继续执行，等待队列中的任务以RejectedExecutionException失败，之后线程池关闭
+     */
+    public void shutdown() {
+        shutdown = true;
+        drain();
+        tryTerminate();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, timeUnit);
+    }
+
+    private void acquire() throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        long start = System.nanoTime();
+        permits.acquire();
+        blockedNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * 拿到许可后线程池拒绝了任务（已关闭）：任务计为失败，归还许可
+     */
+    private void rejected() {
+        failedCount.increment();
+        permits.release();
+    }
+
+    private void release() {
+        permits.release();
+        if (!pending.isEmpty()) {
+            drain();
+        }
+        tryTerminate();
+    }
+
+    private void checkNotShutdown() {
+        Preconditions.checkState(!shutdown, "%s已关闭", name);
+    }
+
+    /**
+     * 关闭后等待队列已清空时关闭线程池（已交给线程池的任务继续执行）。
+     * 从等待队列取出的任务在交给线程池之后才减少pendingCount，因此线程池不会在任务交出之前关闭
+     */
+    private void tryTerminate() {
+        if (shutdown && pendingCount.get() == 0) {
+            delegate.shutdown();
+        }
+    }
+
+    /**
+     * 有空闲许可时把等待队列中的任务交给线程池；已关闭时让等待队列中的任务失败
+     */
+    private void drain() {
+        while (!pending.isEmpty()) {
+            if (shutdown) {
+                failPending();
+                return;
+            }
+            if (!permits.tryAcquire()) {
+                return;
+            }
+            PendingTask<?> pendingTask = pending.poll();
+            if (pendingTask == null) {
+                permits.release();
+                continue;
+            }
+            if (pendingTask.result.isDone()) {
+                //调用方已取消
+                permits.release();
+            } else {
+                startPending(pendingTask);
+            }
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    private void failPending() {
+        PendingTask<?> pendingTask;
+        while ((pendingTask = pending.poll()) != null) {
+            pendingTask.result.setException(new RejectedExecutionException(name + "已关闭，等待队列中的任务未执行"));
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    private <T> void startPending(PendingTask<T> pendingTask) {
+        ListenableFutureTask<T> task = ListenableFutureTask.create(pendingTask.callable);
+        try {
+            start(task);
+        } catch (RejectedExecutionException e) {
+            pendingTask.result.setException(e);
+            return;
+        }
+        pendingTask.bind(task);
+    }
+
+    /**
+     * 调用前需要已经拿到一个许可，任务完成后归还；线程池拒绝时归还许可并抛出RejectedExecutionException
+     */
+    private void start(ListenableFutureTask<?> task) {
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    if (isFailed(task)) {
+                        failedCount.increment();
+                    } else {
+                        completedCount.increment();
+                    }
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected();
+            throw e;
+        }
+    }
+
+    /**
+     * submitAsync提交、尚未开始执行的任务，result在实际任务交给线程池之后与其关联
+     */
+    private static final class PendingTask<T> {
+
+        final Callable<T> callable;
+
+        final SettableFuture<T> result = SettableFuture.create();
+
+        PendingTask(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        /**
+         * result在此之前已被调用方取消时一并取消任务
+         */
+        void bind(ListenableFutureTask<T> task) {
+            if (!result.setFuture(task)) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private static boolean isFailed(ListenableFutureTask<?> task) {
+        try {
+            task.get();
+            return false;
+        } catch (Exception e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.wq.testguava.concurrent;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 把大量很小的任务按块提交的流水线阶段。逐个提交时每个任务都要分配一个ListenableFuture和监听器，
+ * 最后再用Futures.successfulAsList聚合上万个Future，调度开销远大于任务本身（参见TestListenableFuture.sellTicket1）。
+ * 这里把输入列表切分为连续的块，每块作为一个任务在线程池中逐个处理，块处理完后立即把结果交给consumer（按完成顺序，
+ * consumer的调用是串行的），不保留每个元素的Future：每块分配一个任务，加上一个表示完成的Future，
+ * 两者的总数记录在 {@link Report#getFuturesAllocated()} 中，每个元素分配的数量远小于逐个提交时的1个以上。
+ * 块大小自适应：根据已完成的块估算每个元素的平均耗时，使每块的耗时接近targetChunkTime，并限制在[minChunkSize, maxChunkSize]之间；
+ * 同时处理的块数不超过parallelism，处理完一块再提交下一块，因此内存占用与输入规模无关（结果由consumer自行处理）。
+ * 单个元素处理失败（抛出Exception）时该元素的结果为null（与successfulAsList相同），不影响同一块中的其他元素；
+ * 抛出Error时整个处理以该Error失败，不再提交剩余的块
+ */
+public class ChunkedPipeline<T, R> {
+
+    /**
+     * 单个元素的处理方法
+     */
+    public interface Stage<T, R> {
+        R apply(T item) throws Exception;
+    }
+
+    /**
+     * 接收一个块的处理结果
+     */
+    public interface ChunkConsumer<R> {
+        /**
+         * @param offset  块中第一个元素在输入列表中的下标
+         * @param results 块中每个元素的结果，顺序与输入一致
+         */
+        void accept(int offset, List<? extends R> results);
+    }
+
+    private final Executor executor;
+
+    private final int parallelism;
+
+    private final Stage<? super T, ? extends R> stage;
+
+    private final int minChunkSize;
+
+    private final int maxChunkSize;
+
+    private final long targetChunkNanos;
+
+    /**
+     * 使用默认的块大小范围[16, 4096]，每块目标耗时1ms
+     */
+    public ChunkedPipeline(Executor executor, int parallelism, Stage<? super T, ? extends R> stage) {
+        this(executor, parallelism, stage, 16, 4096, 1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param executor        执行块的线程池
+     * @param parallelism     同时处理的最大块数，一般与线程数相同
+     * @param stage           单个元素的处理方法
+     * @param minChunkSize    最小块大小，也是第一批块的大小
+     * @param maxChunkSize    最大块大小
+     * @param targetChunkTime 每块的目标耗时
+     */
+    public ChunkedPipeline(Executor executor, int parallelism, Stage<? super T, ? extends R> stage,
+                           int minChunkSize, int maxChunkSize, long targetChunkTime, TimeUnit timeUnit) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism必须大于0，当前parallelism = %s", parallelism);
+        Preconditions.checkArgument(minChunkSize > 0 && minChunkSize <= maxChunkSize,
+                "块大小范围不合法，minChunkSize = %s，maxChunkSize = %s", minChunkSize, maxChunkSize);
+        Preconditions.checkArgument(targetChunkTime > 0, "targetChunkTime必须大于0");
+        this.executor = Preconditions.checkNotNull(executor);
+        this.parallelism = parallelism;
+        this.stage = Preconditions.checkNotNull(stage);
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.targetChunkNanos = timeUnit.toNanos(targetChunkTime);
+    }
+
+    /**
+     * 处理输入列表，返回的Future在所有块处理完、consumer调用完后完成；consumer抛出异常或线程池拒绝时以该异常失败
+     */
+    public ListenableFuture<Report> process(List<? extends T> items, ChunkConsumer<? super R> consumer) {
+        Run run = new Run(items, Preconditions.checkNotNull(consumer));
+        run.start();
+        return run.done;
+    }
+
+    /**
+     * 一次处理的统计
+     */
+    public static final class Report {
+
+        private final int items;
+
+        private final int failedItems;
+
+        private final int chunks;
+
+        private final int maxChunkSize;
+
+        private final int futuresAllocated;
+
+        private final long elapsedNanos;
+
+        Report(int items, int failedItems, int chunks, int maxChunkSize, int futuresAllocated, long elapsedNanos) {
+            this.items = items;
+            this.failedItems = failedItems;
+            this.chunks = chunks;
+            this.maxChunkSize = maxChunkSize;
+            this.futuresAllocated = futuresAllocated;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getItems() {
+            return items;
+        }
+
+        public int getFailedItems() {
+            return failedItems;
+        }
+
+        /**
+         * 提交到线程池的任务数
+         */
+        public int getChunks() {
+            return chunks;
+        }
+
+        public int getMaxChunkSize() {
+            return maxChunkSize;
+        }
+
+        public double getAverageChunkSize() {
+            return chunks == 0 ? 0 : (double) items / chunks;
+        }
+
+        /**
+         * 本次处理实际分配的Future和任务数：表示完成的Future，加上提交到线程池的每个块任务
+         */
+        public int getFuturesAllocated() {
+            return futuresAllocated;
+        }
+
+        /**
+         * 每个元素分配的Future和任务数，逐个提交再用successfulAsList聚合时至少为1
+         */
+        public double getFuturesPerItem() {
+            return items == 0 ? 0 : (double) futuresAllocated / items;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * 每秒处理的元素数
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : items * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("items", items)
+                    .add("failedItems", failedItems)
+                    .add("chunks", chunks)
+                    .add("averageChunkSize", String.format("%.1f", getAverageChunkSize()))
+                    .add("maxChunkSize", maxChunkSize)
+                    .add("futuresAllocated", futuresAllocated)
+                    .add("futuresPerItem", String.format("%.5f", getFuturesPerItem()))
+                    .add("elapsedMillis", getElapsedMillis())
+                    .add("throughput", String.format("%.0f/s", getThroughput()))
+                    .toString();
+        }
+    }
+
+    /**
+     * 输入列表中的一段，[offset, offset + size)
+     */
+    private static final class Chunk {
+
+        final int offset;
+
+        final int size;
+
+        Chunk(int offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private final class Run {
+
+        final List<? extends T> items;
+
+        final ChunkConsumer<? super R> consumer;
+
+        // 分配的Future和块任务数，在分配处计数
+        final AtomicInteger futuresAllocated = new AtomicInteger();
+
+        final SettableFuture<Report> done = newFuture();
+
+        final long startNanos = System.nanoTime();
+
+        // consumer的调用是串行的
+        final Object consumerLock = new Object();
+
+        // 以下字段 guarded by this
+        int next = 0;
+
+        int inFlight = 0;
+
+        int chunks = 0;
+
+        int failedItems = 0;
+
+        int largestChunk = 0;
+
+        // 每个元素的平均耗时（指数加权），<0表示还没有完成的块
+        double nanosPerItem = -1;
+
+        Run(List<? extends T> items, ChunkConsumer<? super R> consumer) {
+            this.items = items;
+            this.consumer = consumer;
+        }
+
+        SettableFuture<Report> newFuture() {
+            futuresAllocated.incrementAndGet();
+            return SettableFuture.create();
+        }
+
+        void start() {
+            List<Chunk> initial = new ArrayList<>(parallelism);
+            synchronized (this) {
+                for (int i = 0; i < parallelism; i++) {
+                    Chunk chunk = nextChunk();
+                    if (chunk == null) {
+                        break;
+                    }
+                    initial.add(chunk);
+                }
+            }
+            if (initial.isEmpty()) {
+                done.set(report());
+                return;
+            }
+            for (Chunk chunk : initial) {
+                submit(chunk);
+            }
+        }
+
+        /**
+         * guarded by this，没有剩余元素时返回null
+         */
+        Chunk nextChunk() {
+            if (next >= items.size() || done.isDone()) {
+                return null;
+            }
+            int size = nanosPerItem < 0 ? minChunkSize
+                    : (int) Math.max(minChunkSize, Math.min(maxChunkSize, targetChunkNanos / Math.max(1, nanosPerItem)));
+            size = Math.min(size, items.size() - next);
+            Chunk chunk = new Chunk(next, size);
+            next += size;
+            inFlight++;
+            chunks++;
+            largestChunk = Math.max(largestChunk, size);
+            return chunk;
+        }
+
+        void submit(Chunk chunk) {
+            Runnable task = () -> process(chunk);
+            futuresAllocated.incrementAndGet();
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                done.setException(e);
+            }
+        }
+
+        void process(Chunk chunk) {
+            long start = System.nanoTime();
+            long elapsed = -1;
+            int failed = 0;
+            try {
+                List<R> results = new ArrayList<>(chunk.size);
+                for (int i = chunk.offset; i < chunk.offset + chunk.size; i++) {
+                    try {
+                        results.add(stage.apply(items.get(i)));
+                    } catch (Exception e) {
+                        results.add(null);
+                        failed++;
+                    }
+                }
+                elapsed = System.nanoTime() - start;
+                synchronized (consumerLock) {
+                    consumer.accept(chunk.offset, results);
+                }
+            } catch (Throwable t) {
+                //consumer的异常或stage抛出的Error，之后nextChunk不再分配新的块
+                done.setException(t);
+            } finally {
+                complete(chunk, elapsed >= 0 ? elapsed : System.nanoTime() - start, failed);
+            }
+        }
+
+        /**
+         * 一个块结束（无论成功与否）后更新统计并提交下一块，所有块都结束后完成done
+         */
+        void complete(Chunk chunk, long elapsed, int failed) {
+            Chunk following;
+            boolean finished;
+            synchronized (this) {
+                double sample = (double) elapsed / chunk.size;
+                nanosPerItem = nanosPerItem < 0 ? sample : nanosPerItem * 0.7 + sample * 0.3;
+                failedItems += failed;
+                inFlight--;
+                following = nextChunk();
+                finished = following == null && inFlight == 0;
+            }
+            if (following != null) {
+                submit(following);
+            } else if (finished) {
+                done.set(report());
+            }
+        }
+
+        synchronized Report report() {
+            return new Report(items.size(), failedItems, chunks, largestChunk, futuresAllocated.get(),
+                    System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.wq.testguava.concurrent;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 按完成顺序逐个输出任务结果，用来替代 Futures.successfulAsList 和按提交顺序逐个调用 future.get()：
+ * 前者在最后一个任务完成之前保留所有的Future和结果，后者会被排在前面的慢任务阻塞，即使后面的任务早已完成。
+ * 已提交但结果还没有被取走的任务数不超过maxInFlight，达到上限时submit阻塞生产者，直到消费者取走一个结果（背压），
+ * 因此内存占用只与maxInFlight有关，与任务总数无关。
+ * 常用方式是 forEach（逐个回调）和 reduce（滚动聚合，例如计数、求和），两者在调用线程中交替提交任务和消费结果；
+ * 也可以由一个线程submit、另一个线程take。take只支持单个消费者
+ */
+public class CompletionStream<T> {
+
+    /**
+     * 单个任务的结果
+     */
+    public static final class Result<T> {
+
+        private final long index;
+
+        private final T value;
+
+        private final Throwable failure;
+
+        Result(long index, T value, Throwable failure) {
+            this.index = index;
+            this.value = value;
+            this.failure = failure;
+        }
+
+        /**
+         * 任务的提交顺序，从0开始
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        /**
+         * 任务的返回值，失败时为null
+         */
+        public T getValue() {
+            return value;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this).omitNullValues()
+                    .add("index", index).add("value", value).add("failure", failure).toString();
+        }
+    }
+
+    private final Executor executor;
+
+    private final int maxInFlight;
+
+    private final Semaphore permits;
+
+    private final BlockingQueue<Result<T>> completed = new LinkedBlockingQueue<>();
+
+    private final AtomicLong nextIndex = new AtomicLong();
+
+    // 已提交、结果还没有被取走的任务数
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * @param executor    执行任务的线程池
+     * @param maxInFlight 已提交但结果还没有被取走的最大任务数
+     */
+    public CompletionStream(Executor executor, int maxInFlight) {
+        Preconditions.checkArgument(maxInFlight > 0, "maxInFlight必须大于0，当前maxInFlight = %s", maxInFlight);
+        this.executor = Preconditions.checkNotNull(executor);
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * 按完成顺序把每个任务的结果交给consumer（在调用线程中执行），所有任务完成后返回
+     */
+    public static <T> void forEach(Executor executor, int maxInFlight, Iterable<? extends Callable<? extends T>> tasks,
+                                   Consumer<? super Result<T>> consumer) throws InterruptedException {
+        CompletionStream<T> stream = new CompletionStream<>(executor, maxInFlight);
+        for (Callable<? extends T> task : tasks) {
+            //没有空闲名额时先消费已完成的结果，而不是阻塞等待（调用线程同时是消费者）
+            while (!stream.trySubmit(task)) {
+                consumer.accept(stream.take());
+            }
+        }
+        for (Result<T> result = stream.take(); result != null; result = stream.take()) {
+            consumer.accept(result);
+        }
+    }
+
+    /**
+     * 按完成顺序滚动聚合成功任务的结果，失败的任务被跳过（与successfulAsList中的null相同）
+     *
+     * @param identity    初始值
+     * @param accumulator 把一个结果合并到当前值，在调用线程中串行执行
+     */
+    public static <T, A> A reduce(Executor executor, int maxInFlight, Iterable<? extends Callable<? extends T>> tasks,
+                                  A identity, BiFunction<A, ? super T, A> accumulator) throws InterruptedException {
+        Object[] holder = {identity};
+        forEach(executor, maxInFlight, tasks, (Result<T> result) -> {
+            if (result.isSuccess()) {
+                @SuppressWarnings("unchecked")
+                A current = (A) holder[0];
+                holder[0] = accumulator.apply(current, result.getValue());
+            }
+        });
+        @SuppressWarnings("unchecked")
+        A reduced = (A) holder[0];
+        return reduced;
+    }
+
+    /**
+     * 提交任务，未取走的结果达到maxInFlight时阻塞，直到消费者取走一个结果
+     */
+    public void submit(Callable<? extends T> task) throws InterruptedException {
+        permits.acquire();
+        start(task);
+    }
+
+    /**
+     * 提交任务，未取走的结果达到maxInFlight时不提交并返回false
+     */
+    public boolean trySubmit(Callable<? extends T> task) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        start(task);
+        return true;
+    }
+
+    /**
+     * 取出下一个完成的结果（按完成顺序），还没有完成时等待；所有已提交任务的结果都已取走时返回null
+     */
+    public Result<T> take() throws InterruptedException {
+        if (outstanding.get() == 0) {
+            return null;
+        }
+        return taken(completed.take());
+    }
+
+    /**
+     * 取出下一个完成的结果，最多等待timeout，超时或所有已提交任务的结果都已取走时返回null
+     */
+    public Result<T> poll(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        if (outstanding.get() == 0) {
+            return null;
+        }
+        return taken(completed.poll(timeout, timeUnit));
+    }
+
+    /**
+     * 已提交、结果还没有被取走的任务数
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    private Result<T> taken(Result<T> result) {
+        if (result != null) {
+            outstanding.decrementAndGet();
+            permits.release();
+        }
+        return result;
+    }
+
+    private void start(Callable<? extends T> task) {
+        long index = nextIndex.getAndIncrement();
+        outstanding.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                T value;
+                try {
+                    value = task.call();
+                } catch (Throwable t) {
+                    completed.add(new Result<>(index, null, t));
+                    return;
+                }
+                completed.add(new Result<>(index, value, null));
+            });
+        } catch (RejectedExecutionException e) {
+            outstanding.decrementAndGet();
+            permits.release();
+            throw e;
+        }
+    }
+}
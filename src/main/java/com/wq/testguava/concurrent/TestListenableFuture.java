@@ -2,12 +2,17 @@ package com.wq.testguava.concurrent;
 
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.*;
+import com.wq.testguava.utils.BaseGuavaCache;
+import com.wq.testguava.utils.GuavaCacheSpec;
 import lombok.extern.slf4j.Slf4j;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -22,13 +27,10 @@ import java.util.stream.IntStream;
 @Slf4j
 public class TestListenableFuture {
 
-    private static ThreadFactory threadFactory = new ThreadFactoryBuilder()
-            .setDaemon(false).setNameFormat("test-pool-%d").build();
-
-    private static final ExecutorService delegate = new ThreadPoolExecutor(20,
-            100, 60, TimeUnit.SECONDS, new SynchronousQueue<>(false), threadFactory);
-
-    private static final ListeningExecutorService listeningExecutorService = MoreExecutors.listeningDecorator(delegate);
+    /*
+     * 最多同时执行20个任务，超出的任务排队或阻塞提交线程，而不是像SynchronousQueue线程池那样直接拒绝
+     */
+    private static final BoundedFanOutExecutor fanOutExecutor = new BoundedFanOutExecutor("test-pool", 20);
 
     /**
      * 并发执行任务，但不阻塞main线程
@@ -37,14 +39,15 @@ public class TestListenableFuture {
     public void test1() {
 
         ArrayList<ListenableFuture<Integer>> list = Lists.newArrayList();
-        /* TODO
-         * 注意：由于使用ListenableFuture纯异步，所以如果通过循环创建任务，
-         * 那么务必注意线程池的maximumPoolSize需要>=循环次数，否则会因为线程数量达到上限无法继续提交任务而报错！！！
+        /*
+         * 注意：由于使用ListenableFuture纯异步，如果直接使用SynchronousQueue线程池循环创建任务，
+         * 线程池的maximumPoolSize需要>=循环次数，否则会因为线程数量达到上限无法继续提交任务而报错！！！
+         * 这里使用BoundedFanOutExecutor.submitAsync，超出并发上限的任务在等待队列中排队，循环次数不受线程数限制
          */
         IntStream.range(0, 100).forEach(i -> {
             log.info("开始执行第{}个task", i);
 
-            ListenableFuture<Integer> listenableFuture = listeningExecutorService.submit(() -> {
+            ListenableFuture<Integer> listenableFuture = fanOutExecutor.submitAsync(() -> {
                 try {
                     TimeUnit.MILLISECONDS.sleep(2000);
                     //模拟其中1个任务执行报错
@@ -108,7 +111,7 @@ public class TestListenableFuture {
          */
 //        Callable<String> callable = () -> "所有任务执行完毕！";
 //        ListenableFuture<String> future = Futures.whenAllSucceed(listenableFutures)
-//                .call(callable, listeningExecutorService);
+//                .call(callable, MoreExecutors.directExecutor());
 
         /*
          *  TODO
@@ -131,7 +134,7 @@ public class TestListenableFuture {
                 log.info("任务执行失败", t);
 
             }
-        }, listeningExecutorService);
+        }, MoreExecutors.directExecutor());
 
         log.info("main线程执行完成！");
 //        while (true) {
@@ -145,14 +148,15 @@ public class TestListenableFuture {
     public void test2() {
 
         ArrayList<ListenableFuture<Integer>> list = Lists.newArrayList();
-        /* TODO
-         * 注意：由于使用ListenableFuture纯异步，所以如果通过循环创建任务，
-         * 那么务必注意线程池的maximumPoolSize需要>=循环次数，否则会因为线程数量达到上限无法继续提交任务而报错！！！
+        /*
+         * 注意：由于使用ListenableFuture纯异步，如果直接使用SynchronousQueue线程池循环创建任务，
+         * 线程池的maximumPoolSize需要>=循环次数，否则会因为线程数量达到上限无法继续提交任务而报错！！！
+         * 这里使用BoundedFanOutExecutor.submitAsync，超出并发上限的任务在等待队列中排队，循环次数不受线程数限制
          */
         IntStream.range(0, 100).forEach(i -> {
             log.info("开始执行第{}个task", i);
 
-            ListenableFuture<Integer> listenableFuture = listeningExecutorService.submit(() -> {
+            ListenableFuture<Integer> listenableFuture = fanOutExecutor.submitAsync(() -> {
                 try {
                     TimeUnit.MILLISECONDS.sleep(2000);
                     //模拟其中1个任务执行报错
@@ -216,7 +220,7 @@ public class TestListenableFuture {
          */
 //        Callable<String> callable = () -> "所有任务执行完毕！";
 //        ListenableFuture<String> future = Futures.whenAllSucceed(listenableFutures)
-//                .call(callable, listeningExecutorService);
+//                .call(callable, MoreExecutors.directExecutor());
 
         /*
          *  TODO
@@ -238,6 +242,95 @@ public class TestListenableFuture {
 //        }
     }
 
+    /**
+     * 组合缓存的异步读取：先按用户id取出部门id，再按部门id取出部门名称，整个过程不阻塞调用线程。
+     * 缓存命中时getValueAsync直接返回已完成的Future，回调在当前线程中立即执行；
+     * 未命中时在缓存的刷新线程池中加载，调用线程（例如tomcat工作线程）无需等待后端
+     */
+    @Test
+    public void test3() throws Exception {
+        BaseGuavaCache<Integer, Integer> userDeptCache = new BaseGuavaCache<Integer, Integer>(
+                GuavaCacheSpec.<Integer, Integer>newBuilder().cacheName("user-dept").maxSize(100).build()) {
+            @Override
+            public void loadValueWhenStarted() {
+            }
+
+            @Override
+            protected Integer getValueWhenExpired(Integer userId) throws Exception {
+                //模拟查询数据库
+                TimeUnit.MILLISECONDS.sleep(200);
+                return userId % 3;
+            }
+        };
+        BaseGuavaCache<Integer, String> deptNameCache = new BaseGuavaCache<Integer, String>(
+                GuavaCacheSpec.<Integer, String>newBuilder().cacheName("dept-name").maxSize(100).build()) {
+            @Override
+            public void loadValueWhenStarted() {
+            }
+
+            @Override
+            protected String getValueWhenExpired(Integer deptId) throws Exception {
+                TimeUnit.MILLISECONDS.sleep(200);
+                return "部门" + deptId;
+            }
+        };
+
+        ArrayList<ListenableFuture<String>> list = Lists.newArrayList();
+        IntStream.range(0, 10).forEach(userId -> list.add(
+                //transformAsync：前一个Future完成后，用其结果发起下一个异步读取
+                Futures.transformAsync(userDeptCache.getValueAsync(userId), deptNameCache::getValueAsync,
+                        MoreExecutors.directExecutor())));
+        log.info("10个查询已全部提交，main线程没有被阻塞");
+
+        /*
+         * 第一次执行时全部未命中，耗时约为两次加载的时间（400ms）；再次执行时全部命中，Future直接完成
+         */
+        log.info("部门名称：{}", Futures.allAsList(list).get());
+        ListenableFuture<String> hit = Futures.transformAsync(userDeptCache.getValueAsync(1),
+                deptNameCache::getValueAsync, MoreExecutors.directExecutor());
+        log.info("再次查询，isDone = {}，result = {}", hit.isDone(), hit.get());
+    }
+
+    /**
+     * 使用BoundedFanOutExecutor.successfulAsList提交1万个任务：提交过程受并发上限约束（背压），
+     * 不保留每个任务的Future，结果顺序与提交顺序一致，失败的任务结果为null
+     */
+    @Test
+    public void test4() throws Exception {
+        List<Callable<Integer>> tasks = IntStream.range(0, 10000).<Callable<Integer>>mapToObj(i -> () -> {
+            TimeUnit.MILLISECONDS.sleep(10);
+            //模拟部分任务执行报错
+            if (i % 1000 == 0) {
+                throw new IllegalStateException("task " + i + " failed");
+            }
+            return i;
+        }).collect(Collectors.toList());
+
+        long start = System.currentTimeMillis();
+        List<Integer> results = fanOutExecutor.successfulAsList(tasks).get();
+        log.info("{}个任务执行完毕，耗时{}ms，失败{}个，提交线程因背压阻塞{}ms", results.size(),
+                System.currentTimeMillis() - start, results.stream().filter(Objects::isNull).count(),
+                fanOutExecutor.getBlockedMillis());
+    }
+
+    /**
+     * 使用CompletionStream滚动聚合：按完成顺序累加1000个任务的结果，不保留任何Future和结果列表，
+     * 未取走的结果最多50个，内存占用与任务总数无关
+     */
+    @Test
+    public void test5() throws Exception {
+        Iterable<Callable<Integer>> tasks = () -> IntStream.range(0, 1000).<Callable<Integer>>mapToObj(i -> () -> {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextInt(20));
+            return i;
+        }).iterator();
 
+        ExecutorService pool = Executors.newFixedThreadPool(20);
+        try {
+            long start = System.currentTimeMillis();
+            long sum = CompletionStream.reduce(pool, 50, tasks, 0L, (total, i) -> total + i);
+            log.info("所有任务执行完毕，sum = {}，耗时{}ms", sum, System.currentTimeMillis() - start);
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
- 
@@ -0,0 +1,34 @@
+package com.wq.testguava.controller;
+
+import com.wq.testguava.utils.BaseGuavaCache;
+import com.wq.testguava.utils.GuavaCacheRegistry;
+import com.wq.testguava.utils.GuavaCacheStats;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * @desc 导出所有 {@link BaseGuavaCache} 的统计指标
+ */
+@RestController
+@RequestMapping("/caches")
+public class GuavaCacheStatsController {
+
+    @GetMapping("/stats")
+    public List<GuavaCacheStats> stats() {
+        return GuavaCacheRegistry.getCaches().stream()
+                .map(BaseGuavaCache::getStats)
+                .collect(Collectors.toList());
+    }
+
+    @GetMapping("/stats/{name}")
+    public ResponseEntity<GuavaCacheStats> stats(@PathVariable String name) {
+        BaseGuavaCache<?, ?> cache = GuavaCacheRegistry.getCache(name);
+        return cache == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(cache.getStats());
+    }
+}
@@ -0,0 +1,30 @@
+package com.wq.testguava.envntBus;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 标注 {@link FastEventBus} 中批量接收事件的订阅方法，方法只能有1个 {@code List<E>} 类型的参数，
+ * 接收E类型（及其子类）的事件。攒够maxSize个事件，或第一个事件到达后经过maxDelayMillis毫秒，以先到者为准，
+ * 把这些事件按发布顺序作为一个不可修改的List调用一次订阅方法
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface BatchSubscribe {
+
+    /**
+     * 每批的最大事件数
+     */
+    int maxSize() default 100;
+
+    /**
+     * 一批中第一个事件最多等待的毫秒数，0表示每次drain结束时立即投递已取出的事件
+     */
+    long maxDelayMillis() default 10;
+}
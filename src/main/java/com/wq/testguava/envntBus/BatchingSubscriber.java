@@ -0,0 +1,136 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.base.Preconditions;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 标注了 {@link BatchSubscribe} 的订阅方法。drain时把取出的事件放入当前批次，攒够maxSize个立即投递；
+ * 不足maxSize个时，批次中第一个事件到达maxDelay后投递，由一个共用的定时线程在到期时触发一次drain。
+ * 当前批次只在drain线程中访问，不需要加锁。开启journal时整批投递（或写入死信）后才记录批次中最后一个事件的offset
+ */
+final class BatchingSubscriber extends QueuedSubscriber {
+
+    // 所有批量订阅方法共用，只负责到期时提交drain任务，不执行订阅方法
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fast-event-bus-batch-timer").build());
+
+    private final int maxSize;
+
+    private final long maxDelayNanos;
+
+    // 以下字段只在drain线程中访问
+    private List<Object> batch;
+
+    private long deadline;
+
+    // 开启journal时当前批次中的事件及其offset，整批失败时写入死信
+    private List<Journaled> journaled = new ArrayList<>();
+
+    // 开启journal时当前批次最后一个事件的offset
+    private long batchLastOffset = -1;
+
+    // 是否已有未触发的定时任务
+    private final AtomicBoolean timerArmed = new AtomicBoolean();
+
+    // 定时任务已触发，需要执行一次drain检查批次是否到期
+    private final AtomicBoolean timerFired = new AtomicBoolean();
+
+    BatchingSubscriber(FastEventBus bus, Object target, Method method, BatchSubscribe annotation, int queueCapacity) {
+        super(bus, target, method, elementType(method), queueCapacity);
+        Preconditions.checkArgument(annotation.maxSize() > 0,
+                "订阅方法 %s 的maxSize必须大于0，当前maxSize = %s", method, annotation.maxSize());
+        Preconditions.checkArgument(annotation.maxDelayMillis() >= 0,
+                "订阅方法 %s 的maxDelayMillis不能小于0，当前maxDelayMillis = %s", method, annotation.maxDelayMillis());
+        this.maxSize = annotation.maxSize();
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(annotation.maxDelayMillis());
+        this.batch = new ArrayList<>(maxSize);
+    }
+
+    /**
+     * 订阅方法参数 {@code List<E>} 中的E
+     */
+    static Class<?> elementType(Method method) {
+        Preconditions.checkArgument(method.getParameterTypes()[0].isAssignableFrom(List.class),
+                "批量订阅方法 %s 的参数必须是List", method);
+        return TypeToken.of(method.getGenericParameterTypes()[0])
+                .resolveType(Iterable.class.getTypeParameters()[0]).getRawType();
+    }
+
+    @Override
+    boolean hasPendingWork() {
+        return super.hasPendingWork() || timerFired.get();
+    }
+
+    @Override
+    void drain() {
+        timerFired.set(false);
+        super.drain();
+        if (batch.isEmpty()) {
+            return;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            flush();
+        } else if (timerArmed.compareAndSet(false, true)) {
+            //已有定时任务时不再提交：批次的到期时间只会越来越晚，先到期的定时任务触发drain后会重新检查
+            TIMER.schedule(this::onTimer, remaining, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    void dispatch(Object event) {
+        if (batch.isEmpty()) {
+            deadline = System.nanoTime() + maxDelayNanos;
+        }
+        if (event instanceof Journaled) {
+            journaled.add((Journaled) event);
+            batchLastOffset = ((Journaled) event).offset;
+        }
+        batch.add(Journaled.eventOf(event));
+        if (batch.size() >= maxSize) {
+            flush();
+        }
+    }
+
+    @Override
+    void acknowledge(long offset) {
+        if (batch.isEmpty()) {
+            super.acknowledge(offset);
+        } else {
+            //批次投递后一起记录
+            batchLastOffset = offset;
+        }
+    }
+
+    private void flush() {
+        List<Object> events = batch;
+        batch = new ArrayList<>(maxSize);
+        if (batchLastOffset < 0) {
+            invoke(Collections.unmodifiableList(events), events.size());
+            return;
+        }
+        List<Journaled> elements = journaled;
+        journaled = new ArrayList<>();
+        invokeJournaled(Collections.unmodifiableList(events), events.size(), elements);
+        commitOffset(batchLastOffset);
+        batchLastOffset = -1;
+    }
+
+    private void onTimer() {
+        timerArmed.set(false);
+        timerFired.set(true);
+        schedule();
+    }
+}
@@ -0,0 +1,25 @@
+package com.wq.testguava.envntBus;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 标注 {@link FastEventBus} 中按key合并事件的订阅方法，方法只能有1个参数（与 {@link com.google.common.eventbus.Subscribe} 相同）。
+ * 同一key的事件在订阅方法处理之前只保留最新的一个，适用于只关心最新状态的订阅者（例如行情、进度），
+ * 突发时订阅方法的调用次数与key的数量有关，而与事件数无关。不同key之间按key第一次进入队列的顺序投递
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CoalesceSubscribe {
+
+    /**
+     * 事件类型上返回key的public无参方法名，例如 getMessage；返回值不能为null，按equals判断是否为同一key
+     */
+    String key();
+}
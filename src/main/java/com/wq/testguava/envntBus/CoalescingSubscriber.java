@@ -0,0 +1,102 @@
+package com.wq.testguava.envntBus;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 标注了 {@link CoalesceSubscribe} 的订阅方法。队列中放的是key而不是事件，每个key的最新事件保存在latest中：
+ * key已在latest中时只替换事件，不再入队；drain取出key时再从latest中移除并投递该key当前最新的事件。
+ * 对同一key的替换、入队和移除通过ConcurrentHashMap按key原子执行，因此队列中的key与latest中的key始终一一对应，
+ * 不会出现事件在latest中却没有对应key入队（永远不被投递）的情况。
+ * 开启journal时不同key的事件不按offset顺序投递，pendingOffsets中记录已入队、尚未投递完的事件的offset，
+ * 比其中最小值小的事件都已投递或被覆盖，据此记录进度；没有未投递的事件时记录已投递的最大offset
+ */
+final class CoalescingSubscriber extends QueuedSubscriber {
+
+    private final KeyExtractor keyExtractor;
+
+    private final ConcurrentMap<Object, Object> latest = new ConcurrentHashMap<>();
+
+    // 开启journal时latest中和正在投递的事件的offset，发布线程在日志锁内按offset顺序加入
+    private final ConcurrentSkipListSet<Long> pendingOffsets = new ConcurrentSkipListSet<>();
+
+    private final LongAdder coalescedCount = new LongAdder();
+
+    // 已投递的最大offset，只在drain线程中访问
+    private long deliveredOffset = -1;
+
+    CoalescingSubscriber(FastEventBus bus, Object target, Method method, CoalesceSubscribe annotation, int queueCapacity) {
+        super(bus, target, method, queueCapacity);
+        this.keyExtractor = new KeyExtractor(getEventType(), annotation.key());
+    }
+
+    @Override
+    boolean offer(Object event) {
+        Object key;
+        try {
+            key = keyExtractor.keyOf(Journaled.eventOf(event));
+        } catch (Throwable e) {
+            //无法合并的事件不投递，计入failedCount
+            bus.handleException(e, event, this);
+            return true;
+        }
+        boolean[] accepted = {true};
+        latest.compute(key, (k, previous) -> {
+            if (previous != null) {
+                coalescedCount.increment();
+                //先加入新的offset再移除被覆盖的，最小值不会越过未投递的事件
+                track(event);
+                untrack(previous);
+                return event;
+            }
+            if (queue.offer(k)) {
+                track(event);
+                return event;
+            }
+            accepted[0] = false;
+            return null;
+        });
+        return accepted[0];
+    }
+
+    @Override
+    void drain() {
+        queue.drain(key -> {
+            Object event = latest.remove(key);
+            if (event != null) {
+                dispatch(event);
+            }
+        }, bus.drainBatchSize());
+        catchUp();
+    }
+
+    @Override
+    void acknowledge(long offset) {
+        deliveredOffset = Math.max(deliveredOffset, offset);
+        pendingOffsets.remove(offset);
+        Long pending = pendingOffsets.ceiling(Long.MIN_VALUE);
+        super.acknowledge(pending == null ? deliveredOffset : Math.min(deliveredOffset, pending - 1));
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    private void track(Object event) {
+        if (event instanceof Journaled) {
+            pendingOffsets.add(((Journaled) event).offset);
+        }
+    }
+
+    private void untrack(Object event) {
+        if (event instanceof Journaled) {
+            pendingOffsets.remove(((Journaled) event).offset);
+        }
+    }
+}
@@ -7,6 +7,11 @@ import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author 万强
  * @version 1.0
@@ -24,13 +29,50 @@ public class EventBusTest {
         eventBus.post(new Event2("Hello all listeners, this is event2..."));
     }
 
+    /**
+     * 异步总线：post只把事件放入每个订阅方法的队列，订阅方法在线程池中执行，发布线程不等待
+     */
+    @Test
+    public void test2() throws InterruptedException {
+        FastEventBus eventBus = new FastEventBus("Joker");
+        eventBus.register(new EventListener());
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            eventBus.post(new Event1("event1-" + i));
+        }
+        log.info("发布1000个事件耗时{}us", (System.nanoTime() - start) / 1000);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (eventBus.getDeliveredCount() < 2000) {
+            assertTrue("等待超时", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        log.info("posted = {}，delivered = {}，blockedMillis = {}",
+                eventBus.getPostedCount(), eventBus.getDeliveredCount(), eventBus.getBlockedMillis());
+    }
+
+    /**
+     * 高频事件：Event1批量接收，Event2按message合并，订阅方法的调用次数远小于事件数
+     */
+    @Test
+    public void test3() throws InterruptedException {
+        FastEventBus eventBus = new FastEventBus("Joker");
+        eventBus.register(new BatchEventListener());
+        for (int i = 0; i < 10000; i++) {
+            eventBus.post(new Event1("event1-" + i));
+            eventBus.post(new Event2("event2-" + i % 10));
+        }
+        Thread.sleep(200);
+        log.info("posted = {}，delivered = {}，invocations = {}，coalesced = {}", eventBus.getPostedCount(),
+                eventBus.getDeliveredCount(), eventBus.getInvocationCount(), eventBus.getCoalescedCount());
+    }
+
     public static class Event{}
 
     @Data
     public static class Event1 extends Event{
         private String message;
 
-        Event1(String message){
+        public Event1(String message){
             this.message = message;
         }
     }
@@ -39,7 +81,7 @@ public class EventBusTest {
     public static class Event2 extends Event{
         private String message;
 
-        Event2(String message){
+        public Event2(String message){
             this.message = message;
         }
     }
@@ -66,5 +108,23 @@ public class EventBusTest {
         }
     }
 
+    public static class BatchEventListener{
+        /**
+         * 每500个或每50毫秒接收一批Event1
+         */
+        @BatchSubscribe(maxSize = 500, maxDelayMillis = 50)
+        public void listen(List<Event1> events){
+            log.info("监听到{}个【Event1】事件，最后一个event = {}", events.size(), events.get(events.size() - 1));
+        }
+
+        /**
+         * message相同的Event2只接收最新的一个
+         */
+        @CoalesceSubscribe(key = "getMessage")
+        public void listen(Event2 event2){
+            log.info("监听到【Event2】事件，event = {}", event2);
+        }
+    }
+
 }
  
@@ -0,0 +1,776 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.wq.testguava.utils.JdkSerializer;
+import com.wq.testguava.utils.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc {@link FastEventBus} 的事件日志，只追加写入，按segmentBytes切分为多个segment文件（文件名为第一条记录的offset）。
+ * append只把记录放入内存中的待写列表并分配offset（单调递增，从0开始），由一个写线程批量写入（group commit）：
+ * 每批记录一次FileChannel写入、一次fsync，发布线程不等待磁盘，批次大小随写入压力自动增大。
+ * 每个订阅方法的消费进度（已处理的最大offset）定期写入offsets文件，重启后订阅方法从该位置继续投递（至少一次）；
+ * 所有订阅方法都已处理完的segment会被删除；已注销（或重启后没有重新注册）的订阅方法的进度保留untrackedExpiry，
+ * 到期后丢弃，不再阻止删除segment，之后重新注册时只接收新的事件。
+ * 订阅方法重试后仍然失败的事件追加到dead-letters文件（{@link #getDeadLetters()}），进度照常推进。
+ * 记录格式：长度(int) crc32(int) offset(long) 事件序列化后的字节；打开时校验最后一个segment，截掉写了一半的记录
+ */
+public class EventJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String OFFSETS_FILE = "offsets";
+
+    private static final int OFFSETS_MAGIC = 0x454A4F31;
+
+    private static final String DEAD_LETTERS_FILE = "dead-letters";
+
+    private static final int RECORD_HEADER_BYTES = 4 + 4 + 8;
+
+    /**
+     * 读取到的一条记录
+     */
+    static final class Entry {
+
+        final long offset;
+
+        final byte[] payload;
+
+        Entry(long offset, byte[] payload) {
+            this.offset = offset;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * 订阅方法重试后仍然失败的事件
+     */
+    public static final class DeadLetter {
+
+        private final String subscriber;
+
+        private final long offset;
+
+        private final Object event;
+
+        DeadLetter(String subscriber, long offset, Object event) {
+            this.subscriber = subscriber;
+            this.offset = offset;
+            this.event = event;
+        }
+
+        /**
+         * 订阅方法在日志中记录进度使用的名称
+         */
+        public String getSubscriber() {
+            return subscriber;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public Object getEvent() {
+            return event;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("subscriber", subscriber)
+                    .add("offset", offset)
+                    .add("event", event)
+                    .toString();
+        }
+    }
+
+    private final Path directory;
+
+    private final Serializer<Object> serializer;
+
+    private final long segmentBytes;
+
+    private final long offsetFlushNanos;
+
+    private final long untrackedExpiryNanos;
+
+    // 以下字段 guarded by this
+    private long nextOffset;
+
+    private List<Entry> pending = new ArrayList<>();
+
+    private boolean closed;
+
+    private IOException failure;
+
+    // offset小于writtenOffset的记录已写入文件，可以读取
+    private volatile long writtenOffset;
+
+    // offset小于durableOffset的记录已fsync
+    private volatile long durableOffset;
+
+    // segment第一条记录的offset -> 文件
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+
+    // 以下字段只由写线程访问（打开时除外）
+    private FileChannel active;
+
+    private long activeSize;
+
+    private long lastOffsetFlush = System.nanoTime();
+
+    // 订阅方法 -> 已处理的最大offset，包括已注销的订阅方法最后一次的进度
+    private final ConcurrentMap<String, Long> committed = new ConcurrentHashMap<>();
+
+    // 当前注册的订阅方法的进度
+    private final ConcurrentMap<String, LongSupplier> trackers = new ConcurrentHashMap<>();
+
+    // committed中没有注册的订阅方法 -> 开始不被跟踪的时间（System.nanoTime），超过untrackedExpiry后丢弃其进度
+    private final ConcurrentMap<String, Long> untrackedSince = new ConcurrentHashMap<>();
+
+    // 死信文件，第一次写入时打开，guarded by deadLetterLock
+    private final Object deadLetterLock = new Object();
+
+    private FileChannel deadLetters;
+
+    private volatile Runnable writeListener = () -> {
+    };
+
+    private final LongAdder appendedCount = new LongAdder();
+
+    private final LongAdder syncCount = new LongAdder();
+
+    private final LongAdder writtenBytes = new LongAdder();
+
+    private final Thread writer;
+
+    /**
+     * 使用JDK序列化，segment大小64MB，每200毫秒保存一次消费进度，注销的订阅方法的进度保留1小时
+     */
+    public EventJournal(Path directory) throws IOException {
+        this(directory, new JdkSerializer<>(), 64L * 1024 * 1024, 200, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param directory          segment文件和offsets文件所在目录，不存在时创建
+     * @param serializer         事件的序列化方法
+     * @param segmentBytes       单个segment文件的大小上限，超过后写入新文件（单条记录超过该大小时独占一个文件）
+     * @param offsetFlushInterval 消费进度的保存间隔，进程崩溃时这段时间内处理过的事件会被重新投递
+     */
+    public EventJournal(Path directory, Serializer<Object> serializer, long segmentBytes,
+                        long offsetFlushInterval, TimeUnit timeUnit) throws IOException {
+        this(directory, serializer, segmentBytes, offsetFlushInterval, timeUnit.convert(1, TimeUnit.HOURS), timeUnit);
+    }
+
+    /**
+     * @param untrackedExpiry 已注销（或重启后没有重新注册）的订阅方法的进度保留时间，期间其未处理的segment不会被删除
+     */
+    public EventJournal(Path directory, Serializer<Object> serializer, long segmentBytes,
+                        long offsetFlushInterval, long untrackedExpiry, TimeUnit timeUnit) throws IOException {
+        Preconditions.checkArgument(segmentBytes > RECORD_HEADER_BYTES, "segmentBytes过小，当前segmentBytes = %s", segmentBytes);
+        Preconditions.checkArgument(offsetFlushInterval >= 0, "offsetFlushInterval不能小于0");
+        Preconditions.checkArgument(untrackedExpiry >= 0, "untrackedExpiry不能小于0");
+        this.directory = Preconditions.checkNotNull(directory);
+        this.serializer = Preconditions.checkNotNull(serializer);
+        this.segmentBytes = segmentBytes;
+        this.offsetFlushNanos = timeUnit.toNanos(offsetFlushInterval);
+        this.untrackedExpiryNanos = timeUnit.toNanos(untrackedExpiry);
+        Files.createDirectories(directory);
+        recover();
+        loadOffsets();
+        this.writer = new Thread(this::writeLoop, "event-journal-writer-" + directory.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 追加一条记录，不等待写入磁盘
+     *
+     * @return 记录的offset
+     * @throws IllegalStateException 日志已关闭或写入失败
+     */
+    public synchronized long append(byte[] payload) {
+        checkWritable();
+        long offset = nextOffset++;
+        pending.add(new Entry(offset, payload));
+        if (pending.size() == 1) {
+            notifyAll();
+        }
+        appendedCount.increment();
+        return offset;
+    }
+
+    /**
+     * 等待已追加的记录全部fsync
+     */
+    public synchronized void sync() throws InterruptedException, IOException {
+        long target = nextOffset;
+        while (durableOffset < target) {
+            if (failure != null) {
+                throw failure;
+            }
+            Preconditions.checkState(!closed || writer.isAlive(), "日志已关闭");
+            wait(10);
+        }
+    }
+
+    /**
+     * 下一条记录的offset，即已追加的记录数
+     */
+    public synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+    public long getDurableOffset() {
+        return durableOffset;
+    }
+
+    public long getAppendedCount() {
+        return appendedCount.sum();
+    }
+
+    /**
+     * fsync的次数，与追加的记录数之比即平均每批的记录数
+     */
+    public long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes.sum();
+    }
+
+    /**
+     * 当前segment文件数
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 保存的消费进度，订阅方法 -> 已处理的最大offset
+     */
+    public Map<String, Long> getCommittedOffsets() {
+        Map<String, Long> offsets = new HashMap<>(committed);
+        for (Map.Entry<String, LongSupplier> tracker : trackers.entrySet()) {
+            offsets.put(tracker.getKey(), tracker.getValue().getAsLong());
+        }
+        return offsets;
+    }
+
+    /**
+     * 读取死信文件中的全部事件，按写入顺序
+     */
+    public List<DeadLetter> getDeadLetters() throws IOException {
+        Path file = directory.resolve(DEAD_LETTERS_FILE);
+        List<DeadLetter> letters = new ArrayList<>();
+        synchronized (deadLetterLock) {
+            if (!Files.exists(file)) {
+                return letters;
+            }
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                while (true) {
+                    String subscriber;
+                    long offset;
+                    byte[] payload;
+                    try {
+                        subscriber = in.readUTF();
+                        offset = in.readLong();
+                        payload = new byte[in.readInt()];
+                        in.readFully(payload);
+                    } catch (EOFException e) {
+                        //文件末尾，或进程退出时写了一半的记录
+                        return letters;
+                    }
+                    letters.add(new DeadLetter(subscriber, offset, serializer.deserialize(payload)));
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空死信文件，例如人工处理完之后
+     */
+    public void clearDeadLetters() throws IOException {
+        synchronized (deadLetterLock) {
+            if (deadLetters != null) {
+                deadLetters.truncate(0);
+                deadLetters.force(true);
+            } else {
+                Files.deleteIfExists(directory.resolve(DEAD_LETTERS_FILE));
+            }
+        }
+    }
+
+    /**
+     * 写入剩余的记录和消费进度后关闭
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (deadLetterLock) {
+            if (deadLetters != null) {
+                deadLetters.close();
+                deadLetters = null;
+            }
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    Serializer<Object> serializer() {
+        return serializer;
+    }
+
+    long writtenOffset() {
+        return writtenOffset;
+    }
+
+    /**
+     * 每批记录写入文件后回调（在写线程中执行），用于通知落后的订阅方法继续读取
+     */
+    void setWriteListener(Runnable writeListener) {
+        this.writeListener = Preconditions.checkNotNull(writeListener);
+    }
+
+    /**
+     * 开始跟踪订阅方法的消费进度
+     *
+     * @return 上次保存的进度，没有时返回-1
+     */
+    long track(String subscriber, LongSupplier offset) {
+        Preconditions.checkArgument(trackers.putIfAbsent(subscriber, offset) == null, "订阅方法已注册: %s", subscriber);
+        untrackedSince.remove(subscriber);
+        return committed.getOrDefault(subscriber, -1L);
+    }
+
+    /**
+     * 停止跟踪，最后的进度保留untrackedExpiry
+     */
+    void untrack(String subscriber) {
+        LongSupplier offset = trackers.remove(subscriber);
+        if (offset != null) {
+            committed.put(subscriber, offset.getAsLong());
+            untrackedSince.put(subscriber, System.nanoTime());
+        }
+    }
+
+    /**
+     * 追加一条死信并fsync
+     */
+    void appendDeadLetter(String subscriber, long offset, byte[] payload) throws IOException {
+        synchronized (deadLetterLock) {
+            checkWritable();
+            if (deadLetters == null) {
+                deadLetters = FileChannel.open(directory.resolve(DEAD_LETTERS_FILE), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(deadLetters));
+            out.writeUTF(subscriber);
+            out.writeLong(offset);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+            deadLetters.force(false);
+        }
+    }
+
+    boolean isTracked(String subscriber) {
+        return trackers.containsKey(subscriber);
+    }
+
+    /**
+     * 有进度的订阅方法，包括已注销但进度尚未丢弃的
+     */
+    Set<String> subscribers() {
+        Set<String> subscribers = new HashSet<>(committed.keySet());
+        subscribers.addAll(trackers.keySet());
+        return subscribers;
+    }
+
+    /**
+     * 从offset开始顺序读取已写入文件的记录
+     */
+    Reader reader(long offset) {
+        return new Reader(offset);
+    }
+
+    private synchronized void checkWritable() {
+        Preconditions.checkState(!closed, "日志已关闭");
+        if (failure != null) {
+            throw new IllegalStateException("日志写入失败", failure);
+        }
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+        Map.Entry<Long, Path> last = segments.lastEntry();
+        FileChannel channel = FileChannel.open(last.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long expected = last.getKey();
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (position + RECORD_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            long offset = header.getLong();
+            if (length < 0 || offset != expected || position + RECORD_HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + RECORD_HEADER_BYTES);
+            if (crc(payload.array()) != crc) {
+                break;
+            }
+            position += RECORD_HEADER_BYTES + length;
+            expected++;
+        }
+        if (position < size) {
+            logger.warn("事件日志 {} 末尾有{}字节不完整的记录，已截断", last.getValue(), size - position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+        active = channel;
+        activeSize = position;
+        nextOffset = expected;
+        writtenOffset = expected;
+        durableOffset = expected;
+    }
+
+    private void loadOffsets() throws IOException {
+        Path file = directory.resolve(OFFSETS_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != OFFSETS_MAGIC) {
+                throw new IOException("无法识别的offsets文件: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String subscriber = in.readUTF();
+                //进度不能超过日志中实际存在的记录（例如日志被截断）
+                committed.put(subscriber, Math.min(in.readLong(), nextOffset - 1));
+                untrackedSince.put(subscriber, System.nanoTime());
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<Entry> batch;
+            boolean finished;
+            synchronized (this) {
+                if (pending.isEmpty() && !closed) {
+                    try {
+                        wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(offsetFlushNanos)));
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                finished = closed && batch.isEmpty();
+            }
+            try {
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                if (finished || System.nanoTime() - lastOffsetFlush >= offsetFlushNanos) {
+                    flushOffsets();
+                }
+                if (finished) {
+                    if (active != null) {
+                        active.close();
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                logger.error("事件日志写入失败，directory: " + directory, e);
+                synchronized (this) {
+                    failure = e;
+                    closed = true;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void write(List<Entry> batch) throws IOException {
+        int i = 0;
+        while (i < batch.size()) {
+            long first = batch.get(i).offset;
+            if (active == null) {
+                openSegment(first);
+            } else if (activeSize > 0 && activeSize + recordBytes(batch.get(i)) > segmentBytes) {
+                active.force(false);
+                active.close();
+                openSegment(first);
+            }
+            int end = i;
+            long bytes = 0;
+            while (end < batch.size() && (bytes == 0 || activeSize + bytes + recordBytes(batch.get(end)) <= segmentBytes)) {
+                bytes += recordBytes(batch.get(end));
+                end++;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) bytes);
+            for (int k = i; k < end; k++) {
+                Entry entry = batch.get(k);
+                buffer.putInt(entry.payload.length).putInt(crc(entry.payload)).putLong(entry.offset).put(entry.payload);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                active.write(buffer);
+            }
+            activeSize += bytes;
+            writtenBytes.add(bytes);
+            i = end;
+        }
+        writtenOffset = batch.get(batch.size() - 1).offset + 1;
+        writeListener.run();
+        active.force(false);
+        syncCount.increment();
+        synchronized (this) {
+            durableOffset = writtenOffset;
+            notifyAll();
+        }
+    }
+
+    private void openSegment(long baseOffset) throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+        active = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        activeSize = 0;
+        segments.put(baseOffset, file);
+    }
+
+    /**
+     * 保存消费进度（不超过已fsync的记录），并删除所有订阅方法都已处理完的segment
+     */
+    private void flushOffsets() throws IOException {
+        lastOffsetFlush = System.nanoTime();
+        long durable = durableOffset;
+        for (Map.Entry<String, LongSupplier> tracker : trackers.entrySet()) {
+            committed.put(tracker.getKey(), Math.min(tracker.getValue().getAsLong(), durable - 1));
+        }
+        boolean expired = false;
+        for (Map.Entry<String, Long> untracked : untrackedSince.entrySet()) {
+            String subscriber = untracked.getKey();
+            if (lastOffsetFlush - untracked.getValue() >= untrackedExpiryNanos && !trackers.containsKey(subscriber)
+                    && untrackedSince.remove(subscriber, untracked.getValue())) {
+                logger.warn("订阅方法 {} 超过{}毫秒没有注册，丢弃其进度 {}", subscriber,
+                        TimeUnit.NANOSECONDS.toMillis(untrackedExpiryNanos), committed.remove(subscriber));
+                expired = true;
+            }
+        }
+        if (committed.isEmpty() && !expired) {
+            return;
+        }
+        Map<String, Long> snapshot = new HashMap<>(committed);
+        Path tmp = directory.resolve(OFFSETS_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(OFFSETS_MAGIC);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(tmp, directory.resolve(OFFSETS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long consumed = Long.MAX_VALUE;
+        for (long offset : snapshot.values()) {
+            consumed = Math.min(consumed, offset);
+        }
+        //segment中的记录都小于下一个segment的起始offset，下一个segment从consumed+1或更早开始时可以删除
+        Map.Entry<Long, Path> segment = segments.firstEntry();
+        while (segment != null) {
+            Long next = segments.higherKey(segment.getKey());
+            if (next == null || next > consumed + 1) {
+                break;
+            }
+            segments.remove(segment.getKey());
+            Files.deleteIfExists(segment.getValue());
+            segment = segments.firstEntry();
+        }
+    }
+
+    private static long recordBytes(Entry entry) {
+        return RECORD_HEADER_BYTES + entry.payload.length;
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("读取事件日志时遇到文件末尾");
+            }
+        }
+    }
+
+    /**
+     * 顺序读取已写入文件的记录，只能由一个线程使用
+     */
+    final class Reader implements Closeable {
+
+        private long nextOffset;
+
+        private FileChannel channel;
+
+        private long segmentBase;
+
+        private long position;
+
+        private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+
+        Reader(long nextOffset) {
+            this.nextOffset = nextOffset;
+        }
+
+        /**
+         * 下一条要读取的记录的offset
+         */
+        long nextOffset() {
+            return nextOffset;
+        }
+
+        /**
+         * 读取下一条记录，已读到写入位置时返回null
+         */
+        Entry next() {
+            try {
+                while (nextOffset < writtenOffset) {
+                    if (channel == null && !open()) {
+                        return null;
+                    }
+                    if (position + RECORD_HEADER_BYTES > channel.size()) {
+                        //当前segment已读完
+                        Long next = segments.higherKey(segmentBase);
+                        if (next == null) {
+                            return null;
+                        }
+                        channel.close();
+                        channel = null;
+                        nextOffset = Math.max(nextOffset, next);
+                        continue;
+                    }
+                    header.clear();
+                    readFully(channel, header, position);
+                    header.flip();
+                    int length = header.getInt();
+                    header.getInt();
+                    long offset = header.getLong();
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    readFully(channel, payload, position + RECORD_HEADER_BYTES);
+                    position += RECORD_HEADER_BYTES + length;
+                    if (offset >= nextOffset) {
+                        nextOffset = offset + 1;
+                        return new Entry(offset, payload.array());
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("读取事件日志失败，directory: " + directory, e);
+            }
+        }
+
+        private boolean open() throws IOException {
+            Long base = segments.floorKey(nextOffset);
+            if (base == null) {
+                //需要的记录已被删除（只会发生在没有保存进度的订阅方法上），从最早的记录开始
+                base = segments.isEmpty() ? null : segments.firstKey();
+                if (base == null) {
+                    return false;
+                }
+                logger.warn("事件日志中offset {} 之前的记录已删除，从 {} 开始读取", nextOffset, base);
+                nextOffset = base;
+            }
+            channel = FileChannel.open(segments.get(base), StandardOpenOption.READ);
+            segmentBase = base;
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
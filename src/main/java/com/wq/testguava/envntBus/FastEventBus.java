@@ -0,0 +1,567 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 异步的事件总线，订阅方式与guava的 {@link com.google.common.eventbus.EventBus} 相同（标注 {@link Subscribe} 的单参数方法，
+ * 按事件类型及其父类、接口匹配，匹配结果在注册时预先计算，见 {@link SubscriberRegistry}），但post不在发布线程中调用订阅方法：
+ * 每个订阅方法有自己的无锁MPSC队列（{@link MpscArrayQueue}），post只把事件放入各个订阅方法的队列，
+ * 订阅方法在executor中按批（drainBatchSize）取出事件并逐个处理。因此post的耗时与订阅方法的快慢无关，
+ * 同一个订阅方法的调用仍是串行的（相当于guava默认的同步订阅，但不需要加锁），不同订阅方法之间并行执行。
+ * 订阅方法的队列已满时按 {@link BackPressure} 处理：BLOCK 让发布线程等待队列腾出空间，DROP 丢弃该事件并计数。
+ * 订阅方法中向自己发布事件且自己的队列已满时，直接在当前线程中处理，避免等待自己而死锁。
+ * 高频事件可以用 {@link BatchSubscribe} 批量接收，或用 {@link CoalesceSubscribe} 按key只接收最新的事件，减少订阅方法的调用次数。
+ * 需要按实体（例如订单）保持顺序又要并行处理时，用 {@link PartitionedSubscribe} 按key分配到多个串行通道。
+ * 没有任何订阅方法接收的事件包装为 {@link DeadEvent} 重新发布（与guava相同）。
+ * 指定 {@link EventJournal} 时post先把事件追加到日志再放入队列（事件需要能被日志的Serializer序列化），
+ * 每个订阅方法处理后记录offset，重启后重新注册的订阅方法从日志中补投上次没有处理的事件（至少一次，可能重复）；
+ * 订阅方法重试后仍然失败的事件写入日志的死信文件（{@link EventJournal#getDeadLetters()}），不会重新投递。
+ * 此时队列已满的订阅方法改为从日志中读取，不阻塞也不丢弃，backPressure不再生效
+ */
+public class FastEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastEventBus.class);
+
+    /**
+     * 订阅方法的队列已满时的处理策略
+     */
+    public enum BackPressure {
+        /**
+         * 发布线程等待，直到队列腾出空间
+         */
+        BLOCK,
+        /**
+         * 丢弃该事件（只对这个订阅方法丢弃），计入droppedCount
+         */
+        DROP
+    }
+
+    private final String name;
+
+    private final Executor executor;
+
+    private final int queueCapacity;
+
+    private final int drainBatchSize;
+
+    private final BackPressure backPressure;
+
+    private final EventJournal journal;
+
+    // 追加日志、查找订阅方法并放入队列在这个锁内完成，保证每个订阅方法的队列按offset顺序接收事件
+    private final Object journalLock = new Object();
+
+    private final SubscriberRegistry registry = new SubscriberRegistry();
+
+    private final LongAdder postedCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    private final LongAdder deadLetterCount = new LongAdder();
+
+    private final LongAdder blockedNanos = new LongAdder();
+
+    /**
+     * 使用CPU核数个守护线程，每个订阅方法的队列容量为1024，每批最多处理64个事件，队列满时阻塞发布线程
+     */
+    public FastEventBus(String name) {
+        this(name, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build()),
+                1024, 64, BackPressure.BLOCK);
+    }
+
+    /**
+     * @param executor       执行订阅方法的线程池
+     * @param queueCapacity  每个订阅方法的队列容量（向上取整为2的幂）
+     * @param drainBatchSize 每个drain任务最多处理的事件数，处理完后重新提交，让其他订阅方法有机会执行
+     * @param backPressure   队列已满时的处理策略
+     */
+    public FastEventBus(String name, Executor executor, int queueCapacity, int drainBatchSize, BackPressure backPressure) {
+        this(name, executor, queueCapacity, drainBatchSize, backPressure, null);
+    }
+
+    /**
+     * @param journal 事件日志，为null时不记录；一个日志只能由一个bus使用
+     */
+    public FastEventBus(String name, Executor executor, int queueCapacity, int drainBatchSize, BackPressure backPressure,
+                        EventJournal journal) {
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity必须大于0，当前queueCapacity = %s", queueCapacity);
+        Preconditions.checkArgument(drainBatchSize > 0, "drainBatchSize必须大于0，当前drainBatchSize = %s", drainBatchSize);
+        this.name = Preconditions.checkNotNull(name);
+        this.executor = Preconditions.checkNotNull(executor);
+        this.queueCapacity = queueCapacity;
+        this.drainBatchSize = drainBatchSize;
+        this.backPressure = Preconditions.checkNotNull(backPressure);
+        this.journal = journal;
+        if (journal != null) {
+            journal.setWriteListener(this::onJournalWritten);
+        }
+    }
+
+    /**
+     * 注册listener中所有标注了 {@link Subscribe}、{@link BatchSubscribe}、{@link CoalesceSubscribe} 或 {@link PartitionedSubscribe}
+     * 的方法（包括父类中的）。
+     * 开启journal时订阅方法按名称（类名.方法名(事件类型)，同名的依注册顺序加后缀）在日志中记录进度，
+     * 有保存的进度时先从日志中补投之后的事件，没有时只接收注册之后发布的事件。
+     *
+     * @throws IllegalStateException 按key分区的订阅方法的lanes数与日志中保存进度时不同
+     */
+    public void register(Object listener) {
+        List<Subscription> created = new ArrayList<>();
+        for (Method method : findSubscriberMethods(listener.getClass())) {
+            created.add(createSubscriber(listener, method));
+        }
+        if (journal == null) {
+            registry.register(created);
+            return;
+        }
+        List<QueuedSubscriber> resumed = new ArrayList<>();
+        synchronized (journalLock) {
+            for (Subscription subscriber : created) {
+                if (subscriber instanceof PartitionedSubscriber) {
+                    checkLaneCount((PartitionedSubscriber) subscriber);
+                }
+            }
+            long nextOffset = journal.getNextOffset();
+            for (Subscription subscriber : created) {
+                for (QueuedSubscriber leaf : subscriber.leaves()) {
+                    String journalId = leaf.toString();
+                    for (int i = 2; journal.isTracked(journalId); i++) {
+                        journalId = leaf + "@" + i;
+                    }
+                    long committed = journal.track(journalId, () -> committableOffset(leaf));
+                    leaf.attachJournal(journalId, committed >= 0 ? committed : nextOffset - 1);
+                    if (committed >= 0 && committed + 1 < nextOffset) {
+                        leaf.startCatchUp(committed + 1);
+                        resumed.add(leaf);
+                    }
+                }
+            }
+            registry.register(created);
+        }
+        resumed.forEach(QueuedSubscriber::schedule);
+    }
+
+    /**
+     * 注销listener的所有订阅方法，已在队列中的事件仍会被处理
+     *
+     * @throws IllegalArgumentException listener没有注册过
+     */
+    public void unregister(Object listener) {
+        List<Subscription> removed = new ArrayList<>();
+        for (Subscription subscriber : registry.all()) {
+            if (subscriber.getTarget() == listener) {
+                removed.add(subscriber);
+            }
+        }
+        Preconditions.checkArgument(registry.unregister(listener), "listener没有注册过: %s", listener);
+        if (journal != null) {
+            for (Subscription subscriber : removed) {
+                for (QueuedSubscriber leaf : subscriber.leaves()) {
+                    journal.untrack(leaf.getJournalId());
+                }
+            }
+        }
+    }
+
+    /**
+     * 把事件放入所有匹配的订阅方法的队列，不等待订阅方法执行
+     */
+    public void post(Object event) {
+        Preconditions.checkNotNull(event);
+        postedCount.increment();
+        Subscription[] subscribers;
+        if (journal != null && !(event instanceof DeadEvent)) {
+            subscribers = enqueueJournaled(event);
+        } else {
+            subscribers = registry.subscribersFor(event.getClass());
+            for (Subscription subscriber : subscribers) {
+                enqueue(subscriber, event);
+            }
+        }
+        if (subscribers.length == 0 && !(event instanceof DeadEvent)) {
+            post(new DeadEvent(this, event));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getPostedCount() {
+        return postedCount.sum();
+    }
+
+    /**
+     * 所有订阅方法成功处理的事件数
+     */
+    public long getDeliveredCount() {
+        long count = 0;
+        for (Subscription subscriber : registry.all()) {
+            count += subscriber.getDeliveredCount();
+        }
+        return count;
+    }
+
+    /**
+     * 所有订阅方法的调用次数，批量投递和按key合并的订阅方法每次调用处理多个事件
+     */
+    public long getInvocationCount() {
+        long count = 0;
+        for (Subscription subscriber : registry.all()) {
+            count += subscriber.getInvocationCount();
+        }
+        return count;
+    }
+
+    /**
+     * 按key合并的订阅方法中被同一key的新事件覆盖的事件数
+     */
+    public long getCoalescedCount() {
+        long count = 0;
+        for (Subscription subscriber : registry.all()) {
+            count += subscriber.getCoalescedCount();
+        }
+        return count;
+    }
+
+    /**
+     * DROP 策略下因队列已满被丢弃的事件数（按订阅方法计）
+     */
+    public long getDroppedCount() {
+        long count = 0;
+        for (Subscription subscriber : registry.all()) {
+            count += subscriber.getDroppedCount();
+        }
+        return count;
+    }
+
+    /**
+     * 订阅方法抛出异常的次数
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * 开启journal时重试后仍然失败、写入死信的事件数（按订阅方法计）
+     */
+    public long getDeadLetterCount() {
+        return deadLetterCount.sum();
+    }
+
+    /**
+     * BLOCK 策略下发布线程等待队列腾出空间的总时间（毫秒）
+     */
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum());
+    }
+
+    /**
+     * 每个订阅方法当前的队列深度
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (Subscription subscriber : registry.all()) {
+            depths.put(subscriber.toString(), subscriber.getQueueDepth());
+        }
+        return depths;
+    }
+
+    /**
+     * 按key分区的订阅方法中每个通道的统计，key为订阅方法
+     */
+    public Map<String, List<LaneStats>> getLaneStats() {
+        Map<String, List<LaneStats>> stats = new LinkedHashMap<>();
+        for (Subscription subscriber : registry.all()) {
+            if (subscriber instanceof PartitionedSubscriber) {
+                List<LaneStats> lanes = new ArrayList<>();
+                for (PartitionedSubscriber.Lane lane : ((PartitionedSubscriber) subscriber).lanes()) {
+                    lanes.add(new LaneStats(lane.getIndex(), lane.getQueueDepth(), lane.getDeliveredCount(),
+                            lane.getLatency().getMeanMillis(), lane.getLatency().getPercentileMillis(99),
+                            lane.getLatency().getMaxMillis()));
+                }
+                stats.put(subscriber.toString(), lanes);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 按key分区的订阅方法中一个通道的统计，耗时为从post到订阅方法返回
+     */
+    public static final class LaneStats {
+
+        private final int lane;
+
+        private final int queueDepth;
+
+        private final long deliveredCount;
+
+        private final double meanMillis;
+
+        private final double p99Millis;
+
+        private final double maxMillis;
+
+        LaneStats(int lane, int queueDepth, long deliveredCount, double meanMillis, double p99Millis, double maxMillis) {
+            this.lane = lane;
+            this.queueDepth = queueDepth;
+            this.deliveredCount = deliveredCount;
+            this.meanMillis = meanMillis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public int getLane() {
+            return lane;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getDeliveredCount() {
+            return deliveredCount;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("lane", lane)
+                    .add("queueDepth", queueDepth)
+                    .add("delivered", deliveredCount)
+                    .add("meanMillis", String.format("%.3f", meanMillis))
+                    .add("p99Millis", String.format("%.3f", p99Millis))
+                    .add("maxMillis", String.format("%.3f", maxMillis))
+                    .toString();
+        }
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    EventJournal journal() {
+        return journal;
+    }
+
+    /**
+     * 追赶的订阅方法已读到offset，日志中没有更多记录时切换回从队列接收
+     */
+    boolean finishCatchUp(QueuedSubscriber subscriber, long offset) {
+        synchronized (journalLock) {
+            if (offset < journal.getNextOffset()) {
+                return false;
+            }
+            subscriber.endCatchUp(offset - 1);
+            return true;
+        }
+    }
+
+    /**
+     * guarded by journalLock：日志中有该订阅方法按其他lanes数保存的进度时拒绝注册。
+     * lanes数改变后key会路由到与保存进度时不同的通道，未处理的事件无法补投到正确的通道，同一key的顺序也无法保证
+     */
+    private void checkLaneCount(PartitionedSubscriber subscriber) {
+        String prefix = subscriber.journalPrefix();
+        Pattern expected = Pattern.compile("\\d+/" + subscriber.lanes().length + "(@\\d+)?");
+        for (String journalId : journal.subscribers()) {
+            if (journalId.startsWith(prefix) && !expected.matcher(journalId.substring(prefix.length())).matches()) {
+                throw new IllegalStateException("日志中订阅方法 " + subscriber + " 的进度 " + journalId + " 与当前lanes数 "
+                        + subscriber.lanes().length + " 不一致，需要恢复原来的lanes数，或等待原有进度过期（untrackedExpiry）后再注册");
+            }
+        }
+    }
+
+    /**
+     * 由日志的写线程定期调用，读取订阅方法（队列）可以保存的进度
+     */
+    private long committableOffset(QueuedSubscriber leaf) {
+        synchronized (journalLock) {
+            return leaf.committableOffset(journal.getNextOffset() - 1);
+        }
+    }
+
+    /**
+     * 反序列化日志中的事件，失败时计入failedCount并返回null
+     */
+    Object deserialize(EventJournal.Entry entry, QueuedSubscriber subscriber) {
+        try {
+            return journal.serializer().deserialize(entry.payload);
+        } catch (IOException | RuntimeException e) {
+            handleException(e, "offset " + entry.offset, subscriber);
+            return null;
+        }
+    }
+
+    /**
+     * 订阅方法重试后仍然失败的事件写入死信，写入失败时只记录日志（该事件的offset仍然被推进）
+     */
+    void deadLetter(QueuedSubscriber.Journaled element, QueuedSubscriber subscriber) {
+        deadLetterCount.increment();
+        try {
+            journal.appendDeadLetter(subscriber.getJournalId(), element.offset, journal.serializer().serialize(element.event));
+        } catch (IOException | RuntimeException e) {
+            logger.error("死信写入失败，bus: " + name + "，subscriber: " + subscriber + "，offset: " + element.offset, e);
+        }
+    }
+
+    int drainBatchSize() {
+        return drainBatchSize;
+    }
+
+    void handleException(Throwable e, Object event, Subscription subscriber) {
+        failedCount.increment();
+        logger.error("事件处理失败，bus: " + name + "，subscriber: " + subscriber + "，event: " + event, e);
+    }
+
+    private void enqueue(Subscription registered, Object event) {
+        QueuedSubscriber subscriber = registered.route(event);
+        if (subscriber == null) {
+            return;
+        }
+        if (subscriber.offer(event)) {
+            subscriber.schedule();
+            return;
+        }
+        if (backPressure == BackPressure.DROP) {
+            subscriber.recordDropped();
+            return;
+        }
+        if (subscriber.isDrainingThread()) {
+            //订阅方法向自己发布事件，等待队列腾出空间会死锁
+            subscriber.dispatch(event);
+            return;
+        }
+        long start = System.nanoTime();
+        long parkNanos = 1000;
+        do {
+            subscriber.schedule();
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos * 2, TimeUnit.MILLISECONDS.toNanos(1));
+        } while (!subscriber.offer(event));
+        blockedNanos.add(System.nanoTime() - start);
+        subscriber.schedule();
+    }
+
+    private Subscription[] enqueueJournaled(Object event) {
+        byte[] payload;
+        try {
+            payload = journal.serializer().serialize(event);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("事件无法序列化: " + event, e);
+        }
+        synchronized (journalLock) {
+            long offset = journal.append(payload);
+            Subscription[] subscribers = registry.subscribersFor(event.getClass());
+            QueuedSubscriber.Journaled element = new QueuedSubscriber.Journaled(event, offset);
+            for (Subscription registered : subscribers) {
+                QueuedSubscriber subscriber = registered.route(event);
+                if (subscriber == null || subscriber.isCatchingUp()) {
+                    //追赶中的订阅方法会从日志中读到这个事件
+                    continue;
+                }
+                if (subscriber.offer(element)) {
+                    subscriber.recordEnqueued(offset);
+                } else {
+                    subscriber.startCatchUp(offset);
+                }
+                subscriber.schedule();
+            }
+            return subscribers;
+        }
+    }
+
+    /**
+     * 日志写入一批记录后，让追赶中的订阅方法继续读取
+     */
+    private void onJournalWritten() {
+        for (Subscription subscriber : registry.all()) {
+            for (QueuedSubscriber leaf : subscriber.leaves()) {
+                if (leaf.isCatchingUp()) {
+                    leaf.schedule();
+                }
+            }
+        }
+    }
+
+    private Subscription createSubscriber(Object listener, Method method) {
+        BatchSubscribe batch = method.getAnnotation(BatchSubscribe.class);
+        if (batch != null) {
+            return new BatchingSubscriber(this, listener, method, batch, queueCapacity);
+        }
+        CoalesceSubscribe coalesce = method.getAnnotation(CoalesceSubscribe.class);
+        if (coalesce != null) {
+            return new CoalescingSubscriber(this, listener, method, coalesce, queueCapacity);
+        }
+        PartitionedSubscribe partitioned = method.getAnnotation(PartitionedSubscribe.class);
+        if (partitioned != null) {
+            return new PartitionedSubscriber(this, listener, method, partitioned, queueCapacity);
+        }
+        return new QueuedSubscriber(this, listener, method, queueCapacity);
+    }
+
+    private static List<Method> findSubscriberMethods(Class<?> listenerClass) {
+        Map<String, Method> methods = new LinkedHashMap<>();
+        for (Class<?> type : TypeToken.of(listenerClass).getTypes().rawTypes()) {
+            for (Method method : type.getDeclaredMethods()) {
+                if (method.isSynthetic()) {
+                    continue;
+                }
+                int annotations = (method.isAnnotationPresent(Subscribe.class) ? 1 : 0)
+                        + (method.isAnnotationPresent(BatchSubscribe.class) ? 1 : 0)
+                        + (method.isAnnotationPresent(CoalesceSubscribe.class) ? 1 : 0)
+                        + (method.isAnnotationPresent(PartitionedSubscribe.class) ? 1 : 0);
+                if (annotations == 0) {
+                    continue;
+                }
+                Preconditions.checkArgument(annotations == 1,
+                        "订阅方法 %s 只能标注@Subscribe、@BatchSubscribe、@CoalesceSubscribe、@PartitionedSubscribe中的一个", method);
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                Preconditions.checkArgument(parameterTypes.length == 1,
+                        "订阅方法 %s 必须只有1个参数，当前有%s个", method, parameterTypes.length);
+                Preconditions.checkArgument(!parameterTypes[0].isPrimitive(),
+                        "订阅方法 %s 的参数不能是基本类型", method);
+                //子类覆盖的方法只注册一次
+                methods.putIfAbsent(method.getName() + ImmutableList.copyOf(parameterTypes), method);
+            }
+        }
+        return ImmutableList.copyOf(methods.values());
+    }
+}
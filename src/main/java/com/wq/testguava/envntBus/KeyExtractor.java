@@ -0,0 +1,46 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 通过事件类型上的public无参方法取得事件的key，用于按key合并（{@link CoalesceSubscribe}）和按key分区（{@link PartitionedSubscribe}）
+ */
+final class KeyExtractor {
+
+    private final MethodHandle getter;
+
+    /**
+     * @param eventType 事件类型
+     * @param name      返回key的public无参方法名
+     * @throws IllegalArgumentException 方法不存在或没有返回值
+     */
+    KeyExtractor(Class<?> eventType, String name) {
+        Method method;
+        try {
+            method = eventType.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("事件类型 " + eventType.getName() + " 没有public无参方法: " + name, e);
+        }
+        Preconditions.checkArgument(method.getReturnType() != void.class, "key方法 %s 必须有返回值", method);
+        method.setAccessible(true);
+        try {
+            this.getter = MethodHandles.lookup().unreflect(method).asType(MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("无法访问key方法: " + method, e);
+        }
+    }
+
+    /**
+     * @throws NullPointerException key为null
+     */
+    Object keyOf(Object event) throws Throwable {
+        return Preconditions.checkNotNull((Object) getter.invokeExact(event), "事件的key不能为null: %s", event);
+    }
+}
@@ -0,0 +1,91 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 无锁的有界队列，支持多个生产者、单个消费者（MPSC）。
+ * 生产者通过CAS递增producerIndex抢占槽位，再写入元素；消费者按顺序读取，读到null说明对应的生产者已抢占槽位但还没有写入，
+ * 此时本次drain提前结束（不自旋等待），由调用方根据size()决定是否稍后再次drain。
+ * 容量向上取整为2的幂，下标通过位运算取模
+ */
+final class MpscArrayQueue<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicLong producerIndex = new AtomicLong();
+
+    // 只由消费者线程修改，lazySet发布给生产者
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    MpscArrayQueue(int requestedCapacity) {
+        Preconditions.checkArgument(requestedCapacity > 0 && requestedCapacity <= 1 << 30,
+                "capacity必须在(0, 2^30]之间，当前capacity = %s", requestedCapacity);
+        this.capacity = requestedCapacity == 1 ? 1 : Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * 队列已满时返回false，可由多个线程并发调用
+     */
+    boolean offer(E element) {
+        Preconditions.checkNotNull(element);
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() >= capacity) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        buffer.lazySet((int) index & mask, element);
+        return true;
+    }
+
+    /**
+     * 按顺序取出最多limit个元素交给consumer，只能由消费者线程调用
+     *
+     * @return 取出的元素个数
+     */
+    int drain(Consumer<? super E> consumer, int limit) {
+        long index = consumerIndex.get();
+        int drained = 0;
+        while (drained < limit) {
+            int offset = (int) index & mask;
+            E element = buffer.get(offset);
+            if (element == null) {
+                break;
+            }
+            buffer.lazySet(offset, null);
+            consumerIndex.lazySet(++index);
+            drained++;
+            consumer.accept(element);
+        }
+        return drained;
+    }
+
+    /**
+     * 当前元素个数（包括已抢占槽位、尚未写入的元素）
+     */
+    int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    boolean isEmpty() {
+        return producerIndex.get() == consumerIndex.get();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,33 @@
+package com.wq.testguava.envntBus;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 标注 {@link FastEventBus} 中按key分区并行处理的订阅方法，方法只能有1个参数（与 {@link com.google.common.eventbus.Subscribe} 相同）。
+ * 事件按key的hash分配到lanes个通道之一，每个通道有自己的队列，同一通道内串行处理、不同通道之间并行处理，
+ * 因此同一key的事件按发布顺序处理（例如同一订单的事件），不同key的事件可以使用多个线程。
+ * 介于 {@link com.google.common.eventbus.Subscribe}（全部串行）和 {@link com.google.common.eventbus.AllowConcurrentEvents}（完全无序）之间。
+ * 订阅方法会被多个线程同时调用（不同key），需要自行保证线程安全
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PartitionedSubscribe {
+
+    /**
+     * 事件类型上返回分区key的public无参方法名，例如 getOrderId；返回值不能为null，按hashCode分配通道
+     */
+    String key();
+
+    /**
+     * 通道数，0表示CPU核数。bus开启journal时必须显式指定（大于0），且重启前后需要保持不变，
+     * 改变后key会分配到不同的通道，注册时抛出IllegalStateException
+     */
+    int lanes() default 0;
+}
@@ -0,0 +1,204 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.base.Preconditions;
+import com.wq.testguava.utils.LatencyHistogram;
+
+import java.lang.reflect.Method;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 标注了 {@link PartitionedSubscribe} 的订阅方法。本身不持有事件，只按key的hash把事件路由到某个 {@link Lane}，
+ * 每个Lane是一个普通的 {@link QueuedSubscriber}（自己的MPSC队列，同一时刻最多一个drain任务），因此同一通道内的事件串行、按发布顺序处理。
+ * 放入Lane队列的是带发布时间的事件，drain时记录从post到订阅方法返回的耗时。
+ * 开启journal时每个Lane分别记录进度，进度名称中包含lanes数（例如 ...#0/4），
+ * 重启后lanes数改变时key会路由到不同的通道，原有通道的进度不再对应，因此此时拒绝注册（见 {@link FastEventBus#register}），
+ * 开启journal时lanes也必须显式指定，不能依赖随机器变化的CPU核数
+ */
+final class PartitionedSubscriber implements Subscription {
+
+    private final FastEventBus bus;
+
+    private final Object target;
+
+    private final Method method;
+
+    private final Class<?> eventType;
+
+    private final KeyExtractor keyExtractor;
+
+    private final Lane[] lanes;
+
+    PartitionedSubscriber(FastEventBus bus, Object target, Method method, PartitionedSubscribe annotation, int queueCapacity) {
+        Preconditions.checkArgument(annotation.lanes() >= 0,
+                "订阅方法 %s 的lanes不能小于0，当前lanes = %s", method, annotation.lanes());
+        Preconditions.checkArgument(annotation.lanes() > 0 || bus.journal() == null,
+                "开启journal时订阅方法 %s 必须指定lanes，按CPU核数分配的通道在核数变化后无法与日志中的进度对应", method);
+        this.bus = bus;
+        this.target = target;
+        this.method = method;
+        this.eventType = method.getParameterTypes()[0];
+        this.keyExtractor = new KeyExtractor(eventType, annotation.key());
+        int count = annotation.lanes() == 0 ? Runtime.getRuntime().availableProcessors() : annotation.lanes();
+        this.lanes = new Lane[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new Lane(this, i, method, queueCapacity);
+        }
+    }
+
+    @Override
+    public Object getTarget() {
+        return target;
+    }
+
+    @Override
+    public Class<?> getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public QueuedSubscriber route(Object event) {
+        Object key;
+        try {
+            key = keyExtractor.keyOf(event);
+        } catch (Throwable e) {
+            //无法分区的事件不投递，计入failedCount
+            bus.handleException(e, event, this);
+            return null;
+        }
+        return lanes[laneOf(key, lanes.length)];
+    }
+
+    static int laneOf(Object key, int laneCount) {
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), laneCount);
+    }
+
+    Lane[] lanes() {
+        return lanes;
+    }
+
+    /**
+     * 开启journal时各通道的进度名称前缀，其后为通道序号和lanes数
+     */
+    String journalPrefix() {
+        return this + "#";
+    }
+
+    @Override
+    public QueuedSubscriber[] leaves() {
+        return lanes;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        long count = 0;
+        for (Lane lane : lanes) {
+            count += lane.getDeliveredCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getInvocationCount() {
+        long count = 0;
+        for (Lane lane : lanes) {
+            count += lane.getInvocationCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        long count = 0;
+        for (Lane lane : lanes) {
+            count += lane.getDroppedCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return target.getClass().getName() + "." + method.getName() + "(" + eventType.getSimpleName() + ")";
+    }
+
+    /**
+     * 一个通道
+     */
+    static final class Lane extends QueuedSubscriber {
+
+        private final PartitionedSubscriber owner;
+
+        private final int index;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Lane(PartitionedSubscriber owner, int index, Method method, int queueCapacity) {
+            super(owner.bus, owner.target, method, queueCapacity);
+            this.owner = owner;
+            this.index = index;
+        }
+
+        @Override
+        boolean offer(Object event) {
+            return queue.offer(new Stamped(event, System.nanoTime()));
+        }
+
+        @Override
+        void drain() {
+            queue.drain(element -> {
+                Stamped stamped = (Stamped) element;
+                dispatch(stamped.event);
+                latency.record(System.nanoTime() - stamped.postedNanos);
+            }, bus.drainBatchSize());
+            catchUp();
+        }
+
+        @Override
+        boolean accepts(Object event) {
+            return owner.eventType.isInstance(event) && owner.route(event) == this;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        /**
+         * 从post到订阅方法返回的耗时
+         */
+        LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return owner.journalPrefix() + index + "/" + owner.lanes.length;
+        }
+    }
+
+    private static final class Stamped {
+
+        final Object event;
+
+        final long postedNanos;
+
+        Stamped(Object event, long postedNanos) {
+            this.event = event;
+            this.postedNanos = postedNanos;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.wq.testguava.envntBus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc {@link FastEventBus} 中的一个订阅方法（或按key分区的订阅方法中的一个通道），持有自己的MPSC事件队列。
+ * 发布线程只把事件放入队列并在必要时调度一次drain；drain任务在线程池中按批取出事件并逐个调用订阅方法，
+ * 同一时刻最多只有一个drain任务在执行，因此同一个订阅方法的调用是串行的，不需要加锁。
+ * 批量投递（{@link BatchingSubscriber}）、按key合并（{@link CoalescingSubscriber}）的订阅方法和按key分区的通道
+ * （{@link PartitionedSubscriber.Lane}）继承本类，只改变放入队列的内容和drain时调用订阅方法的方式。
+ * 开启 {@link EventJournal} 时队列中放的是 {@link Journaled}，处理后记录已处理的offset；订阅方法抛出异常时立即重试，
+ * 连续失败 {@link #MAX_ATTEMPTS} 次后把事件写入日志的死信文件并继续推进offset，不因一个事件阻止删除segment；队列已满或重启后恢复时，
+ * 清空队列后改为从日志中按顺序读取（追赶），读到日志末尾后再切换回从队列接收，因此同一订阅方法始终按offset顺序处理事件
+ */
+class QueuedSubscriber implements Subscription, Runnable {
+
+    /**
+     * 开启journal时一个事件（批量投递时为一批）最多调用订阅方法的次数
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    final FastEventBus bus;
+
+    private final Object target;
+
+    private final Method method;
+
+    private final Class<?> eventType;
+
+    private final SubscriberInvoker invoker;
+
+    final MpscArrayQueue<Object> queue;
+
+    // 是否已有drain任务在线程池中排队或执行
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // 正在执行drain的线程，用于识别订阅方法中向自己发布事件的情况
+    private volatile Thread drainingThread;
+
+    private final LongAdder deliveredCount = new LongAdder();
+
+    private final LongAdder invocationCount = new LongAdder();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    // 以下字段只在开启journal时使用
+    // 在日志中记录进度使用的名称，注册时分配
+    private String journalId;
+
+    // 已处理（包括写入死信）的最大offset
+    private volatile long acknowledgedOffset = -1;
+
+    // 最后一个放入队列的事件的offset，持有bus的日志锁时访问
+    private long enqueuedOffset = -1;
+
+    // 由日志的写线程定期保存的进度，只增不减，持有bus的日志锁时访问
+    private long committableOffset = -1;
+
+    // 从日志追赶时下一条要读取的offset，-1表示从队列接收。由-1变为其他值时持有bus的日志锁，追赶中只由drain线程修改
+    private volatile long catchUpOffset = -1;
+
+    // 追赶时使用，只在drain线程中访问
+    private EventJournal.Reader reader;
+
+    QueuedSubscriber(FastEventBus bus, Object target, Method method, int queueCapacity) {
+        this(bus, target, method, method.getParameterTypes()[0], queueCapacity);
+    }
+
+    /**
+     * @param eventType 接收的事件类型，与订阅方法的参数类型不同时（例如批量投递的List）由子类指定
+     */
+    QueuedSubscriber(FastEventBus bus, Object target, Method method, Class<?> eventType, int queueCapacity) {
+        this.bus = bus;
+        this.target = target;
+        this.method = method;
+        this.eventType = eventType;
+        this.invoker = SubscriberInvoker.of(method);
+        this.queue = new MpscArrayQueue<>(queueCapacity);
+    }
+
+    @Override
+    public Object getTarget() {
+        return target;
+    }
+
+    @Override
+    public Class<?> getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public QueuedSubscriber route(Object event) {
+        return this;
+    }
+
+    @Override
+    public QueuedSubscriber[] leaves() {
+        return new QueuedSubscriber[]{this};
+    }
+
+    /**
+     * 从日志追赶时，读到的事件是否由这个订阅方法（队列）处理
+     */
+    boolean accepts(Object event) {
+        return eventType.isInstance(event);
+    }
+
+    /**
+     * 放入队列，队列已满时返回false
+     *
+     * @param event 事件，开启journal时为 {@link Journaled}
+     */
+    boolean offer(Object event) {
+        return queue.offer(event);
+    }
+
+    /**
+     * 当前线程正在drain这个订阅方法（订阅方法中发布的事件又投递给自己）
+     */
+    boolean isDrainingThread() {
+        return drainingThread == Thread.currentThread();
+    }
+
+    /**
+     * 没有排队或执行中的drain任务时提交一个
+     */
+    void schedule() {
+        if (hasPendingWork() && scheduled.compareAndSet(false, true)) {
+            bus.executor().execute(this);
+        }
+    }
+
+    /**
+     * 是否需要执行drain
+     */
+    boolean hasPendingWork() {
+        if (!queue.isEmpty()) {
+            return true;
+        }
+        long offset = catchUpOffset;
+        return offset >= 0 && offset < bus.journal().writtenOffset();
+    }
+
+    @Override
+    public void run() {
+        drainingThread = Thread.currentThread();
+        try {
+            drain();
+        } finally {
+            drainingThread = null;
+            scheduled.set(false);
+        }
+        //还有剩余事件时重新提交，而不是在当前任务中继续处理，让其他订阅方法的drain任务有机会执行
+        schedule();
+    }
+
+    /**
+     * 在drain任务中执行，最多处理drainBatchSize个队列元素
+     */
+    void drain() {
+        queue.drain(this::dispatch, bus.drainBatchSize());
+        catchUp();
+    }
+
+    /**
+     * 在当前线程中处理一个事件，只能在drain线程中调用
+     *
+     * @param event 事件，开启journal时为 {@link Journaled}
+     */
+    void dispatch(Object event) {
+        if (event instanceof Journaled) {
+            Journaled journaled = (Journaled) event;
+            invokeJournaled(journaled.event, 1, Collections.singletonList(journaled));
+            acknowledge(journaled.offset);
+            return;
+        }
+        invoke(event, 1);
+    }
+
+    /**
+     * 调用订阅方法
+     *
+     * @param argument 订阅方法的参数
+     * @param events   argument中包含的事件数
+     * @return 订阅方法是否正常返回
+     */
+    final boolean invoke(Object argument, int events) {
+        invocationCount.increment();
+        try {
+            invoker.invoke(target, argument);
+            deliveredCount.add(events);
+            return true;
+        } catch (Throwable e) {
+            bus.handleException(e, argument, this);
+            return false;
+        }
+    }
+
+    /**
+     * 调用订阅方法，失败时重试，连续失败 {@link #MAX_ATTEMPTS} 次后把elements写入死信
+     *
+     * @param elements argument中包含的事件及其offset
+     */
+    final void invokeJournaled(Object argument, int events, List<Journaled> elements) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (invoke(argument, events)) {
+                return;
+            }
+        }
+        for (Journaled element : elements) {
+            bus.deadLetter(element, this);
+        }
+    }
+
+    /**
+     * 小于等于offset的事件都已处理，子类中还有未投递的事件时可以推迟
+     */
+    void acknowledge(long offset) {
+        commitOffset(offset);
+    }
+
+    final void commitOffset(long offset) {
+        acknowledgedOffset = offset;
+    }
+
+    /**
+     * 队列已清空时从日志中读取事件，最多处理drainBatchSize条；读到日志末尾时尝试切换回从队列接收
+     */
+    final void catchUp() {
+        long offset = catchUpOffset;
+        if (offset < 0 || !queue.isEmpty()) {
+            return;
+        }
+        EventJournal journal = bus.journal();
+        try {
+            if (reader == null) {
+                reader = journal.reader(offset);
+            }
+            for (int i = 0; i < bus.drainBatchSize(); i++) {
+                EventJournal.Entry entry = reader.next();
+                if (entry == null) {
+                    if (bus.finishCatchUp(this, reader.nextOffset())) {
+                        reader.close();
+                        reader = null;
+                    }
+                    return;
+                }
+                catchUpOffset = reader.nextOffset();
+                Object event = bus.deserialize(entry, this);
+                if (event != null && accepts(event)) {
+                    dispatch(new Journaled(event, entry.offset));
+                } else {
+                    acknowledge(entry.offset);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            //下次日志写入时重试
+            bus.handleException(e, "offset " + catchUpOffset, this);
+        }
+    }
+
+    /**
+     * 持有bus的日志锁时调用：之后发布的事件不再放入队列，由drain线程从offset开始读取日志
+     */
+    final void startCatchUp(long offset) {
+        catchUpOffset = offset;
+    }
+
+    /**
+     * 持有bus的日志锁时调用：已读到日志末尾，之后发布的事件重新放入队列
+     *
+     * @param lastOffset 追赶时读取的最后一条记录的offset
+     */
+    final void endCatchUp(long lastOffset) {
+        catchUpOffset = -1;
+        enqueuedOffset = lastOffset;
+    }
+
+    /**
+     * 持有bus的日志锁时调用：offset的事件已放入队列
+     */
+    final void recordEnqueued(long offset) {
+        enqueuedOffset = offset;
+    }
+
+    /**
+     * 持有bus的日志锁时调用：可以保存的进度。没有在追赶、放入队列的事件也都已处理时，
+     * 之后的事件都不是这个订阅方法（队列）接收的，进度推进到日志中最后一条记录，
+     * 因此很少收到事件的订阅方法或没有key路由到的通道不会阻止删除segment
+     *
+     * @param lastOffset 日志中最后一条记录的offset
+     */
+    final long committableOffset(long lastOffset) {
+        long offset = acknowledgedOffset;
+        if (catchUpOffset < 0 && offset >= enqueuedOffset) {
+            offset = lastOffset;
+        }
+        committableOffset = Math.max(committableOffset, offset);
+        return committableOffset;
+    }
+
+    final boolean isCatchingUp() {
+        return catchUpOffset >= 0;
+    }
+
+    String getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * 持有bus的日志锁时调用：开始在日志中记录进度
+     *
+     * @param acknowledgedOffset 已处理的最大offset
+     */
+    void attachJournal(String journalId, long acknowledgedOffset) {
+        this.journalId = journalId;
+        this.acknowledgedOffset = acknowledgedOffset;
+        this.committableOffset = acknowledgedOffset;
+    }
+
+    void recordDropped() {
+        droppedCount.increment();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    int getQueueCapacity() {
+        return queue.capacity();
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        return deliveredCount.sum();
+    }
+
+    @Override
+    public long getInvocationCount() {
+        return invocationCount.sum();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return target.getClass().getName() + "." + method.getName() + "(" + eventType.getSimpleName() + ")";
+    }
+
+    /**
+     * 开启journal时放入队列的元素：事件及其在日志中的offset
+     */
+    static final class Journaled {
+
+        final Object event;
+
+        final long offset;
+
+        Journaled(Object event, long offset) {
+            this.event = event;
+            this.offset = offset;
+        }
+
+        static Object eventOf(Object element) {
+            return element instanceof Journaled ? ((Journaled) element).event : element;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.wq.testguava.envntBus;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 调用订阅方法，替代 {@link Method#invoke}（每次调用都要检查访问权限、把参数装入数组，且难以被JIT内联）。
+ * 订阅方法及其所在类都是public、且能从本类的ClassLoader中找到时，通过 {@link LambdaMetafactory} 生成一个直接调用该方法的实现类，
+ * 与手写的 listener.listen(event) 性能相同；否则（例如匿名类、非public的方法）退化为 {@link MethodHandle#invokeExact}
+ */
+@FunctionalInterface
+interface SubscriberInvoker {
+
+    void invoke(Object target, Object event) throws Throwable;
+
+    /**
+     * 为订阅方法生成调用器，只在注册时执行一次
+     */
+    static SubscriberInvoker of(Method method) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        if (isDirectlyAccessible(method)) {
+            try {
+                MethodHandle handle = lookup.unreflect(method);
+                CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                        MethodType.methodType(SubscriberInvoker.class),
+                        MethodType.methodType(void.class, Object.class, Object.class),
+                        handle,
+                        MethodType.methodType(void.class, method.getDeclaringClass(), method.getParameterTypes()[0]));
+                return (SubscriberInvoker) site.getTarget().invokeExact();
+            } catch (Throwable e) {
+                //生成失败时使用MethodHandle
+            }
+        }
+        method.setAccessible(true);
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("无法访问订阅方法: " + method, e);
+        }
+        MethodHandle adapted = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return (target, event) -> {
+            adapted.invokeExact(target, event);
+        };
+    }
+
+    static boolean isDirectlyAccessible(Method method) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        Class<?> eventType = method.getParameterTypes()[0];
+        return Modifier.isPublic(method.getModifiers()) && isPublic(declaringClass) && isPublic(eventType)
+                && isVisible(declaringClass) && isVisible(eventType);
+    }
+
+    /**
+     * 类及其所有外部类都是public
+     */
+    static boolean isPublic(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 生成的实现类由本类的ClassLoader加载，需要能通过类名找到订阅方法所在的类和参数类型
+     */
+    static boolean isVisible(Class<?> type) {
+        try {
+            return Class.forName(type.getName(), false, SubscriberInvoker.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
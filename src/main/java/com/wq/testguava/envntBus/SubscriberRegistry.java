@@ -0,0 +1,120 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc 订阅方法的分发表：事件类 -> 接收该类事件的所有订阅方法（已按事件类的父类、接口展开，顺序为事件类自身、父类、接口）。
+ * guava的EventBus每次post都要遍历事件类型的继承层次、逐个查找订阅方法，这里在注册时就为已知的事件类型构建好分发表，
+ * post只需一次Map查找得到一个数组。注册、注销时复制并替换整个表（写时复制，写操作之间串行），post不加锁；
+ * 注册时未知的事件类（例如订阅父类、post子类）在第一次post时计算并通过CAS加入表中
+ */
+final class SubscriberRegistry {
+
+    private static final Subscription[] NONE = new Subscription[0];
+
+    // 订阅方法声明的参数类型 -> 订阅方法，只在持有this锁时替换
+    private volatile ImmutableListMultimap<Class<?>, Subscription> byDeclaredType = ImmutableListMultimap.of();
+
+    private final AtomicReference<ImmutableMap<Class<?>, Subscription[]>> dispatchTable =
+            new AtomicReference<>(ImmutableMap.of());
+
+    /**
+     * 接收eventClass类事件的所有订阅方法，没有时返回空数组，调用方不能修改返回的数组
+     */
+    Subscription[] subscribersFor(Class<?> eventClass) {
+        Subscription[] subscribers = dispatchTable.get().get(eventClass);
+        return subscribers != null ? subscribers : resolve(eventClass);
+    }
+
+    synchronized void register(List<Subscription> subscribers) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        ImmutableListMultimap.Builder<Class<?>, Subscription> builder = ImmutableListMultimap.builder();
+        builder.putAll(byDeclaredType);
+        for (Subscription subscriber : subscribers) {
+            builder.put(subscriber.getEventType(), subscriber);
+        }
+        replace(builder.build());
+    }
+
+    /**
+     * 注销target的所有订阅方法
+     *
+     * @return target是否注册过
+     */
+    synchronized boolean unregister(Object target) {
+        ImmutableListMultimap.Builder<Class<?>, Subscription> builder = ImmutableListMultimap.builder();
+        boolean removed = false;
+        for (Map.Entry<Class<?>, Subscription> entry : byDeclaredType.entries()) {
+            if (entry.getValue().getTarget() == target) {
+                removed = true;
+            } else {
+                builder.put(entry);
+            }
+        }
+        if (removed) {
+            replace(builder.build());
+        }
+        return removed;
+    }
+
+    /**
+     * 所有订阅方法
+     */
+    ImmutableList<Subscription> all() {
+        return ImmutableList.copyOf(byDeclaredType.values());
+    }
+
+    /**
+     * guarded by this：替换订阅方法，并为表中已有的事件类和所有订阅的参数类型重新构建分发表
+     */
+    private void replace(ImmutableListMultimap<Class<?>, Subscription> types) {
+        byDeclaredType = types;
+        Map<Class<?>, Subscription[]> table = new HashMap<>();
+        for (Class<?> eventClass : dispatchTable.get().keySet()) {
+            table.put(eventClass, flatten(types, eventClass));
+        }
+        for (Class<?> eventClass : types.keySet()) {
+            table.put(eventClass, flatten(types, eventClass));
+        }
+        //直接覆盖，post中基于旧订阅关系并发加入的项随之丢弃
+        dispatchTable.set(ImmutableMap.copyOf(table));
+    }
+
+    private Subscription[] resolve(Class<?> eventClass) {
+        while (true) {
+            ImmutableMap<Class<?>, Subscription[]> current = dispatchTable.get();
+            Subscription[] existing = current.get(eventClass);
+            if (existing != null) {
+                return existing;
+            }
+            Subscription[] subscribers = flatten(byDeclaredType, eventClass);
+            ImmutableMap<Class<?>, Subscription[]> updated = ImmutableMap.<Class<?>, Subscription[]>builder()
+                    .putAll(current).put(eventClass, subscribers).build();
+            //失败说明表已被注册、注销或其他线程替换，基于最新的订阅关系重新计算
+            if (dispatchTable.compareAndSet(current, updated)) {
+                return subscribers;
+            }
+        }
+    }
+
+    private static Subscription[] flatten(ImmutableListMultimap<Class<?>, Subscription> types, Class<?> eventClass) {
+        List<Subscription> subscribers = new ArrayList<>();
+        for (Class<?> type : TypeToken.of(eventClass).getTypes().rawTypes()) {
+            subscribers.addAll(types.get(type));
+        }
+        return subscribers.isEmpty() ? NONE : subscribers.toArray(NONE);
+    }
+}
@@ -0,0 +1,44 @@
+package com.wq.testguava.envntBus;
+
+/**
+ * @author 万强
+ * @version 1.0
+ * @desc {@link FastEventBus} 中注册的一个订阅方法。post按事件类型找到Subscription，再通过 {@link #route} 得到实际持有队列、
+ * 调用订阅方法的 {@link QueuedSubscriber}：普通、批量投递、按key合并的订阅方法自身就是QueuedSubscriber，
+ * 按key分区的订阅方法（{@link PartitionedSubscriber}）只负责路由，把事件交给其中一个通道
+ */
+interface Subscription {
+
+    Object getTarget();
+
+    /**
+     * 接收的事件类型，用于按事件类匹配订阅方法
+     */
+    Class<?> getEventType();
+
+    /**
+     * 实际接收该事件的队列，返回null表示不投递
+     */
+    QueuedSubscriber route(Object event);
+
+    /**
+     * 所有队列，开启journal时各自在日志中记录进度
+     */
+    QueuedSubscriber[] leaves();
+
+    int getQueueDepth();
+
+    long getDeliveredCount();
+
+    /**
+     * 订阅方法的调用次数，批量投递和按key合并时远小于投递的事件数
+     */
+    long getInvocationCount();
+
+    long getDroppedCount();
+
+    /**
+     * 被同一key的新事件覆盖、没有单独投递的事件数
+     */
+    long getCoalescedCount();
+}
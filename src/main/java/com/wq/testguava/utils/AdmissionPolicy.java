@@ -0,0 +1,21 @@
+package com.wq.testguava.utils;
+
+/**
+ * @description: 一级缓存的准入策略。缓存已满时，新加载的key（候选）需要淘汰一个已有的key（受害者）才能放入缓存，
+ * 准入策略决定候选是否值得替换受害者；拒绝时受害者保留在缓存中，候选的值只返回给本次调用方而不被缓存。
+ * 不设置准入策略时总是准入，即guava默认的分段LRU。实现需要线程安全，record在每次读取时调用，应尽量轻量
+ */
+public interface AdmissionPolicy<K> {
+
+    /**
+     * 记录一次访问
+     */
+    void record(K key);
+
+    /**
+     * @param candidate 新加载的key
+     * @param victim    因容量不足即将被淘汰的key
+     * @return 是否用candidate替换victim
+     */
+    boolean admit(K candidate, K victim);
+}
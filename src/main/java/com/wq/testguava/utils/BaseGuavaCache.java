@@ -1,46 +1,223 @@
 package com.wq.testguava.utils;
 
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * @description: 利用guava实现的内存缓存。缓存加载之后永不过期，后台线程定时刷新缓存值。刷新失败时将继续返回旧缓存。
- * 在调用getValue之前，需要设置 refreshDuration， refreshTimeunit， maxSize 三个参数
- * 后台刷新线程池为该系统中所有子类共享，大小为20.
+ * @description: 利用guava实现的内存缓存。缓存加载之后永不过期，刷新失败时将继续返回旧缓存。
+ * 注意refreshAfterWrite只有在key被读取时才会触发刷新（参见TestCache.test3），刷新本身在后台线程中执行；
+ * 如需不依赖读请求、由后台定时刷新热点key，可通过 proactiveRefresh 开启主动刷新。
+ * 所有配置通过 {@link GuavaCacheSpec} 在构造时传入，之后不可修改；LoadingCache在构造时创建并通过final字段发布，
+ * getValue等读取路径上没有判空和加锁。子类没有传入配置时使用默认配置（刷新周期10分钟，最大容量4）。
+ * 后台刷新线程池默认为该系统中所有子类共享，大小为20，等待队列上限为1000，队列满时放弃刷新并继续返回旧值；
+ * 可通过 refreshExecutor 为单个缓存指定独立的刷新线程池（线程数、队列容量、溢出策略见 {@link RefreshExecutor}）。
+ * 值大小差异较大时，可通过 maxWeightBytes 按字节预算限制容量（默认按序列化后的大小估算，可通过 weigher 替换），
+ * 此时 maxSize 不再生效。
+ * 通过 offHeapStore 开启堆外二级缓存后，因容量不足被淘汰的entry会序列化到堆外，一级缓存未命中时先查二级缓存再回源，
+ * 一级缓存可以保持较小的maxSize以减少堆内存和GC压力。
+ * 通过 negativeCache 开启负缓存后，不存在或加载失败的key在较短的时间内直接抛出 {@link CacheMissException}，不再回源；
+ * 还可以通过 setKeyGuard 用全量key构建布隆过滤器，不在其中的key直接判定为不存在。加载失败的错误日志按时间间隔限流。
+ * 默认开启统计，所有实例都会登记到 {@link GuavaCacheRegistry}，通过 getStats 获取命中率、加载/刷新耗时分布、刷新线程池状态等指标。
+ * 通过 snapshot 开启快照后，缓存内容会定期写入本地文件，启动时调用 warmUp 从快照批量恢复，避免发布后所有请求同时回源。
+ * 每个值都带有写入时间（{@link CacheEntry}），按写入时间分为三个时期：refreshAfterWrite之前为新鲜期，直接返回；
+ * refreshAfterWrite到expireAfterWrite之间直接返回旧值并在后台刷新；超过expireAfterWrite后读取时同步重新加载，
+ * 开启 staleIfError 后加载失败时在staleIfError时间内仍返回旧值。调用方也可以通过 getValue(key, maxStaleness, unit) 指定可以接受的最大过期时间。
+ * 通过 admissionPolicy（例如 tinyLfuAdmission）在guava的分段LRU之前加入准入过滤，缓存已满时访问频率不高于最近被淘汰key的新key不会被缓存，
+ * 避免一次性扫描冲掉热点key。准入判断只作用于getValue和getValueOrDefault触发的单key加载。
+ * getValueAsync/getValuesAsync 提供不阻塞调用线程的读取，未命中时在刷新线程池中加载。
+ * 多个缓存依赖同一个昂贵查询时，可以在getValueWhenExpired中通过 loadShared 合并并发加载；
+ * 开启 requestMemo 后同一个web请求内重复读取同一个key时直接从请求属性中的map返回第一次读取的结果，
+ * 不再经过缓存的读取路径，一次请求内同一个key最多加载一次。
+ * 多实例部署时可以通过 invalidationBus 把 invalidate 和 clearAll 广播到其他节点（参见 {@link InvalidationBus}）。
  */
 public abstract class BaseGuavaCache<K, V> {
 
     protected Logger logger = LoggerFactory.getLogger(getClass());
 
-    // 缓存自动刷新周期
-    protected int refreshDuration = 10;
+    // 数据刷新线程池（所有子类共享）
+    protected static final RefreshExecutor refreshPool = new RefreshExecutor("guava-cache-refresh", 20, 1000,
+            RefreshExecutor.OverflowPolicy.DISCARD);
 
-    // 缓存刷新周期时间格式
-    protected TimeUnit refreshTimeunit = TimeUnit.MINUTES;
+    // 主动刷新的定时调度线程（所有子类共享，只负责触发，刷新任务仍提交到refreshExecutor执行）
+    protected static final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("guava-cache-scheduler-%d").build());
 
-    // 缓存过期时间（可选择）
-    protected int expireDuration = -1;
+    private final GuavaCacheSpec<K, V> spec;
 
-    // 缓存刷新周期时间格式
-    protected TimeUnit expireTimeunit = TimeUnit.HOURS;
+    // 缓存名称，用于监控指标导出，默认为类名
+    private final String cacheName;
 
-    // 缓存最大容量
-    protected int maxSize = 4;
+    // 加载失败的错误日志，按时间间隔限流
+    private final ThrottledLogger failureLogger;
 
-    // 数据刷新线程池
-    protected static ListeningExecutorService refreshPool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(20));
+    // 请求内读取结果在请求属性中的名称，未开启requestMemo时为null
+    private final String memoAttribute;
 
-    protected LoadingCache<K, V> cache = null;
+    // 当前缓存使用的刷新线程池，默认为共享线程池
+    private final RefreshExecutor refreshExecutor;
+
+    // 不存在或加载失败的key，值为再次访问时直接抛出的异常（为null表示不开启负缓存）
+    private final Cache<K, CacheMissException> negativeCache;
+
+    // 全量key构建的布隆过滤器（为null表示不开启）
+    private volatile BloomFilter<? super K> keyGuard = null;
+
+    // 一级缓存未命中时的加载耗时
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    // 后台刷新耗时
+    private final LatencyHistogram refreshLatency = new LatencyHistogram();
+
+    // 当前缓存中所有entry的权重之和，仅在按权重限制容量时统计
+    private final LongAdder weightedSize = new LongAdder();
+
+    // 按移除原因统计的移除次数
+    private final Map<RemovalCause, LongAdder> removalCounts = new EnumMap<>(RemovalCause.class);
+
+    // 热点key访问频率（为null表示不开启主动刷新）
+    private final HotKeyTracker<K> hotKeyTracker;
+
+    // 后台刷新合并器（为null表示不合并）
+    private final RefreshCoalescer<K, CacheEntry<V>> refreshCoalescer;
+
+    // 缓存快照（为null表示不开启）
+    private final CacheSnapshotStore<K, V> snapshotStore;
+
+    // 堆外二级缓存（为null表示不开启）
+    private final OffHeapStore<K, V> offHeapStore;
+
+    // 跨节点失效广播（为null表示只在本节点失效）
+    private final InvalidationBus invalidationBus;
+
+    // 准入策略（为null表示总是准入）
+    private final AdmissionPolicy<? super K> admissionPolicy;
+
+    // 最近一次因容量不足被淘汰的key，作为准入判断时受害者的近似（未开启准入策略时不记录）
+    private volatile K lastVictim;
+
+    // 未被准入的候选key数量
+    private final LongAdder admissionRejectedCount = new LongAdder();
+
+    // 超过该时间的值读取时需要同步重新加载（<=0表示永不过期）
+    private final long expireMillis;
+
+    // 超过该时间的值即使加载失败也不再返回（<=0表示永不过期）
+    private final long hardExpireMillis;
+
+    // 正在同步重新加载的key，同一个key的并发读取共用一次加载
+    private final ConcurrentMap<K, ListenableFuture<CacheEntry<V>>> revalidations = new ConcurrentHashMap<>();
+
+    // getValueAsync直接命中的次数（命中时不经过guava的统计）
+    private final LongAdder asyncHitCount = new LongAdder();
+
+    // 因重新加载失败而返回过期值的次数
+    private final LongAdder staleIfErrorCount = new LongAdder();
+
+    // guarded by this
+    private ScheduledFuture<?> proactiveRefreshTask = null;
+
+    // guarded by this
+    private ScheduledFuture<?> snapshotTask = null;
+
+    // 值为带写入时间的CacheEntry，未超过expireAfterWrite（开启staleIfError时为staleIfError）的entry保留在缓存中
+    protected final LoadingCache<K, CacheEntry<V>> cache;
+
+    /**
+     * 使用默认配置
+     */
+    protected BaseGuavaCache() {
+        this(GuavaCacheSpec.<K, V>newBuilder().build());
+    }
+
+    /**
+     * @param spec 缓存配置，构造完成后不可修改
+     */
+    protected BaseGuavaCache(GuavaCacheSpec<K, V> spec) {
+        this.spec = Preconditions.checkNotNull(spec);
+        this.cacheName = spec.getCacheName() != null ? spec.getCacheName()
+                : getClass().getSimpleName().isEmpty() ? getClass().getName() : getClass().getSimpleName();
+        this.failureLogger = new ThrottledLogger(logger, spec.getFailureLogInterval(), spec.getFailureLogTimeunit());
+        this.memoAttribute = spec.isRequestMemo() ? RequestMemo.newAttributeName() : null;
+        this.refreshExecutor = spec.getRefreshExecutor();
+        this.snapshotStore = spec.getSnapshotStore();
+        this.offHeapStore = spec.getOffHeapStore();
+        this.admissionPolicy = spec.getAdmissionPolicy();
+        this.invalidationBus = spec.getInvalidationBus();
+        this.expireMillis = spec.getExpireDuration() > 0 ? spec.getExpireTimeunit().toMillis(spec.getExpireDuration()) : -1;
+        this.hardExpireMillis = spec.getStaleIfErrorDuration() > 0
+                ? spec.getStaleIfErrorTimeunit().toMillis(spec.getStaleIfErrorDuration()) : expireMillis;
+        for (RemovalCause cause : RemovalCause.values()) {
+            removalCounts.put(cause, new LongAdder());
+        }
+
+        this.negativeCache = spec.getNegativeTtl() > 0
+                ? CacheBuilder.newBuilder()
+                .maximumSize(spec.getNegativeMaxSize())
+                .expireAfterWrite(spec.getNegativeTtl(), spec.getNegativeTtlTimeunit())
+                .<K, CacheMissException>build()
+                : null;
+        this.hotKeyTracker = spec.getProactiveRefreshDuration() > 0
+                ? new HotKeyTracker<>(Math.max(spec.getHotKeyLimit() * 10, spec.getMaxSize()))
+                : null;
+        this.refreshCoalescer = spec.getRefreshBatchWindow() > 0
+                ? new RefreshCoalescer<>(spec.getRefreshBatchWindow(), spec.getRefreshBatchTimeunit(),
+                spec.getRefreshBatchMaxKeys(), refreshScheduler, refreshExecutor, keys -> {
+            long start = System.nanoTime();
+            try {
+                return loadAll(keys);
+            } finally {
+                refreshLatency.record(System.nanoTime() - start);
+            }
+        })
+                : null;
+        this.cache = buildCache();
+
+        startProactiveRefresh();
+        startSnapshot();
+        GuavaCacheRegistry.register(this);
+        if (invalidationBus != null) {
+            invalidationBus.register(this);
+        }
+    }
 
     /**
      * 用于初始化缓存值（某些场景下使用，例如系统启动检测缓存加载是否征程）
@@ -57,6 +234,22 @@ public abstract class BaseGuavaCache<K, V> {
      */
     protected abstract V getValueWhenExpired(K key) throws Exception;
 
+    /**
+     * 批量计算缓存值，每次调用的key数量不超过maxBatchSize。
+     * 默认逐个调用getValueWhenExpired，后端支持批量查询时子类应覆盖此方法，将多个key合并为一次查询；
+     * 返回结果中缺少的key视为加载失败
+     *
+     * @param keys
+     * @throws Exception
+     */
+    protected Map<K, V> getValuesWhenExpired(Collection<K> keys) throws Exception {
+        Map<K, V> values = new LinkedHashMap<>(keys.size() * 2);
+        for (K key : keys) {
+            values.put(key, getValueWhenExpired(key));
+        }
+        return values;
+    }
+
     /**
      * @param key
      * @throws Exception
@@ -65,95 +258,750 @@ public abstract class BaseGuavaCache<K, V> {
      * @date: 2017年6月13日 下午5:07:11
      */
     public V getValue(K key) throws Exception {
+        Map<K, V> memo = memoAttribute != null ? RequestMemo.current(memoAttribute, true) : null;
+        if (memo == null) {
+            return getValue(key, expireMillis, TimeUnit.MILLISECONDS);
+        }
+        V value = memo.get(key);
+        if (value == null) {
+            value = getValue(key, expireMillis, TimeUnit.MILLISECONDS);
+            if (value != null) {
+                memo.putIfAbsent(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 读取缓存值，可以接受写入时间不超过maxStaleness的值（即使已超过expireAfterWrite），
+     * 更旧的值同步重新加载，加载失败时按staleIfError兜底。超过refreshAfterWrite的值仍会在后台刷新。
+     * maxStaleness较大时可以在后端变慢时保证读取不阻塞，maxStaleness较小时可以要求比expireAfterWrite更新的值
+     *
+     * @param maxStaleness 可以接受的最大写入时长，<0表示不限
+     */
+    public V getValue(K key, long maxStaleness, TimeUnit timeUnit) throws Exception {
+        recordAccess(key);
+        CacheMissException miss = getKnownMiss(key);
+        if (miss != null) {
+            throw miss;
+        }
         try {
-            return getCache().get(key);
+            return resolve(key, getFromCache(key), maxStaleness < 0 ? -1 : timeUnit.toMillis(maxStaleness));
         } catch (Exception e) {
-            logger.error("从内存缓存中获取内容时发生异常，key: " + key, e);
+            onLoadFailure(key, e);
+            failureLogger.error("从内存缓存中获取内容时发生异常，key: " + key, e);
             throw e;
         }
     }
 
+    /**
+     * 非阻塞读取：命中且未超过expireAfterWrite时返回已完成的Future，
+     * 否则把getValue提交到刷新线程池执行，调用线程不等待加载（加载失败、负缓存等语义与getValue相同）。
+     * 刷新线程池队列满时，DISCARD 策略下返回以 RejectedExecutionException 失败的Future，CALLER_RUNS 策略下在调用线程中同步加载。
+     * 不使用requestMemo
+     */
+    public ListenableFuture<V> getValueAsync(K key) {
+        CacheEntry<V> entry = getPresent(key);
+        if (entry != null) {
+            recordAccess(key);
+            return Futures.immediateFuture(entry.getValue());
+        }
+        return refreshExecutor.submit(() -> getValue(key));
+    }
+
+    /**
+     * 批量的非阻塞读取，所有命中的key直接返回，其余的key在刷新线程池中通过一次getValues批量加载
+     */
+    public ListenableFuture<ImmutableMap<K, V>> getValuesAsync(Iterable<K> keys) {
+        Map<K, V> hits = new LinkedHashMap<>();
+        List<K> misses = new ArrayList<>();
+        for (K key : keys) {
+            CacheEntry<V> entry = getPresent(key);
+            if (entry != null) {
+                recordAccess(key);
+                hits.put(key, entry.getValue());
+            } else {
+                misses.add(key);
+            }
+        }
+        if (misses.isEmpty()) {
+            return Futures.immediateFuture(ImmutableMap.copyOf(hits));
+        }
+        return Futures.transform(refreshExecutor.submit(() -> getValues(misses)), loaded -> {
+            Map<K, V> values = new LinkedHashMap<>(hits);
+            values.putAll(loaded);
+            return ImmutableMap.copyOf(values);
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * 供getValueWhenExpired/getValuesWhenExpired调用：以flightKey合并并发的加载，
+     * 多个缓存依赖同一个查询时，同时未命中只执行一次loader（参见 {@link SingleFlight}）
+     *
+     * @param flightKey 唯一确定查询的key，例如 "user:" + userId
+     */
+    protected final <T> T loadShared(Object flightKey, Callable<? extends T> loader) throws Exception {
+        return spec.getSingleFlight().load(flightKey, loader);
+    }
+
+    /**
+     * 从快照批量恢复缓存，应在系统启动时调用（例如在loadValueWhenStarted或@PostConstruct中），
+     * 这样恢复在Spring容器启动完成之前结束。恢复的值可能已经过时，会在warmUpRevalidate窗口期内随机打散后重新加载。
+     * 未开启快照、快照不存在或读取失败时不恢复任何内容
+     *
+     * @return 恢复的entry数量
+     */
+    public int warmUp() {
+        if (snapshotStore == null) {
+            return 0;
+        }
+        CacheSnapshotStore.Snapshot<K, V> snapshot;
+        try {
+            snapshot = snapshotStore.readSnapshot();
+        } catch (IOException e) {
+            logger.error("读取缓存快照时发生异常，跳过预热，path: " + snapshotStore.getPath(), e);
+            return 0;
+        }
+        //快照中的值保留原来的写入时间，超过staleIfError（或expireAfterWrite）的entry不恢复
+        long now = System.currentTimeMillis();
+        if (hardExpireMillis > 0 && now - snapshot.getCreatedMillis() > hardExpireMillis) {
+            logger.info("缓存快照已超过最长保留时间，跳过预热，path: {}", snapshotStore.getPath());
+            return 0;
+        }
+        int restored = 0;
+        int expired = 0;
+        for (Map.Entry<K, V> entry : snapshot.getEntries().entrySet()) {
+            long writeMillis = snapshot.getWriteMillis(entry.getKey());
+            if (hardExpireMillis > 0 && now - writeMillis > hardExpireMillis) {
+                expired++;
+                continue;
+            }
+            cache.put(entry.getKey(), new CacheEntry<>(entry.getValue(), writeMillis));
+            scheduleRevalidation(entry.getKey());
+            restored++;
+        }
+        logger.info("从缓存快照恢复了{}个entry，跳过了{}个已过期的entry，path: {}", restored, expired, snapshotStore.getPath());
+        return restored;
+    }
+
+    /**
+     * 立即把当前缓存内容写入快照
+     */
+    public void writeSnapshot() throws IOException {
+        if (snapshotStore != null) {
+            Map<K, CacheEntry<V>> entries = ImmutableMap.copyOf(cache.asMap());
+            snapshotStore.write(Maps.transformValues(entries, CacheEntry::getValue), key -> entries.get(key).getWriteMillis());
+        }
+    }
+
     public V getValueOrDefault(K key, V defaultValue) {
+        recordAccess(key);
+        if (getKnownMiss(key) != null) {
+            return defaultValue;
+        }
         try {
-            return getCache().get(key);
+            return resolve(key, getFromCache(key), expireMillis);
         } catch (Exception e) {
-            logger.error("从内存缓存中获取内容时发生异常，key: " + key, e);
+            onLoadFailure(key, e);
+            failureLogger.error("从内存缓存中获取内容时发生异常，key: " + key, e);
             return defaultValue;
         }
     }
 
     /**
-     * 设置基本属性
+     * 批量获取缓存值，未命中的key通过getValuesWhenExpired批量加载
+     *
+     * @param keys
+     * @throws Exception
      */
-    public BaseGuavaCache<K, V> setRefreshDuration(int refreshDuration) {
-        this.refreshDuration = refreshDuration;
-        return this;
+    public ImmutableMap<K, V> getValues(Iterable<K> keys) throws Exception {
+        for (K key : keys) {
+            recordAccess(key);
+            CacheMissException miss = getKnownMiss(key);
+            if (miss != null) {
+                throw miss;
+            }
+        }
+        try {
+            ImmutableMap.Builder<K, V> values = ImmutableMap.builder();
+            for (Map.Entry<K, CacheEntry<V>> entry : cache.getAll(keys).entrySet()) {
+                values.put(entry.getKey(), resolve(entry.getKey(), entry.getValue(), expireMillis));
+            }
+            return values.build();
+        } catch (Exception e) {
+            failureLogger.error("从内存缓存中批量获取内容时发生异常，keys: " + keys, e);
+            throw e;
+        }
     }
 
-    public BaseGuavaCache<K, V> setRefreshTimeUnit(TimeUnit refreshTimeunit) {
-        this.refreshTimeunit = refreshTimeunit;
-        return this;
+    public String getCacheName() {
+        return cacheName;
     }
 
-    public BaseGuavaCache<K, V> setExpireDuration(int expireDuration) {
-        this.expireDuration = expireDuration;
-        return this;
+    public GuavaCacheSpec<K, V> getSpec() {
+        return spec;
     }
 
-    public BaseGuavaCache<K, V> setExpireTimeUnit(TimeUnit expireTimeunit) {
-        this.expireTimeunit = expireTimeunit;
+    /**
+     * 获取当前缓存的统计快照
+     */
+    public GuavaCacheStats getStats() {
+        CacheStats cacheStats = cache.stats();
+        GuavaCacheStats stats = new GuavaCacheStats();
+        stats.setName(cacheName);
+        stats.setSize(cache.size());
+        long hitCount = cacheStats.hitCount() + asyncHitCount.sum();
+        stats.setHitCount(hitCount);
+        //未被准入的key在缓存之外加载，同样计为未命中
+        long missCount = cacheStats.missCount() + admissionRejectedCount.sum();
+        stats.setMissCount(missCount);
+        stats.setHitRate(hitCount + missCount == 0 ? 1.0 : (double) hitCount / (hitCount + missCount));
+        stats.setLoadSuccessCount(cacheStats.loadSuccessCount());
+        stats.setLoadExceptionCount(cacheStats.loadExceptionCount());
+        stats.setEvictionCount(cacheStats.evictionCount());
+        stats.setWeightedSize(getWeightedSize());
+        stats.setRemovalCounts(getRemovalCounts());
+        stats.setAdmissionRejectedCount(getAdmissionRejectedCount());
+        stats.setStaleIfErrorCount(getStaleIfErrorCount());
+        stats.setLoadLatency(GuavaCacheStats.LatencyStats.of(loadLatency));
+        stats.setRefreshLatency(GuavaCacheStats.LatencyStats.of(refreshLatency));
+        stats.setRefreshExecutor(GuavaCacheStats.ExecutorStats.of(refreshExecutor));
+        return stats;
+    }
+
+    /**
+     * 用全量key快照构建布隆过滤器，不在其中的key直接判定为不存在，无需访问缓存或回源。
+     * 可以随时调用以重建（例如定时从数据库加载最新的key集合），新增的key在重建之前会被误判为不存在
+     *
+     * @param keySpace 全量key
+     * @param funnel   key的哈希方式
+     * @param fpp      误判率，被误判为存在的key会正常回源
+     */
+    public BaseGuavaCache<K, V> setKeyGuard(Collection<? extends K> keySpace, Funnel<? super K> funnel, double fpp) {
+        BloomFilter<K> filter = BloomFilter.create(funnel, Math.max(1, keySpace.size()), fpp);
+        for (K key : keySpace) {
+            filter.put(key);
+        }
+        this.keyGuard = filter;
         return this;
     }
 
-    public BaseGuavaCache<K, V> setMaxSize(int maxSize) {
-        this.maxSize = maxSize;
+    public BaseGuavaCache<K, V> clearKeyGuard() {
+        this.keyGuard = null;
         return this;
     }
 
+    /**
+     * 因访问频率低于淘汰key而未被缓存的新key数量，未设置准入策略时为0
+     */
+    public long getAdmissionRejectedCount() {
+        return admissionRejectedCount.sum();
+    }
+
+    /**
+     * 超过expireAfterWrite后重新加载失败、在staleIfError时间内返回旧值的次数
+     */
+    public long getStaleIfErrorCount() {
+        return staleIfErrorCount.sum();
+    }
+
+    /**
+     * 当前缓存中所有entry的权重之和（字节），未按权重限制容量时返回-1
+     */
+    public long getWeightedSize() {
+        return spec.getMaxWeightBytes() > 0 ? weightedSize.sum() : -1;
+    }
+
+    /**
+     * 按移除原因（容量淘汰、过期、显式删除、被替换等）统计的移除次数
+     */
+    public Map<RemovalCause, Long> getRemovalCounts() {
+        Map<RemovalCause, Long> counts = new EnumMap<>(RemovalCause.class);
+        for (Map.Entry<RemovalCause, LongAdder> entry : removalCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * 刷新合并器（包含批次大小、等待时间等统计），未开启时返回null
+     */
+    public RefreshCoalescer<K, CacheEntry<V>> getRefreshCoalescer() {
+        return refreshCoalescer;
+    }
+
+    public OffHeapStore<K, V> getOffHeapStore() {
+        return offHeapStore;
+    }
+
+    public RefreshExecutor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * 删除key的缓存值（包括负缓存和堆外二级缓存），下次读取时重新加载。
+     * 开启跨节点失效时同时通知其他节点删除，其他节点在合并窗口之后异步删除
+     */
+    public void invalidate(K key) {
+        invalidateLocally(key);
+        Map<K, V> memo = memoAttribute != null ? RequestMemo.current(memoAttribute, false) : null;
+        if (memo != null) {
+            memo.remove(key);
+        }
+        if (invalidationBus != null) {
+            invalidationBus.publish(cacheName, key);
+        }
+    }
+
+    /**
+     * 清空缓存，开启跨节点失效时同时通知其他节点清空
+     */
     public void clearAll() {
-        this.getCache().invalidateAll();
+        clearLocally();
+        Map<K, V> memo = memoAttribute != null ? RequestMemo.current(memoAttribute, false) : null;
+        if (memo != null) {
+            memo.clear();
+        }
+        if (invalidationBus != null) {
+            invalidationBus.publishAll(cacheName);
+        }
     }
 
     /**
-     * @description: 获取cache实例
-     * @author: luozhuo
-     * @date: 2017年6月13日 下午2:50:11
+     * 应用其他节点广播的失效消息，不再转发
      */
-    private LoadingCache<K, V> getCache() {
-        if (cache == null) {
-            synchronized (this) {
-                if (cache == null) {
-                    CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
-                            .maximumSize(maxSize);
+    @SuppressWarnings("unchecked")
+    void applyRemoteInvalidation(Object key) {
+        invalidateLocally((K) key);
+    }
 
-                    if (refreshDuration > 0) {
-                        cacheBuilder = cacheBuilder.refreshAfterWrite(refreshDuration, refreshTimeunit);
-                    }
-                    if (expireDuration > 0) {
-                        cacheBuilder = cacheBuilder.expireAfterWrite(expireDuration, expireTimeunit);
-                    }
+    void applyRemoteInvalidateAll() {
+        clearLocally();
+    }
 
-                    cache = cacheBuilder.build(new CacheLoader<K, V>() {
-                        @Override
-                        public V load(K key) throws Exception {
-                            return getValueWhenExpired(key);
-                        }
+    private void invalidateLocally(K key) {
+        cache.invalidate(key);
+        if (negativeCache != null) {
+            negativeCache.invalidate(key);
+        }
+        if (offHeapStore != null) {
+            try {
+                offHeapStore.remove(key);
+            } catch (IOException e) {
+                logger.error("从堆外二级缓存删除内容时发生异常，key: " + key, e);
+            }
+        }
+    }
 
-                        @Override
-                        public ListenableFuture<V> reload(final K key,
-                                                          V oldValue) throws Exception {
-                            return refreshPool.submit(new Callable<V>() {
-                                public V call() throws Exception {
-                                    return getValueWhenExpired(key);
-                                }
-                            });
-                        }
-                    });
+    private void clearLocally() {
+        cache.invalidateAll();
+        if (negativeCache != null) {
+            negativeCache.invalidateAll();
+        }
+        if (offHeapStore != null) {
+            offHeapStore.clear();
+        }
+    }
+
+    /**
+     * 停止主动刷新、定时快照等后台定时任务，开启快照时会写入最后一份快照
+     */
+    public synchronized void shutdown() {
+        if (proactiveRefreshTask != null) {
+            proactiveRefreshTask.cancel(false);
+            proactiveRefreshTask = null;
+        }
+        if (snapshotTask != null) {
+            snapshotTask.cancel(false);
+            snapshotTask = null;
+            writeSnapshotQuietly();
+        }
+    }
+
+    private void writeSnapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (Exception e) {
+            logger.error("写入缓存快照时发生异常，path: " + snapshotStore.getPath(), e);
+        }
+    }
+
+    /**
+     * 启动定时快照。快照写入提交到刷新线程池执行，避免阻塞调度线程；线程池繁忙时跳过本次快照
+     */
+    private void startSnapshot() {
+        if (snapshotStore == null) {
+            return;
+        }
+        long periodMillis = Math.max(1, spec.getSnapshotTimeunit().toMillis(spec.getSnapshotDuration()));
+        snapshotTask = refreshScheduler.scheduleAtFixedRate(() -> refreshExecutor.tryExecute(this::writeSnapshotQuietly,
+                () -> logger.warn("刷新线程池繁忙，跳过本次缓存快照，path: {}", snapshotStore.getPath())),
+                periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 不触发加载地取出未超过expireAfterWrite的值（超过refreshAfterWrite时仍会触发后台刷新），
+     * 不存在、已过期或命中负缓存时返回null，由调用方走完整的读取路径
+     */
+    private CacheEntry<V> getPresent(K key) {
+        if (getKnownMiss(key) != null) {
+            return null;
+        }
+        CacheEntry<V> entry = cache.asMap().get(key);
+        if (entry == null || (expireMillis > 0 && entry.getAgeMillis() > expireMillis)) {
+            return null;
+        }
+        asyncHitCount.increment();
+        return entry;
+    }
+
+    /**
+     * 布隆过滤器判定不存在或命中负缓存时返回对应的异常，否则返回null
+     */
+    private CacheMissException getKnownMiss(K key) {
+        BloomFilter<? super K> guard = keyGuard;
+        if (guard != null && !guard.mightContain(key)) {
+            return new CacheMissException("key不存在（布隆过滤器）: " + key);
+        }
+        return negativeCache == null ? null : negativeCache.getIfPresent(key);
+    }
+
+    /**
+     * 加载失败时写入负缓存
+     */
+    private void onLoadFailure(K key, Exception e) {
+        if (negativeCache == null) {
+            return;
+        }
+        Throwable cause = e instanceof ExecutionException || e instanceof UncheckedExecutionException ? e.getCause() : e;
+        if (e instanceof CacheLoader.InvalidCacheLoadException) {
+            negativeCache.put(key, new CacheMissException("key不存在（负缓存）: " + key));
+        } else {
+            negativeCache.put(key, new CacheMissException("key最近一次加载失败（负缓存）: " + key, cause));
+        }
+    }
+
+    /**
+     * 一级缓存未命中时的加载：先查堆外二级缓存，未命中再回源
+     */
+    private CacheEntry<V> load(K key) throws Exception {
+        CacheEntry<V> entry = loadFromOffHeap(key);
+        return entry != null ? entry : loadFromBackend(key);
+    }
+
+    /**
+     * 回源加载，getValueWhenExpired返回null时返回null（由guava抛出InvalidCacheLoadException）
+     */
+    private CacheEntry<V> loadFromBackend(K key) throws Exception {
+        V value = getValueWhenExpired(key);
+        return value == null ? null : new CacheEntry<>(value, System.currentTimeMillis());
+    }
+
+    /**
+     * 超过maxStaleMillis的值同步重新加载（同一个key的并发读取共用一次加载），
+     * 加载失败时如果值未超过staleIfError则返回旧值，否则抛出异常
+     */
+    private V resolve(K key, CacheEntry<V> entry, long maxStaleMillis) throws Exception {
+        if (maxStaleMillis < 0 || entry.getAgeMillis() <= maxStaleMillis) {
+            return entry.getValue();
+        }
+        SettableFuture<CacheEntry<V>> future = SettableFuture.create();
+        ListenableFuture<CacheEntry<V>> inFlight = revalidations.putIfAbsent(key, future);
+        if (inFlight == null) {
+            inFlight = future;
+            long start = System.nanoTime();
+            try {
+                CacheEntry<V> loaded = loadFromBackend(key);
+                if (loaded == null) {
+                    throw new CacheLoader.InvalidCacheLoadException("getValueWhenExpired返回了null，key: " + key);
+                }
+                //期间值已被后台刷新替换时不覆盖
+                cache.asMap().replace(key, entry, loaded);
+                future.set(loaded);
+            } catch (Throwable t) {
+                future.setException(t);
+            } finally {
+                revalidations.remove(key, future);
+                loadLatency.record(System.nanoTime() - start);
+            }
+        }
+        try {
+            return Uninterruptibles.getUninterruptibly(inFlight).getValue();
+        } catch (ExecutionException e) {
+            if (hardExpireMillis > 0 && entry.getAgeMillis() <= hardExpireMillis && hardExpireMillis > expireMillis) {
+                staleIfErrorCount.increment();
+                failureLogger.error("重新加载失败，返回过期的缓存值，key: " + key + "，写入时间: " + entry.getWriteMillis(),
+                        e.getCause());
+                return entry.getValue();
+            }
+            if (e.getCause() instanceof CacheLoader.InvalidCacheLoadException) {
+                throw (CacheLoader.InvalidCacheLoadException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 按maxBatchSize拆分后批量加载，堆外二级缓存中已有的key不回源
+     */
+    private Map<K, CacheEntry<V>> loadAll(Iterable<? extends K> keys) throws Exception {
+        Map<K, CacheEntry<V>> entries = new LinkedHashMap<>();
+        List<K> misses = new ArrayList<>();
+        for (K key : keys) {
+            CacheEntry<V> entry = loadFromOffHeap(key);
+            if (entry != null) {
+                entries.put(key, entry);
+            } else {
+                misses.add(key);
+            }
+        }
+        for (List<K> batch : Iterables.partition(misses, spec.getMaxBatchSize())) {
+            Map<K, V> values = getValuesWhenExpired(batch);
+            long now = System.currentTimeMillis();
+            for (Map.Entry<K, V> value : values.entrySet()) {
+                //值为null的key视为加载失败
+                if (value.getValue() != null) {
+                    entries.put(value.getKey(), new CacheEntry<>(value.getValue(), now));
                 }
             }
         }
-        return cache;
+        return entries;
     }
 
-}
+    /**
+     * 从堆外二级缓存取出值（取出后从二级缓存删除，由一级缓存持有），保留原来的写入时间，
+     * 已超过staleIfError（未开启时为过期时间）的值视为不存在。取出的值视为已到刷新时间，稍后在后台重新加载
+     */
+    private CacheEntry<V> loadFromOffHeap(K key) {
+        if (offHeapStore == null) {
+            return null;
+        }
+        OffHeapStore.Entry<V> entry;
+        try {
+            entry = offHeapStore.remove(key);
+        } catch (IOException e) {
+            logger.error("从堆外二级缓存读取内容时发生异常，key: " + key, e);
+            return null;
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (hardExpireMillis > 0 && System.currentTimeMillis() - entry.getWriteMillis() > hardExpireMillis) {
+            return null;
+        }
+        scheduleRevalidation(key);
+        return new CacheEntry<>(entry.getValue(), entry.getWriteMillis());
+    }
 
+    /**
+     * 一级缓存的移除监听：统计移除原因、扣减权重，因容量不足被淘汰的entry写入堆外二级缓存（在触发淘汰的线程中同步执行）
+     */
+    private void onRemoval(RemovalNotification<K, CacheEntry<V>> notification) {
+        K key = notification.getKey();
+        CacheEntry<V> value = notification.getValue();
+        RemovalCause cause = notification.getCause();
+        //按放入时计算的权重扣减：guava对未放入缓存的值也可能发出REPLACED通知，这类值没有计算过权重
+        if (spec.getMaxWeightBytes() > 0 && value != null && value.getWeight() > 0) {
+            weightedSize.add(-value.getWeight());
+        }
+        if (admissionPolicy != null && cause == RemovalCause.SIZE && key != null) {
+            lastVictim = key;
+        }
+        removalCounts.get(cause).increment();
+        if (offHeapStore == null || cause != RemovalCause.SIZE || key == null || value == null) {
+            return;
+        }
+        try {
+            offHeapStore.put(key, value.getValue(), value.getWriteMillis());
+        } catch (IOException e) {
+            logger.error("写入堆外二级缓存时发生异常，key: " + key, e);
+        }
+    }
+
+    /**
+     * 读取单个key。开启准入策略且缓存已满时，不在缓存中的key（候选）与最近一次因容量不足被淘汰的key比较访问频率，
+     * 未被准入时在调用线程中加载并直接返回，不放入一级缓存（写入堆外二级缓存），缓存中已有的key不受影响；
+     * 被准入时由guava加载并按分段LRU淘汰。准入判断只在本线程的加载路径上进行，不依赖guava在哪个线程处理移除通知。
+     * 最近被淘汰的key代表LRU末端的访问频率，是guava下一次实际淘汰的key的近似；还没有淘汰记录，
+     * 或该key已重新进入缓存（不再代表末端）时直接准入，由下一次淘汰更新。
+     * guava按分段限制容量，整体未满时某个分段也可能淘汰，这类淘汰不经过准入判断
+     */
+    private CacheEntry<V> getFromCache(K key) throws ExecutionException {
+        if (admissionPolicy == null || !isFull()) {
+            return cache.get(key);
+        }
+        K victim = lastVictim;
+        if (victim == null || victim.equals(key) || cache.asMap().containsKey(key) || cache.asMap().containsKey(victim)
+                || admissionPolicy.admit(key, victim)) {
+            return cache.get(key);
+        }
+        admissionRejectedCount.increment();
+        return loadRejected(key);
+    }
+
+    private boolean isFull() {
+        return spec.getMaxWeightBytes() > 0 ? weightedSize.sum() >= spec.getMaxWeightBytes()
+                : cache.size() >= spec.getMaxSize();
+    }
+
+    /**
+     * 加载未被准入的key，异常按guava加载时的方式包装
+     */
+    private CacheEntry<V> loadRejected(K key) throws ExecutionException {
+        long start = System.nanoTime();
+        try {
+            CacheEntry<V> entry = load(key);
+            if (entry == null) {
+                throw new CacheLoader.InvalidCacheLoadException("getValueWhenExpired返回了null，key: " + key);
+            }
+            if (offHeapStore != null) {
+                try {
+                    offHeapStore.put(key, entry.getValue(), entry.getWriteMillis());
+                } catch (IOException e) {
+                    logger.error("写入堆外二级缓存时发生异常，key: " + key, e);
+                }
+            }
+            return entry;
+        } catch (CacheLoader.InvalidCacheLoadException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new UncheckedExecutionException(e);
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        } finally {
+            loadLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 在warmUpRevalidate窗口期内随机延迟后刷新key
+     */
+    private void scheduleRevalidation(K key) {
+        long windowMillis = Math.max(1, spec.getWarmUpRevalidateTimeunit().toMillis(spec.getWarmUpRevalidateDuration()));
+        long delay = ThreadLocalRandom.current().nextLong(windowMillis);
+        refreshScheduler.schedule(() -> refreshIfPresent(key), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在刷新线程池中刷新仍在缓存中的key。从安排刷新到执行之间key可能已被淘汰或删除，
+     * 此时refresh会同步加载并把key重新放回缓存，因此执行前再检查一次
+     */
+    private void refreshIfPresent(K key) {
+        refreshExecutor.tryExecute(() -> {
+            if (cache.asMap().containsKey(key)) {
+                cache.refresh(key);
+            }
+        }, () -> logger.debug("刷新线程池繁忙，跳过本次刷新，key: {}", key));
+    }
+
+    private void recordAccess(K key) {
+        if (admissionPolicy != null) {
+            admissionPolicy.record(key);
+        }
+        if (hotKeyTracker != null) {
+            hotKeyTracker.record(key);
+        }
+    }
+
+    /**
+     * 启动主动刷新。每个周期开始时选出热点key，并在本周期内随机延迟提交，避免刷新集中在同一时刻
+     */
+    private void startProactiveRefresh() {
+        if (hotKeyTracker == null) {
+            return;
+        }
+        long periodMillis = Math.max(1, spec.getProactiveRefreshTimeunit().toMillis(spec.getProactiveRefreshDuration()));
+        proactiveRefreshTask = refreshScheduler.scheduleAtFixedRate(() -> {
+            try {
+                List<K> hotKeys = hotKeyTracker.drainHottest(spec.getHotKeyLimit());
+                for (K key : hotKeys) {
+                    if (!cache.asMap().containsKey(key)) {
+                        continue;
+                    }
+                    long delay = ThreadLocalRandom.current().nextLong(periodMillis);
+                    refreshScheduler.schedule(() -> refreshIfPresent(key), delay, TimeUnit.MILLISECONDS);
+                }
+            } catch (Exception e) {
+                logger.error("主动刷新热点key时发生异常", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @description: 按配置创建cache实例，只在构造时调用一次
+     * @author: luozhuo
+     * @date: 2017年6月13日 下午2:50:11
+     */
+    private LoadingCache<K, CacheEntry<V>> buildCache() {
+        CacheBuilder<K, CacheEntry<V>> cacheBuilder = CacheBuilder.newBuilder()
+                .removalListener(BaseGuavaCache.this::onRemoval)
+                .concurrencyLevel(spec.getConcurrencyLevel());
+        if (spec.getMaxWeightBytes() > 0) {
+            Weigher<? super K, ? super V> delegate = spec.getWeigher();
+            cacheBuilder = cacheBuilder.maximumWeight(spec.getMaxWeightBytes()).weigher((K key, CacheEntry<V> entry) -> {
+                //同一个entry再次放入（例如刷新时保留旧值）时沿用已计算的权重，与移除时扣减的权重一致
+                int weight = entry.getWeight();
+                if (weight < 0) {
+                    weight = delegate.weigh(key, entry.getValue());
+                    entry.setWeight(weight);
+                }
+                weightedSize.add(weight);
+                return weight;
+            });
+        } else {
+            cacheBuilder = cacheBuilder.maximumSize(spec.getMaxSize());
+        }
+
+        if (spec.isRecordStats()) {
+            cacheBuilder = cacheBuilder.recordStats();
+        }
+        if (spec.getRefreshDuration() > 0) {
+            cacheBuilder = cacheBuilder.refreshAfterWrite(spec.getRefreshDuration(), spec.getRefreshTimeunit());
+        }
+        if (hardExpireMillis > 0) {
+            //超过expireAfterWrite的值仍保留到staleIfError，由resolve决定是否返回
+            cacheBuilder = cacheBuilder.expireAfterWrite(hardExpireMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return cacheBuilder.build(new CacheLoader<K, CacheEntry<V>>() {
+            @Override
+            public CacheEntry<V> load(K key) throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return BaseGuavaCache.this.load(key);
+                } finally {
+                    loadLatency.record(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public Map<K, CacheEntry<V>> loadAll(Iterable<? extends K> keys) throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return BaseGuavaCache.this.loadAll(keys);
+                } finally {
+                    loadLatency.record(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public ListenableFuture<CacheEntry<V>> reload(final K key,
+                                                          CacheEntry<V> oldValue) throws Exception {
+                if (refreshCoalescer != null) {
+                    return refreshCoalescer.refresh(key, oldValue);
+                }
+                //线程池繁忙放弃刷新时返回旧的entry，写入时间不变
+                return refreshExecutor.submit(new Callable<CacheEntry<V>>() {
+                    public CacheEntry<V> call() throws Exception {
+                        long start = System.nanoTime();
+                        try {
+                            return loadFromBackend(key);
+                        } finally {
+                            refreshLatency.record(System.nanoTime() - start);
+                        }
+                    }
+                }, oldValue);
+            }
+        });
+    }
+}
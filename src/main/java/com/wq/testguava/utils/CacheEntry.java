@@ -0,0 +1,51 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @description: 一级缓存中保存的值及其写入时间。写入时间是值从后端加载成功的时间（从堆外二级缓存或快照恢复的值保留原来的写入时间），
+ * 用于判断值处于新鲜期、过期后仍可直接返回并后台刷新的时期、还是只能在后端故障时兜底返回的时期。
+ * 按权重限制容量时还记录放入缓存时计算的权重，移除时按该权重扣减，不再重新计算
+ */
+public final class CacheEntry<V> {
+
+    private final V value;
+
+    private final long writeMillis;
+
+    // 放入缓存时计算的权重，未计算时为-1
+    private volatile int weight = -1;
+
+    public CacheEntry(V value, long writeMillis) {
+        this.value = Preconditions.checkNotNull(value);
+        this.writeMillis = writeMillis;
+    }
+
+    public V getValue() {
+        return value;
+    }
+
+    public long getWriteMillis() {
+        return writeMillis;
+    }
+
+    int getWeight() {
+        return weight;
+    }
+
+    void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * 距离写入时间的毫秒数
+     */
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - writeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheEntry{value=" + value + ", writeMillis=" + writeMillis + "}";
+    }
+}
@@ -0,0 +1,18 @@
+package com.wq.testguava.utils;
+
+/**
+ * @description: key不存在（或最近一次加载失败）时由 {@link BaseGuavaCache} 抛出。
+ * 命中负缓存或被布隆过滤器拦截时会频繁抛出，因此不填充堆栈，创建成本很低
+ */
+public class CacheMissException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public CacheMissException(String message) {
+        this(message, null);
+    }
+
+    public CacheMissException(String message, Throwable cause) {
+        super(message, cause, false, false);
+    }
+}
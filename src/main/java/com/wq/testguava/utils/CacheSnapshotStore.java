@@ -0,0 +1,247 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * @description: 缓存快照文件。所有entry先序列化，再一次性顺序写入临时文件并原子替换正式文件，写入中途宕机不会破坏上一份快照。
+ * 文件不超过2GB时通过内存映射读写，否则退化为带缓冲的顺序流读写。
+ * 文件格式：magic(int) version(int) 创建时间(long) entry数量(int)，随后每个entry为 写入时间(long) key长度(int) key 值长度(int) 值。
+ * 版本1的文件没有每个entry的写入时间，读取时以快照的创建时间代替
+ */
+public class CacheSnapshotStore<K, V> {
+
+    /**
+     * 读取的快照内容
+     */
+    public static final class Snapshot<K, V> {
+
+        private final Map<K, V> entries;
+
+        private final Map<K, Long> writeMillis;
+
+        private final long createdMillis;
+
+        Snapshot(Map<K, V> entries, Map<K, Long> writeMillis, long createdMillis) {
+            this.entries = entries;
+            this.writeMillis = writeMillis;
+            this.createdMillis = createdMillis;
+        }
+
+        public Map<K, V> getEntries() {
+            return entries;
+        }
+
+        /**
+         * entry写入缓存的时间，没有记录时返回快照的写入时间
+         */
+        public long getWriteMillis(K key) {
+            return writeMillis.getOrDefault(key, createdMillis);
+        }
+
+        /**
+         * 快照的写入时间，快照不存在时为0
+         */
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheSnapshotStore.class);
+
+    private static final int MAGIC = 0x47435331;
+
+    private static final int VERSION = 2;
+
+    private static final int VERSION_WITHOUT_WRITE_TIME = 1;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+
+    private final Path path;
+
+    private final Serializer<K> keySerializer;
+
+    private final Serializer<V> valueSerializer;
+
+    public CacheSnapshotStore(Path path, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this.path = Preconditions.checkNotNull(path);
+        this.keySerializer = Preconditions.checkNotNull(keySerializer);
+        this.valueSerializer = Preconditions.checkNotNull(valueSerializer);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 写入快照，所有entry以当前时间作为写入时间，无法序列化的entry会被跳过
+     *
+     * @return 实际写入的entry数量
+     */
+    public int write(Map<K, V> entries) throws IOException {
+        long now = System.currentTimeMillis();
+        return write(entries, key -> now);
+    }
+
+    /**
+     * 写入快照，writeMillis给出每个entry写入缓存的时间，恢复时据此判断entry是否已过期。无法序列化的entry会被跳过
+     *
+     * @return 实际写入的entry数量
+     */
+    public int write(Map<K, V> entries, ToLongFunction<? super K> writeMillis) throws IOException {
+        List<byte[]> records = new ArrayList<>(entries.size() * 2);
+        long[] writeTimes = new long[entries.size()];
+        long totalBytes = HEADER_BYTES;
+        int skipped = 0;
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            byte[] key;
+            byte[] value;
+            try {
+                key = keySerializer.serialize(entry.getKey());
+                value = valueSerializer.serialize(entry.getValue());
+            } catch (IOException e) {
+                skipped++;
+                continue;
+            }
+            writeTimes[records.size() / 2] = writeMillis.applyAsLong(entry.getKey());
+            records.add(key);
+            records.add(value);
+            totalBytes += 8 + 4 + key.length + 4 + value.length;
+        }
+        if (skipped > 0) {
+            logger.warn("写入缓存快照时跳过了{}个无法序列化的entry，path: {}", skipped, path);
+        }
+
+        int count = records.size() / 2;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (totalBytes <= Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, totalBytes);
+                buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putInt(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] key = records.get(i * 2);
+                    byte[] value = records.get(i * 2 + 1);
+                    buffer.putLong(writeTimes[i]).putInt(key.length).put(key).putInt(value.length).put(value);
+                }
+                buffer.force();
+            } else {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel), STREAM_BUFFER_BYTES));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] key = records.get(i * 2);
+                    byte[] value = records.get(i * 2 + 1);
+                    out.writeLong(writeTimes[i]);
+                    out.writeInt(key.length);
+                    out.write(key);
+                    out.writeInt(value.length);
+                    out.write(value);
+                }
+                out.flush();
+                channel.force(false);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * 读取快照，文件不存在时返回空Map
+     */
+    public Map<K, V> read() throws IOException {
+        return readSnapshot().getEntries();
+    }
+
+    /**
+     * 读取快照及其写入时间，文件不存在时返回空快照
+     */
+    public Snapshot<K, V> readSnapshot() throws IOException {
+        if (!Files.exists(path)) {
+            return new Snapshot<>(Collections.emptyMap(), Collections.emptyMap(), 0);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() <= Integer.MAX_VALUE) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int magic = buffer.getInt();
+                int version = buffer.getInt();
+                long createdMillis = buffer.getLong();
+                int count = readHeader(magic, version, createdMillis, buffer.getInt());
+                Map<K, V> entries = new LinkedHashMap<>(count * 2);
+                Map<K, Long> writeMillis = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    long entryWriteMillis = version == VERSION_WITHOUT_WRITE_TIME ? createdMillis : buffer.getLong();
+                    byte[] key = new byte[buffer.getInt()];
+                    buffer.get(key);
+                    byte[] value = new byte[buffer.getInt()];
+                    buffer.get(value);
+                    K deserializedKey = keySerializer.deserialize(key);
+                    entries.put(deserializedKey, valueSerializer.deserialize(value));
+                    writeMillis.put(deserializedKey, entryWriteMillis);
+                }
+                return new Snapshot<>(entries, writeMillis, createdMillis);
+            }
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel), STREAM_BUFFER_BYTES));
+            int magic = in.readInt();
+            int version = in.readInt();
+            long createdMillis = in.readLong();
+            int count = readHeader(magic, version, createdMillis, in.readInt());
+            Map<K, V> entries = new LinkedHashMap<>(count * 2);
+            Map<K, Long> writeMillis = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                long entryWriteMillis = version == VERSION_WITHOUT_WRITE_TIME ? createdMillis : in.readLong();
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                K deserializedKey = keySerializer.deserialize(key);
+                entries.put(deserializedKey, valueSerializer.deserialize(value));
+                writeMillis.put(deserializedKey, entryWriteMillis);
+            }
+            return new Snapshot<>(entries, writeMillis, createdMillis);
+        } catch (RuntimeException e) {
+            //文件被截断等情况下ByteBuffer会抛出BufferUnderflowException
+            throw new IOException("缓存快照文件已损坏，path: " + path, e);
+        }
+    }
+
+    private int readHeader(int magic, int version, long createdMillis, int count) throws IOException {
+        if (magic != MAGIC || (version != VERSION && version != VERSION_WITHOUT_WRITE_TIME) || count < 0) {
+            throw new IOException("无法识别的缓存快照文件，path: " + path);
+        }
+        logger.debug("读取缓存快照，path: {}，创建时间: {}，entry数量: {}", path, createdMillis, count);
+        return count;
+    }
+}
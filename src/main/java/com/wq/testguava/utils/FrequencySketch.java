@@ -0,0 +1,111 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @description: 估算key访问频率的Count-Min Sketch。每个计数器占4位（上限15），每个key对应4个计数器，频率取其中的最小值；
+ * 计数总次数达到采样周期（容量的10倍）后所有计数器减半，使频率随时间衰减，历史热点不会永久占据缓存。
+ * 内存占用与容量成正比（容量按2的幂向上取整后，每个容量单位16字节），与访问过的key的数量无关，因此一次性key再多也不会撑大内存。
+ * 线程安全，计数器通过CAS更新，减半期间并发的计数可能丢失，对频率估算的影响可以忽略
+ */
+public class FrequencySketch<K> {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int MAX_COUNT = 15;
+
+    private final AtomicLongArray table;
+
+    // 计数器总数 - 1（计数器总数为2的幂）
+    private final int counterMask;
+
+    private final int sampleSize;
+
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param expectedSize 缓存容量（entry数量）
+     */
+    public FrequencySketch(long expectedSize) {
+        Preconditions.checkArgument(expectedSize > 0, "expectedSize必须大于0，当前expectedSize = %s", expectedSize);
+        int size = (int) Math.min(expectedSize, 1 << 26);
+        //每个long包含16个计数器，容量的2倍个long约每个key对应32个计数器
+        int longs = Integer.highestOneBit(Math.max(1, size * 2 - 1)) << 1;
+        this.table = new AtomicLongArray(longs);
+        this.counterMask = longs * 16 - 1;
+        this.sampleSize = (int) Math.min(10L * size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void increment(K key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(hash, i));
+        }
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 估算的访问频率（0~15）
+     */
+    public int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, countAt(indexOf(hash, i)));
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(int counter) {
+        int index = counter >>> 4;
+        int shift = (counter & 15) << 2;
+        while (true) {
+            long current = table.get(index);
+            if (((current >>> shift) & 0xfL) == MAX_COUNT) {
+                return false;
+            }
+            if (table.compareAndSet(index, current, current + (1L << shift))) {
+                return true;
+            }
+        }
+    }
+
+    private int countAt(int counter) {
+        return (int) ((table.get(counter >>> 4) >>> ((counter & 15) << 2)) & 0xfL);
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            long current;
+            do {
+                current = table.get(i);
+            } while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+        }
+        additions.addAndGet(-sampleSize / 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,41 @@
+package com.wq.testguava.utils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @description: 记录系统中所有存活的 {@link BaseGuavaCache} 实例，用于统一导出监控指标等。
+ * 以弱引用持有，缓存实例被回收后自动从注册表中消失
+ */
+public final class GuavaCacheRegistry {
+
+    private static final Set<BaseGuavaCache<?, ?>> CACHES =
+            Collections.newSetFromMap(new MapMaker().weakKeys().<BaseGuavaCache<?, ?>, Boolean>makeMap());
+
+    private GuavaCacheRegistry() {
+    }
+
+    static void register(BaseGuavaCache<?, ?> cache) {
+        CACHES.add(cache);
+    }
+
+    public static List<BaseGuavaCache<?, ?>> getCaches() {
+        return ImmutableList.copyOf(CACHES);
+    }
+
+    /**
+     * 按名称查找缓存，不存在时返回null
+     */
+    public static BaseGuavaCache<?, ?> getCache(String name) {
+        for (BaseGuavaCache<?, ?> cache : CACHES) {
+            if (cache.getCacheName().equals(name)) {
+                return cache;
+            }
+        }
+        return null;
+    }
+}
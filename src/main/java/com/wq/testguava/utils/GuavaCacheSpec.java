@@ -0,0 +1,657 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.cache.Weigher;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: {@link BaseGuavaCache} 的配置，通过 {@link Builder} 构建后不可修改。
+ * 配置在构造缓存时一次性生效，build时校验参数，配置错误（例如过期时间不大于刷新周期、只设置了权重计算器而没有设置字节预算）
+ * 直接抛出异常，而不是在缓存运行时被静默忽略。
+ */
+public final class GuavaCacheSpec<K, V> {
+
+    private final String cacheName;
+
+    private final boolean recordStats;
+
+    private final int refreshDuration;
+
+    private final TimeUnit refreshTimeunit;
+
+    private final int expireDuration;
+
+    private final TimeUnit expireTimeunit;
+
+    private final long staleIfErrorDuration;
+
+    private final TimeUnit staleIfErrorTimeunit;
+
+    private final int maxSize;
+
+    private final long maxWeightBytes;
+
+    private final int concurrencyLevel;
+
+    private final AdmissionPolicy<? super K> admissionPolicy;
+
+    private final Weigher<? super K, ? super V> weigher;
+
+    private final long negativeTtl;
+
+    private final TimeUnit negativeTtlTimeunit;
+
+    private final int negativeMaxSize;
+
+    private final long failureLogInterval;
+
+    private final TimeUnit failureLogTimeunit;
+
+    private final RefreshExecutor refreshExecutor;
+
+    private final long proactiveRefreshDuration;
+
+    private final TimeUnit proactiveRefreshTimeunit;
+
+    private final int hotKeyLimit;
+
+    private final int maxBatchSize;
+
+    private final long refreshBatchWindow;
+
+    private final TimeUnit refreshBatchTimeunit;
+
+    private final int refreshBatchMaxKeys;
+
+    private final CacheSnapshotStore<K, V> snapshotStore;
+
+    private final long snapshotDuration;
+
+    private final TimeUnit snapshotTimeunit;
+
+    private final long warmUpRevalidateDuration;
+
+    private final TimeUnit warmUpRevalidateTimeunit;
+
+    private final OffHeapStore<K, V> offHeapStore;
+
+    private final InvalidationBus invalidationBus;
+
+    private final SingleFlight singleFlight;
+
+    private final boolean requestMemo;
+
+    private GuavaCacheSpec(Builder<K, V> builder) {
+        this.cacheName = builder.cacheName;
+        this.recordStats = builder.recordStats;
+        this.refreshDuration = builder.refreshDuration;
+        this.refreshTimeunit = builder.refreshTimeunit;
+        this.expireDuration = builder.expireDuration;
+        this.expireTimeunit = builder.expireTimeunit;
+        this.staleIfErrorDuration = builder.staleIfErrorDuration;
+        this.staleIfErrorTimeunit = builder.staleIfErrorTimeunit;
+        this.maxSize = builder.maxSize;
+        this.maxWeightBytes = builder.maxWeightBytes;
+        this.concurrencyLevel = builder.concurrencyLevel;
+        this.admissionPolicy = builder.tinyLfuAdmission ? new TinyLfuAdmission<>(builder.maxSize) : builder.admissionPolicy;
+        this.weigher = builder.maxWeightBytes > 0 && builder.weigher == null
+                ? new SerializedSizeWeigher<>() : builder.weigher;
+        this.negativeTtl = builder.negativeTtl;
+        this.negativeTtlTimeunit = builder.negativeTtlTimeunit;
+        this.negativeMaxSize = builder.negativeMaxSize;
+        this.failureLogInterval = builder.failureLogInterval;
+        this.failureLogTimeunit = builder.failureLogTimeunit;
+        this.refreshExecutor = builder.refreshExecutor;
+        this.proactiveRefreshDuration = builder.proactiveRefreshDuration;
+        this.proactiveRefreshTimeunit = builder.proactiveRefreshTimeunit;
+        this.hotKeyLimit = builder.hotKeyLimit;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.refreshBatchWindow = builder.refreshBatchWindow;
+        this.refreshBatchTimeunit = builder.refreshBatchTimeunit;
+        this.refreshBatchMaxKeys = builder.refreshBatchMaxKeys > 0 ? builder.refreshBatchMaxKeys : builder.maxBatchSize;
+        this.snapshotStore = builder.snapshotStore;
+        this.snapshotDuration = builder.snapshotDuration;
+        this.snapshotTimeunit = builder.snapshotTimeunit;
+        this.warmUpRevalidateDuration = builder.warmUpRevalidateDuration;
+        this.warmUpRevalidateTimeunit = builder.warmUpRevalidateTimeunit;
+        this.offHeapStore = builder.offHeapStore;
+        this.invalidationBus = builder.invalidationBus;
+        this.singleFlight = builder.singleFlight;
+        this.requestMemo = builder.requestMemo;
+    }
+
+    public static <K, V> Builder<K, V> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 缓存名称，为null时使用缓存的类名
+     */
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public boolean isRecordStats() {
+        return recordStats;
+    }
+
+    public int getRefreshDuration() {
+        return refreshDuration;
+    }
+
+    public TimeUnit getRefreshTimeunit() {
+        return refreshTimeunit;
+    }
+
+    public int getExpireDuration() {
+        return expireDuration;
+    }
+
+    public TimeUnit getExpireTimeunit() {
+        return expireTimeunit;
+    }
+
+    public long getStaleIfErrorDuration() {
+        return staleIfErrorDuration;
+    }
+
+    public TimeUnit getStaleIfErrorTimeunit() {
+        return staleIfErrorTimeunit;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getMaxWeightBytes() {
+        return maxWeightBytes;
+    }
+
+    public int getConcurrencyLevel() {
+        return concurrencyLevel;
+    }
+
+    /**
+     * 准入策略，为null时总是准入（guava默认的分段LRU）
+     */
+    public AdmissionPolicy<? super K> getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * 权重计算器，按权重限制容量且未指定时为 {@link SerializedSizeWeigher}，否则为null
+     */
+    public Weigher<? super K, ? super V> getWeigher() {
+        return weigher;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public TimeUnit getNegativeTtlTimeunit() {
+        return negativeTtlTimeunit;
+    }
+
+    public int getNegativeMaxSize() {
+        return negativeMaxSize;
+    }
+
+    public long getFailureLogInterval() {
+        return failureLogInterval;
+    }
+
+    public TimeUnit getFailureLogTimeunit() {
+        return failureLogTimeunit;
+    }
+
+    public RefreshExecutor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    public long getProactiveRefreshDuration() {
+        return proactiveRefreshDuration;
+    }
+
+    public TimeUnit getProactiveRefreshTimeunit() {
+        return proactiveRefreshTimeunit;
+    }
+
+    public int getHotKeyLimit() {
+        return hotKeyLimit;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getRefreshBatchWindow() {
+        return refreshBatchWindow;
+    }
+
+    public TimeUnit getRefreshBatchTimeunit() {
+        return refreshBatchTimeunit;
+    }
+
+    /**
+     * 刷新合并缓冲区上限，未指定时与maxBatchSize相同
+     */
+    public int getRefreshBatchMaxKeys() {
+        return refreshBatchMaxKeys;
+    }
+
+    public CacheSnapshotStore<K, V> getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    public long getSnapshotDuration() {
+        return snapshotDuration;
+    }
+
+    public TimeUnit getSnapshotTimeunit() {
+        return snapshotTimeunit;
+    }
+
+    public long getWarmUpRevalidateDuration() {
+        return warmUpRevalidateDuration;
+    }
+
+    public TimeUnit getWarmUpRevalidateTimeunit() {
+        return warmUpRevalidateTimeunit;
+    }
+
+    public OffHeapStore<K, V> getOffHeapStore() {
+        return offHeapStore;
+    }
+
+    public InvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    public boolean isRequestMemo() {
+        return requestMemo;
+    }
+
+    public static final class Builder<K, V> {
+
+        // 缓存名称，用于监控指标导出，为null时使用类名
+        private String cacheName = null;
+
+        // 是否开启命中率、加载次数等统计
+        private boolean recordStats = true;
+
+        // 缓存自动刷新周期（<=0表示不刷新）
+        private int refreshDuration = 10;
+
+        private TimeUnit refreshTimeunit = TimeUnit.MINUTES;
+
+        // 缓存过期时间（<=0表示永不过期）
+        private int expireDuration = -1;
+
+        private TimeUnit expireTimeunit = TimeUnit.HOURS;
+
+        // 过期后加载失败时仍可返回旧值的最长时间（从写入时算起，<=0表示不开启）
+        private long staleIfErrorDuration = -1;
+
+        private TimeUnit staleIfErrorTimeunit = TimeUnit.HOURS;
+
+        // 缓存最大容量
+        private int maxSize = 4;
+
+        // 缓存最大权重（字节），>0时按权重限制容量，maxSize不再生效
+        private long maxWeightBytes = -1;
+
+        private Weigher<? super K, ? super V> weigher = null;
+
+        // guava的分段数，与CacheBuilder默认值相同
+        private int concurrencyLevel = 4;
+
+        // 准入策略（为null表示总是准入）
+        private AdmissionPolicy<? super K> admissionPolicy = null;
+
+        private boolean tinyLfuAdmission = false;
+
+        // 负缓存有效期（<=0表示不开启）
+        private long negativeTtl = -1;
+
+        private TimeUnit negativeTtlTimeunit = TimeUnit.SECONDS;
+
+        private int negativeMaxSize = 10000;
+
+        private long failureLogInterval = 10;
+
+        private TimeUnit failureLogTimeunit = TimeUnit.SECONDS;
+
+        private RefreshExecutor refreshExecutor = BaseGuavaCache.refreshPool;
+
+        // 主动刷新周期（<=0表示不开启）
+        private long proactiveRefreshDuration = -1;
+
+        private TimeUnit proactiveRefreshTimeunit = TimeUnit.MINUTES;
+
+        private int hotKeyLimit = 100;
+
+        private int maxBatchSize = 100;
+
+        // 后台刷新合并窗口（<=0表示不合并）
+        private long refreshBatchWindow = -1;
+
+        private TimeUnit refreshBatchTimeunit = TimeUnit.MILLISECONDS;
+
+        private int refreshBatchMaxKeys = -1;
+
+        // 缓存快照（为null表示不开启）
+        private CacheSnapshotStore<K, V> snapshotStore = null;
+
+        private long snapshotDuration = 5;
+
+        private TimeUnit snapshotTimeunit = TimeUnit.MINUTES;
+
+        private long warmUpRevalidateDuration = 30;
+
+        private TimeUnit warmUpRevalidateTimeunit = TimeUnit.SECONDS;
+
+        // 堆外二级缓存（为null表示不开启）
+        private OffHeapStore<K, V> offHeapStore = null;
+
+        // 跨节点失效广播（为null表示只在本节点失效）
+        private InvalidationBus invalidationBus = null;
+
+        // loadShared使用的合并加载实例，默认所有缓存共享
+        private SingleFlight singleFlight = SingleFlight.global();
+
+        // 是否在web请求内记住getValue的结果
+        private boolean requestMemo = false;
+
+        private Builder() {
+        }
+
+        public Builder<K, V> cacheName(String cacheName) {
+            this.cacheName = cacheName;
+            return this;
+        }
+
+        /**
+         * 是否开启统计，默认开启。关闭后getStats中命中率、加载次数等guava统计项均为0
+         */
+        public Builder<K, V> recordStats(boolean recordStats) {
+            this.recordStats = recordStats;
+            return this;
+        }
+
+        public Builder<K, V> refreshAfterWrite(int duration, TimeUnit timeUnit) {
+            this.refreshDuration = duration;
+            this.refreshTimeunit = timeUnit;
+            return this;
+        }
+
+        public Builder<K, V> expireAfterWrite(int duration, TimeUnit timeUnit) {
+            this.expireDuration = duration;
+            this.expireTimeunit = timeUnit;
+            return this;
+        }
+
+        /**
+         * 开启stale-if-error：超过expireAfterWrite的值不再直接返回，读取时同步重新加载，
+         * 但加载失败时只要写入时间未超过duration，仍返回旧值，后端故障期间不会因为缓存过期而直接报错。
+         * 超过duration的值从缓存中删除。duration必须大于expireAfterWrite
+         */
+        public Builder<K, V> staleIfError(long duration, TimeUnit timeUnit) {
+            this.staleIfErrorDuration = duration;
+            this.staleIfErrorTimeunit = timeUnit;
+            return this;
+        }
+
+        public Builder<K, V> maxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * 按字节预算限制缓存容量，此时maxSize不再生效
+         */
+        public Builder<K, V> maxWeightBytes(long maxWeightBytes) {
+            this.maxWeightBytes = maxWeightBytes;
+            return this;
+        }
+
+        /**
+         * 设置权重计算器，必须同时设置maxWeightBytes。移除entry时会再次调用以扣减权重，因此同一entry的计算结果需要保持一致
+         */
+        public Builder<K, V> weigher(Weigher<? super K, ? super V> weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * guava按concurrencyLevel划分分段，每个分段独立加锁并各自执行LRU淘汰。
+         * 分段越多写入竞争越小，但每个分段分到的容量越少，maxSize较小时淘汰会更不准确
+         */
+        public Builder<K, V> concurrencyLevel(int concurrencyLevel) {
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * 指定准入策略，缓存已满时由策略决定新加载的key能否替换guava按LRU选出的淘汰key。
+         * 策略内部保存访问频率，不要在多个缓存之间共用同一个实例（也不要用同一个spec构造多个缓存）
+         */
+        public Builder<K, V> admissionPolicy(AdmissionPolicy<? super K> admissionPolicy) {
+            this.admissionPolicy = admissionPolicy;
+            this.tinyLfuAdmission = false;
+            return this;
+        }
+
+        /**
+         * 使用按maxSize创建的 {@link TinyLfuAdmission}，适合maxSize较小、容易被一次性扫描冲掉热点的缓存
+         */
+        public Builder<K, V> tinyLfuAdmission() {
+            this.admissionPolicy = null;
+            this.tinyLfuAdmission = true;
+            return this;
+        }
+
+        /**
+         * 开启负缓存：getValueWhenExpired返回null或抛出异常的key，在ttl内再次访问时直接抛出 {@link CacheMissException}
+         * （getValueOrDefault直接返回默认值），不再回源。注意后端故障期间的加载失败同样会被缓存，因此ttl应尽量短
+         */
+        public Builder<K, V> negativeCache(long ttl, TimeUnit timeUnit) {
+            this.negativeTtl = ttl;
+            this.negativeTtlTimeunit = timeUnit;
+            return this;
+        }
+
+        public Builder<K, V> negativeMaxSize(int negativeMaxSize) {
+            this.negativeMaxSize = negativeMaxSize;
+            return this;
+        }
+
+        /**
+         * 加载失败错误日志的最小输出间隔
+         */
+        public Builder<K, V> failureLogInterval(long interval, TimeUnit timeUnit) {
+            this.failureLogInterval = interval;
+            this.failureLogTimeunit = timeUnit;
+            return this;
+        }
+
+        /**
+         * 为缓存指定独立的刷新线程池，避免慢加载器占满共享线程池的队列而拖慢其他缓存的刷新
+         */
+        public Builder<K, V> refreshExecutor(RefreshExecutor refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        /**
+         * 开启主动刷新：每个周期取访问频率最高的hotKeyLimit个key，在周期内随机打散后提交刷新，
+         * 使热点key在没有读请求时也能保持新鲜，避免安静期后的第一个请求读到很旧的值或阻塞在加载上
+         */
+        public Builder<K, V> proactiveRefresh(long duration, TimeUnit timeUnit, int hotKeyLimit) {
+            this.proactiveRefreshDuration = duration;
+            this.proactiveRefreshTimeunit = timeUnit;
+            this.hotKeyLimit = hotKeyLimit;
+            return this;
+        }
+
+        /**
+         * 单次批量加载的最大key数量，超过时拆分为多次调用getValuesWhenExpired
+         */
+        public Builder<K, V> maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * 开启后台刷新合并：在窗口期内到期的key（最多maxBatchSize个）合并为一次getValuesWhenExpired调用
+         */
+        public Builder<K, V> refreshBatchWindow(long window, TimeUnit timeUnit) {
+            return refreshBatchWindow(window, timeUnit, -1);
+        }
+
+        /**
+         * 开启后台刷新合并：缓冲窗口期内到期的key，缓冲区达到maxKeys个时提前提交；
+         * 一个批次超过maxBatchSize时仍会拆分为多次getValuesWhenExpired调用
+         */
+        public Builder<K, V> refreshBatchWindow(long window, TimeUnit timeUnit, int maxKeys) {
+            this.refreshBatchWindow = window;
+            this.refreshBatchTimeunit = timeUnit;
+            this.refreshBatchMaxKeys = maxKeys;
+            return this;
+        }
+
+        /**
+         * 开启快照，使用JDK序列化，key和value需要实现Serializable
+         */
+        public Builder<K, V> snapshot(Path file, long duration, TimeUnit timeUnit) {
+            return snapshot(new CacheSnapshotStore<>(file, new JdkSerializer<>(), new JdkSerializer<>()), duration, timeUnit);
+        }
+
+        /**
+         * 开启快照，每隔duration把缓存内容写入snapshotStore（序列化方式由snapshotStore决定）
+         */
+        public Builder<K, V> snapshot(CacheSnapshotStore<K, V> snapshotStore, long duration, TimeUnit timeUnit) {
+            this.snapshotStore = snapshotStore;
+            this.snapshotDuration = duration;
+            this.snapshotTimeunit = timeUnit;
+            return this;
+        }
+
+        /**
+         * 从快照或堆外二级缓存恢复的值可能已经过时，视为已到刷新时间，在该窗口期内随机打散后重新加载
+         */
+        public Builder<K, V> warmUpRevalidateWindow(long duration, TimeUnit timeUnit) {
+            this.warmUpRevalidateDuration = duration;
+            this.warmUpRevalidateTimeunit = timeUnit;
+            return this;
+        }
+
+        /**
+         * 开启堆外二级缓存，使用直接内存和JDK序列化，value需要实现Serializable
+         *
+         * @param capacityBytes 二级缓存容量（字节）
+         */
+        public Builder<K, V> offHeapCapacity(int capacityBytes) {
+            return offHeapStore(OffHeapStore.direct(capacityBytes, new JdkSerializer<>()));
+        }
+
+        /**
+         * 开启堆外二级缓存，存储区（直接内存或内存映射文件）和序列化方式由offHeapStore决定
+         */
+        public Builder<K, V> offHeapStore(OffHeapStore<K, V> offHeapStore) {
+            this.offHeapStore = offHeapStore;
+            return this;
+        }
+
+        /**
+         * 开启跨节点失效，invalidate和clearAll会通过invalidationBus广播到其他节点上同名的缓存，
+         * 各节点的cacheName需要一致，key只支持String、Long和Integer
+         */
+        public Builder<K, V> invalidationBus(InvalidationBus invalidationBus) {
+            this.invalidationBus = invalidationBus;
+            return this;
+        }
+
+        /**
+         * loadShared使用的合并加载实例，只有使用同一个实例的缓存之间才会合并，默认为 {@link SingleFlight#global()}
+         */
+        public Builder<K, V> singleFlight(SingleFlight singleFlight) {
+            this.singleFlight = singleFlight;
+            return this;
+        }
+
+        /**
+         * 开启后同一个web请求内重复调用getValue(key)直接返回本次请求第一次读取的结果：一次请求内同一个key最多触发一次加载
+         * （即使值在请求处理过程中过期或被其他线程失效），看到的值也是一致的。重复读取只查找请求属性和一个ConcurrentHashMap，
+         * 跳过热点统计、负缓存检查和guava的分段读。
+         * 共享同一请求上下文的线程调用invalidate或clearAll时清除记录；不在web请求中（例如后台线程）时不生效
+         */
+        public Builder<K, V> requestMemo(boolean requestMemo) {
+            this.requestMemo = requestMemo;
+            return this;
+        }
+
+        /**
+         * 校验配置并构建，配置错误时抛出IllegalArgumentException或IllegalStateException
+         */
+        public GuavaCacheSpec<K, V> build() {
+            Preconditions.checkArgument(cacheName == null || !Strings.isNullOrEmpty(cacheName.trim()),
+                    "cacheName不能为空字符串");
+            Preconditions.checkNotNull(refreshTimeunit, "refreshTimeunit");
+            Preconditions.checkNotNull(expireTimeunit, "expireTimeunit");
+            Preconditions.checkNotNull(staleIfErrorTimeunit, "staleIfErrorTimeunit");
+            Preconditions.checkNotNull(negativeTtlTimeunit, "negativeTtlTimeunit");
+            Preconditions.checkNotNull(failureLogTimeunit, "failureLogTimeunit");
+            Preconditions.checkNotNull(proactiveRefreshTimeunit, "proactiveRefreshTimeunit");
+            Preconditions.checkNotNull(refreshBatchTimeunit, "refreshBatchTimeunit");
+            Preconditions.checkNotNull(snapshotTimeunit, "snapshotTimeunit");
+            Preconditions.checkNotNull(warmUpRevalidateTimeunit, "warmUpRevalidateTimeunit");
+            Preconditions.checkNotNull(refreshExecutor, "refreshExecutor");
+            Preconditions.checkNotNull(singleFlight, "singleFlight");
+
+            if (maxWeightBytes <= 0) {
+                Preconditions.checkArgument(maxSize > 0, "maxSize必须大于0，当前maxSize = %s", maxSize);
+                Preconditions.checkState(weigher == null, "设置了weigher但没有设置maxWeightBytes，weigher不会生效");
+            }
+            if (refreshDuration > 0 && expireDuration > 0) {
+                Preconditions.checkState(expireTimeunit.toNanos(expireDuration) > refreshTimeunit.toNanos(refreshDuration),
+                        "过期时间必须大于刷新周期，否则entry在刷新之前就已过期，当前 expire = %s %s，refresh = %s %s",
+                        expireDuration, expireTimeunit, refreshDuration, refreshTimeunit);
+            }
+            if (staleIfErrorDuration > 0) {
+                Preconditions.checkState(expireDuration > 0, "没有设置过期时间时缓存值永不过期，stale-if-error不会生效");
+                Preconditions.checkState(staleIfErrorTimeunit.toNanos(staleIfErrorDuration) > expireTimeunit.toNanos(expireDuration),
+                        "stale-if-error时间必须大于过期时间，当前 staleIfError = %s %s，expire = %s %s",
+                        staleIfErrorDuration, staleIfErrorTimeunit, expireDuration, expireTimeunit);
+            }
+            Preconditions.checkArgument(concurrencyLevel > 0, "concurrencyLevel必须大于0，当前concurrencyLevel = %s",
+                    concurrencyLevel);
+            Preconditions.checkState(!tinyLfuAdmission || maxWeightBytes <= 0,
+                    "按权重限制容量时无法根据maxSize估算entry数量，请通过admissionPolicy传入TinyLfuAdmission");
+            Preconditions.checkArgument(negativeMaxSize > 0, "negativeMaxSize必须大于0，当前negativeMaxSize = %s", negativeMaxSize);
+            Preconditions.checkArgument(failureLogInterval >= 0, "failureLogInterval不能小于0，当前failureLogInterval = %s",
+                    failureLogInterval);
+            Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize必须大于0，当前maxBatchSize = %s", maxBatchSize);
+            if (proactiveRefreshDuration > 0) {
+                Preconditions.checkArgument(hotKeyLimit > 0, "hotKeyLimit必须大于0，当前hotKeyLimit = %s", hotKeyLimit);
+            }
+            if (refreshBatchWindow > 0) {
+                Preconditions.checkState(refreshDuration > 0, "没有设置刷新周期时刷新合并不会生效");
+            }
+            if (snapshotStore != null) {
+                Preconditions.checkArgument(snapshotDuration > 0, "snapshotDuration必须大于0，当前snapshotDuration = %s",
+                        snapshotDuration);
+            }
+            Preconditions.checkArgument(warmUpRevalidateDuration > 0,
+                    "warmUpRevalidateDuration必须大于0，当前warmUpRevalidateDuration = %s", warmUpRevalidateDuration);
+            return new GuavaCacheSpec<>(this);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.wq.testguava.utils;
+
+import com.google.common.cache.RemovalCause;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * @description: 单个 {@link BaseGuavaCache} 的统计快照，用于导出监控指标。耗时单位均为毫秒
+ */
+@Data
+public class GuavaCacheStats {
+
+    private String name;
+
+    private long size;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private double hitRate;
+
+    private long loadSuccessCount;
+
+    private long loadExceptionCount;
+
+    private long evictionCount;
+
+    /**
+     * 按权重限制容量时的当前总权重（字节），否则为-1
+     */
+    private long weightedSize;
+
+    private Map<RemovalCause, Long> removalCounts;
+
+    /**
+     * 因访问频率低于淘汰key而未被缓存的新key数量
+     */
+    private long admissionRejectedCount;
+
+    /**
+     * 超过过期时间后重新加载失败、返回旧值的次数
+     */
+    private long staleIfErrorCount;
+
+    /**
+     * 一级缓存未命中时的加载耗时
+     */
+    private LatencyStats loadLatency;
+
+    /**
+     * 后台刷新耗时（合并刷新时为整个批次的耗时）
+     */
+    private LatencyStats refreshLatency;
+
+    private ExecutorStats refreshExecutor;
+
+    @Data
+    public static class LatencyStats {
+
+        private long count;
+
+        private double mean;
+
+        private double p50;
+
+        private double p90;
+
+        private double p99;
+
+        private double p999;
+
+        private double max;
+
+        static LatencyStats of(LatencyHistogram histogram) {
+            LatencyStats stats = new LatencyStats();
+            stats.setCount(histogram.getCount());
+            stats.setMean(histogram.getMeanMillis());
+            stats.setP50(histogram.getPercentileMillis(50));
+            stats.setP90(histogram.getPercentileMillis(90));
+            stats.setP99(histogram.getPercentileMillis(99));
+            stats.setP999(histogram.getPercentileMillis(99.9));
+            stats.setMax(histogram.getMaxMillis());
+            return stats;
+        }
+    }
+
+    @Data
+    public static class ExecutorStats {
+
+        private String name;
+
+        private int queueSize;
+
+        private int queueCapacity;
+
+        private int activeCount;
+
+        private int poolSize;
+
+        private long completedTaskCount;
+
+        private long rejectedCount;
+
+        private long callerRunsCount;
+
+        static ExecutorStats of(RefreshExecutor executor) {
+            ExecutorStats stats = new ExecutorStats();
+            stats.setName(executor.getName());
+            stats.setQueueSize(executor.getQueueSize());
+            stats.setQueueCapacity(executor.getQueueCapacity());
+            stats.setActiveCount(executor.getActiveCount());
+            stats.setPoolSize(executor.getPoolSize());
+            stats.setCompletedTaskCount(executor.getCompletedTaskCount());
+            stats.setRejectedCount(executor.getRejectedCount());
+            stats.setCallerRunsCount(executor.getCallerRunsCount());
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description: 按访问频率统计热点key。每次读取计数加1，每个统计周期结束时取出访问次数最多的若干个key，
+ * 随后所有计数减半（衰减），长期不被访问的key会逐渐被移除，从而使热点集合跟随流量变化。
+ * 跟踪的key数量有上限，超过上限后新的key不再计数，避免大量一次性key（例如不存在的key）撑大内存。
+ */
+public class HotKeyTracker<K> {
+
+    private final int maxTrackedKeys;
+
+    private final ConcurrentHashMap<K, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    public HotKeyTracker(int maxTrackedKeys) {
+        Preconditions.checkArgument(maxTrackedKeys > 0, "maxTrackedKeys必须大于0，当前maxTrackedKeys = %s", maxTrackedKeys);
+        this.maxTrackedKeys = maxTrackedKeys;
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(K key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() >= maxTrackedKeys) {
+                return;
+            }
+            counter = counters.computeIfAbsent(key, k -> new AtomicLong());
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * 取出访问次数最多的limit个key，并对所有计数做衰减
+     */
+    public List<K> drainHottest(int limit) {
+        List<Map.Entry<K, Long>> snapshot = new ArrayList<>(counters.size());
+        Iterator<Map.Entry<K, AtomicLong>> it = counters.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, AtomicLong> entry = it.next();
+            long count = entry.getValue().getAndUpdate(c -> c >>> 1);
+            if (count == 0) {
+                it.remove();
+            } else {
+                snapshot.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), count));
+            }
+        }
+        snapshot.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        List<K> hottest = new ArrayList<>(Math.min(limit, snapshot.size()));
+        for (int i = 0; i < snapshot.size() && i < limit; i++) {
+            hottest.add(snapshot.get(i).getKey());
+        }
+        return hottest;
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    public void clear() {
+        counters.clear();
+    }
+}
@@ -0,0 +1,509 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 在多个节点之间广播缓存失效消息。本节点调用 {@link BaseGuavaCache#invalidate} 或 clearAll 时，
+ * 失效消息先在本地缓冲，每隔batchWindow（或缓冲达到maxBatchSize）合并为一个批次，编码后通过 {@link InvalidationTransport} 发送；
+ * 其他节点收到后在总线的单线程中异步应用到同名的缓存上，不会阻塞传输层的接收线程。
+ * 每个批次带有发送方id和递增的序号，接收方为每个发送方维护一个长度为64的滑动窗口：
+ * 重复的序号和落后于窗口的序号直接丢弃，窗口内乱序到达的序号照常应用（失效操作是幂等的，先后顺序不影响结果）。
+ * 批次使用固定的二进制格式（不使用JDK序列化，收到的字节不会被当作对象反序列化）：
+ * magic(int) 版本(byte) 发送方id 序号(long) 条数(int)，每条为 缓存名称 key类型(byte) key，字符串均为 长度(int)+UTF-8字节，
+ * 因此key只支持String、Long和Integer。指定secret时每个批次末尾附加HMAC-SHA256，校验失败的批次直接丢弃，
+ * 各节点需要使用相同的secret。缓存以弱引用登记，同一个进程内可以创建多个总线模拟多个节点
+ */
+public class InvalidationBus implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationBus.class);
+
+    // 每个发送方的去重窗口长度（序号个数）
+    private static final int REPLAY_WINDOW = 64;
+
+    private static final int MAGIC = 0x43494E56;
+
+    private static final byte VERSION = 1;
+
+    private static final byte KEY_ALL = 0;
+
+    private static final byte KEY_STRING = 1;
+
+    private static final byte KEY_LONG = 2;
+
+    private static final byte KEY_INTEGER = 3;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final int HMAC_BYTES = 32;
+
+    private final InvalidationTransport transport;
+
+    private final String senderId = UUID.randomUUID().toString();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final long batchWindowMillis;
+
+    private final int maxBatchSize;
+
+    // 为null时不签名也不校验
+    private final SecretKeySpec secret;
+
+    // 发送定时器和接收后的应用都在这个线程中执行
+    private final ScheduledExecutorService executor;
+
+    // 按名称登记的本节点缓存，弱引用持有
+    private final ConcurrentMap<String, BaseGuavaCache<?, ?>> caches = new MapMaker().weakValues().makeMap();
+
+    private final Map<String, ReplayWindow> replayWindows = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private List<Invalidation> pending = new ArrayList<>();
+
+    // guarded by this
+    private ScheduledFuture<?> flushTask = null;
+
+    private final LongAdder publishedCount = new LongAdder();
+
+    private final LongAdder sentBatchCount = new LongAdder();
+
+    private final LongAdder receivedBatchCount = new LongAdder();
+
+    private final LongAdder duplicateBatchCount = new LongAdder();
+
+    private final LongAdder staleBatchCount = new LongAdder();
+
+    private final LongAdder rejectedBatchCount = new LongAdder();
+
+    private final LongAdder appliedCount = new LongAdder();
+
+    /**
+     * 不签名，只应在可信网络中使用
+     */
+    public InvalidationBus(InvalidationTransport transport, long batchWindow, TimeUnit timeUnit, int maxBatchSize)
+            throws IOException {
+        this(transport, batchWindow, timeUnit, maxBatchSize, null);
+    }
+
+    /**
+     * @param transport    消息传输方式，由总线启动和关闭
+     * @param batchWindow  失效消息的合并窗口，<=0表示每条消息立即发送
+     * @param maxBatchSize 每个批次最多包含的失效消息数量，缓冲达到该数量时立即发送
+     * @param secret       各节点共享的HMAC密钥，为null时不签名
+     */
+    public InvalidationBus(InvalidationTransport transport, long batchWindow, TimeUnit timeUnit, int maxBatchSize,
+                           byte[] secret) throws IOException {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize必须大于0");
+        Preconditions.checkArgument(secret == null || secret.length > 0, "secret不能为空");
+        this.transport = Preconditions.checkNotNull(transport);
+        this.secret = secret == null ? null : new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.batchWindowMillis = batchWindow > 0 ? Math.max(1, timeUnit.toMillis(batchWindow)) : 0;
+        this.maxBatchSize = maxBatchSize;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("cache-invalidation-bus-" + senderId.substring(0, 8)).build());
+        transport.start(this::receive);
+    }
+
+    /**
+     * 登记本节点的缓存，同名缓存后登记的覆盖先登记的
+     */
+    void register(BaseGuavaCache<?, ?> cache) {
+        caches.put(cache.getCacheName(), cache);
+    }
+
+    /**
+     * 通知其他节点删除指定缓存中的key
+     *
+     * @throws IllegalArgumentException key不是String、Long或Integer
+     */
+    public void publish(String cacheName, Object key) {
+        Preconditions.checkArgument(key instanceof String || key instanceof Long || key instanceof Integer,
+                "跨节点失效的key只支持String、Long和Integer，当前key类型 = %s", key == null ? null : key.getClass());
+        enqueue(new Invalidation(Preconditions.checkNotNull(cacheName), key));
+    }
+
+    /**
+     * 通知其他节点清空指定缓存
+     */
+    public void publishAll(String cacheName) {
+        enqueue(new Invalidation(Preconditions.checkNotNull(cacheName), null));
+    }
+
+    /**
+     * 立即发送缓冲中的失效消息
+     */
+    public void flush() {
+        List<Invalidation> batch;
+        synchronized (this) {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        send(batch);
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    public long getSentBatchCount() {
+        return sentBatchCount.sum();
+    }
+
+    public long getReceivedBatchCount() {
+        return receivedBatchCount.sum();
+    }
+
+    /**
+     * 因序号重复被丢弃的批次数量
+     */
+    public long getDuplicateBatchCount() {
+        return duplicateBatchCount.sum();
+    }
+
+    /**
+     * 因序号落后于去重窗口被丢弃的批次数量
+     */
+    public long getStaleBatchCount() {
+        return staleBatchCount.sum();
+    }
+
+    /**
+     * 格式错误或签名校验失败被丢弃的批次数量
+     */
+    public long getRejectedBatchCount() {
+        return rejectedBatchCount.sum();
+    }
+
+    /**
+     * 已应用到本节点缓存的失效消息数量
+     */
+    public long getAppliedCount() {
+        return appliedCount.sum();
+    }
+
+    /**
+     * 发送缓冲中剩余的失效消息并关闭传输
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        executor.shutdown();
+        transport.close();
+    }
+
+    private void enqueue(Invalidation invalidation) {
+        publishedCount.increment();
+        List<Invalidation> batch = null;
+        synchronized (this) {
+            pending.add(invalidation);
+            if (batchWindowMillis <= 0 || pending.size() >= maxBatchSize) {
+                if (flushTask != null) {
+                    flushTask.cancel(false);
+                    flushTask = null;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+            } else if (flushTask == null) {
+                flushTask = executor.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * 编码后超过传输层上限的批次对半拆分后分别发送
+     */
+    private void send(List<Invalidation> invalidations) {
+        InvalidationBatch batch = new InvalidationBatch(senderId, sequence.incrementAndGet(), invalidations);
+        try {
+            byte[] payload = encode(batch);
+            if (payload.length > transport.getMaxPayloadBytes() && invalidations.size() > 1) {
+                int half = invalidations.size() / 2;
+                send(invalidations.subList(0, half));
+                send(invalidations.subList(half, invalidations.size()));
+                return;
+            }
+            transport.send(payload);
+            sentBatchCount.increment();
+        } catch (IOException e) {
+            logger.error("发送缓存失效消息时发生异常，batch: " + batch, e);
+        }
+    }
+
+    private void receive(byte[] payload) {
+        InvalidationBatch batch;
+        try {
+            batch = decode(payload);
+        } catch (IOException e) {
+            rejectedBatchCount.increment();
+            logger.warn("丢弃无法识别的缓存失效消息，length: {}，原因: {}", payload.length, e.getMessage());
+            return;
+        }
+        if (senderId.equals(batch.senderId)) {
+            return;
+        }
+        receivedBatchCount.increment();
+        ReplayWindow window = replayWindows.computeIfAbsent(batch.senderId, id -> new ReplayWindow());
+        switch (window.accept(batch.sequence)) {
+            case DUPLICATE:
+                duplicateBatchCount.increment();
+                return;
+            case STALE:
+                staleBatchCount.increment();
+                return;
+            default:
+                executor.execute(() -> apply(batch));
+        }
+    }
+
+    private byte[] encode(InvalidationBatch batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeString(out, batch.senderId);
+        out.writeLong(batch.sequence);
+        out.writeInt(batch.invalidations.size());
+        for (Invalidation invalidation : batch.invalidations) {
+            writeString(out, invalidation.cacheName);
+            Object key = invalidation.key;
+            if (key == null) {
+                out.writeByte(KEY_ALL);
+            } else if (key instanceof String) {
+                out.writeByte(KEY_STRING);
+                writeString(out, (String) key);
+            } else if (key instanceof Long) {
+                out.writeByte(KEY_LONG);
+                out.writeLong((Long) key);
+            } else {
+                out.writeByte(KEY_INTEGER);
+                out.writeInt((Integer) key);
+            }
+        }
+        if (secret != null) {
+            out.write(hmac(bytes.toByteArray(), bytes.size()));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 只按固定格式读取字段，任何长度、类型或签名不符都抛出IOException
+     */
+    private InvalidationBatch decode(byte[] payload) throws IOException {
+        int length = payload.length;
+        if (secret != null) {
+            length -= HMAC_BYTES;
+            if (length < 0 || !MessageDigest.isEqual(hmac(payload, length), Arrays.copyOfRange(payload, length, payload.length))) {
+                throw new IOException("签名校验失败");
+            }
+        }
+        ByteBuffer in = ByteBuffer.wrap(payload, 0, length);
+        try {
+            if (in.getInt() != MAGIC || in.get() != VERSION) {
+                throw new IOException("magic或版本不符");
+            }
+            String senderId = readString(in);
+            long sequence = in.getLong();
+            int count = in.getInt();
+            //每条至少包含缓存名称的长度和key类型
+            if (count < 0 || count > in.remaining() / 5) {
+                throw new IOException("条数不合法: " + count);
+            }
+            List<Invalidation> invalidations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String cacheName = readString(in);
+                byte type = in.get();
+                Object key;
+                switch (type) {
+                    case KEY_ALL:
+                        key = null;
+                        break;
+                    case KEY_STRING:
+                        key = readString(in);
+                        break;
+                    case KEY_LONG:
+                        key = in.getLong();
+                        break;
+                    case KEY_INTEGER:
+                        key = in.getInt();
+                        break;
+                    default:
+                        throw new IOException("未知的key类型: " + type);
+                }
+                invalidations.add(new Invalidation(cacheName, key));
+            }
+            if (in.hasRemaining()) {
+                throw new IOException("消息末尾有多余的" + in.remaining() + "字节");
+            }
+            return new InvalidationBatch(senderId, sequence, invalidations);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("消息被截断");
+        }
+    }
+
+    private byte[] hmac(byte[] bytes, int length) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(bytes, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("无法计算" + HMAC_ALGORITHM, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("字符串长度不合法: " + length);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private void apply(InvalidationBatch batch) {
+        for (Invalidation invalidation : batch.invalidations) {
+            BaseGuavaCache<?, ?> cache = caches.get(invalidation.cacheName);
+            if (cache == null) {
+                continue;
+            }
+            try {
+                if (invalidation.key == null) {
+                    cache.applyRemoteInvalidateAll();
+                } else {
+                    cache.applyRemoteInvalidation(invalidation.key);
+                }
+                appliedCount.increment();
+            } catch (RuntimeException e) {
+                logger.error("应用缓存失效消息时发生异常，invalidation: " + invalidation, e);
+            }
+        }
+    }
+
+    private enum Verdict {
+        ACCEPTED, DUPLICATE, STALE
+    }
+
+    /**
+     * 单个发送方的去重窗口：记录最大序号，以及其前64个序号是否已收到
+     */
+    private static final class ReplayWindow {
+
+        private long highest = 0;
+
+        // 第i位表示序号highest - i是否已收到
+        private long seen = 0;
+
+        synchronized Verdict accept(long seq) {
+            if (seq > highest) {
+                long shift = seq - highest;
+                seen = shift >= REPLAY_WINDOW ? 1L : (seen << shift) | 1L;
+                highest = seq;
+                return Verdict.ACCEPTED;
+            }
+            long offset = highest - seq;
+            if (offset >= REPLAY_WINDOW) {
+                return Verdict.STALE;
+            }
+            long bit = 1L << offset;
+            if ((seen & bit) != 0) {
+                return Verdict.DUPLICATE;
+            }
+            seen |= bit;
+            return Verdict.ACCEPTED;
+        }
+    }
+
+    /**
+     * 单条失效消息，key为null表示清空整个缓存
+     */
+    static final class Invalidation {
+
+        private final String cacheName;
+
+        private final Object key;
+
+        Invalidation(String cacheName, Object key) {
+            this.cacheName = cacheName;
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this).add("cacheName", cacheName).add("key", key).toString();
+        }
+    }
+
+    static final class InvalidationBatch {
+
+        private final String senderId;
+
+        private final long sequence;
+
+        private final List<Invalidation> invalidations;
+
+        InvalidationBatch(String senderId, long sequence, List<Invalidation> invalidations) {
+            this.senderId = senderId;
+            this.sequence = sequence;
+            this.invalidations = ImmutableList.copyOf(invalidations);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this).add("senderId", senderId).add("sequence", sequence)
+                    .add("size", invalidations.size()).toString();
+        }
+    }
+}
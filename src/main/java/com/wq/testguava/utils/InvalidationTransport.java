@@ -0,0 +1,27 @@
+package com.wq.testguava.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * @description: {@link InvalidationBus} 在节点之间传递失效消息的方式。消息已由总线编码为字节数组，
+ * 传输层只负责把字节数组发送给其他节点，可以丢失、重复或乱序（由总线按序号去重），但不能截断或拼接
+ */
+public interface InvalidationTransport extends Closeable {
+
+    /**
+     * 开始接收其他节点的消息，receiver在传输层的接收线程中调用
+     */
+    void start(Consumer<byte[]> receiver) throws IOException;
+
+    /**
+     * 把一条消息发送给其他节点
+     */
+    void send(byte[] payload) throws IOException;
+
+    /**
+     * 单条消息的最大字节数，超过时总线会把批次拆小
+     */
+    int getMaxPayloadBytes();
+}
@@ -0,0 +1,33 @@
+package com.wq.testguava.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * @description: 基于JDK原生序列化的默认实现，对象需要实现 {@link java.io.Serializable}。
+ * 通用但体积和速度都一般，对性能敏感的缓存建议提供自定义的 {@link Serializer}
+ */
+public class JdkSerializer<T> implements Serializer<T> {
+
+    @Override
+    public byte[] serialize(T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T deserialize(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (T) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @description: 堆外二级缓存。值序列化后写入一块固定大小的直接内存（或内存映射文件），容量按字节计算。
+ * 存储区按环形日志的方式顺序追加，写满后从头覆盖，最早写入的entry最先被淘汰（FIFO）。
+ * 只有索引（key、位置、长度）保存在堆上，值本身不占用堆内存，也不参与GC。
+ * 单个存储区最大为2GB；所有方法线程安全，序列化和反序列化在锁外执行。
+ */
+public class OffHeapStore<K, V> {
+
+    /**
+     * 从堆外读取的entry
+     */
+    public static final class Entry<V> {
+
+        private final V value;
+
+        private final long writeMillis;
+
+        Entry(V value, long writeMillis) {
+            this.value = value;
+            this.writeMillis = writeMillis;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * 写入堆外存储的时间
+         */
+        public long getWriteMillis() {
+            return writeMillis;
+        }
+    }
+
+    private static final class Slot<K> {
+
+        final K key;
+
+        final long offset;
+
+        final int length;
+
+        final long writeMillis;
+
+        Slot(K key, long offset, int length, long writeMillis) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.writeMillis = writeMillis;
+        }
+    }
+
+    private final ByteBuffer buffer;
+
+    private final int capacity;
+
+    private final Serializer<V> serializer;
+
+    // 以下字段 guarded by this
+    private final Map<K, Slot<K>> index = new HashMap<>();
+
+    // 按写入顺序排列的所有slot（可能包含已被覆盖或删除的slot）
+    private final ArrayDeque<Slot<K>> log = new ArrayDeque<>();
+
+    // 逻辑写入位置，单调递增，物理位置为 position % capacity
+    private long position = 0;
+
+    private long usedBytes = 0;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    private long evictionCount = 0;
+
+    private long rejectedCount = 0;
+
+    private OffHeapStore(ByteBuffer buffer, Serializer<V> serializer) {
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+        this.serializer = Preconditions.checkNotNull(serializer);
+    }
+
+    /**
+     * 使用直接内存作为存储区
+     */
+    public static <K, V> OffHeapStore<K, V> direct(int capacityBytes, Serializer<V> serializer) {
+        Preconditions.checkArgument(capacityBytes > 0, "capacityBytes必须大于0，当前capacityBytes = %s", capacityBytes);
+        return new OffHeapStore<>(ByteBuffer.allocateDirect(capacityBytes), serializer);
+    }
+
+    /**
+     * 使用内存映射文件作为存储区，由操作系统页缓存管理，进程内存压力大时可以换出到磁盘。
+     * 文件内容仅在当前进程内有效，重启后不会恢复
+     */
+    public static <K, V> OffHeapStore<K, V> mapped(Path file, int capacityBytes, Serializer<V> serializer) throws IOException {
+        Preconditions.checkArgument(capacityBytes > 0, "capacityBytes必须大于0，当前capacityBytes = %s", capacityBytes);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return new OffHeapStore<>(channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes), serializer);
+        }
+    }
+
+    /**
+     * 写入一个值，超过总容量的值会被忽略
+     *
+     * @return 是否写入成功
+     */
+    public boolean put(K key, V value, long writeMillis) throws IOException {
+        byte[] bytes = serializer.serialize(value);
+        synchronized (this) {
+            if (bytes.length > capacity) {
+                rejectedCount++;
+                return false;
+            }
+            long offset = position;
+            //记录不跨越存储区末尾，剩余空间不足时从头开始写
+            if (offset % capacity + bytes.length > capacity) {
+                offset += capacity - offset % capacity;
+            }
+            long end = offset + bytes.length;
+            evictOverwritten(end - capacity);
+
+            ByteBuffer target = buffer.duplicate();
+            target.position((int) (offset % capacity));
+            target.put(bytes);
+            position = end;
+
+            Slot<K> slot = new Slot<>(key, offset, bytes.length, writeMillis);
+            Slot<K> previous = index.put(key, slot);
+            if (previous != null) {
+                usedBytes -= previous.length;
+            }
+            usedBytes += bytes.length;
+            log.addLast(slot);
+            return true;
+        }
+    }
+
+    /**
+     * 读取一个值，不存在时返回null
+     */
+    public Entry<V> get(K key) throws IOException {
+        return read(key, false);
+    }
+
+    /**
+     * 读取并删除一个值（值被提升回一级缓存时使用），不存在时返回null
+     */
+    public Entry<V> remove(K key) throws IOException {
+        return read(key, true);
+    }
+
+    public synchronized void clear() {
+        index.clear();
+        log.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * 存活entry占用的字节数
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getCapacityBytes() {
+        return capacity;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * 因存储区被覆盖而淘汰的entry数量
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 因超过总容量而未能写入的值的数量
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private Entry<V> read(K key, boolean remove) throws IOException {
+        byte[] bytes;
+        long writeMillis;
+        synchronized (this) {
+            Slot<K> slot = remove ? index.remove(key) : index.get(key);
+            if (slot == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            if (remove) {
+                usedBytes -= slot.length;
+            }
+            bytes = new byte[slot.length];
+            ByteBuffer source = buffer.duplicate();
+            source.position((int) (slot.offset % capacity));
+            source.get(bytes);
+            writeMillis = slot.writeMillis;
+        }
+        return new Entry<>(serializer.deserialize(bytes), writeMillis);
+    }
+
+    /**
+     * 淘汰起始位置小于limit的slot（这些位置即将被新写入的数据覆盖）
+     */
+    private void evictOverwritten(long limit) {
+        while (!log.isEmpty() && log.peekFirst().offset < limit) {
+            Slot<K> slot = log.pollFirst();
+            //只有索引仍指向该slot时才是真正的淘汰，否则该slot已被更新或删除
+            if (index.get(slot.key) == slot) {
+                index.remove(slot.key);
+                usedBytes -= slot.length;
+                evictionCount++;
+            }
+        }
+    }
+}
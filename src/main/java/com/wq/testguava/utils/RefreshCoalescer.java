@@ -0,0 +1,281 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 合并后台刷新请求。reload触发的key先进入缓冲区，等待一个短暂的窗口期或缓冲区达到maxPendingKeys后，
+ * 作为一个批次提交到刷新线程池，通过一次批量加载完成，再分别完成每个key各自的Future。
+ * 窗口期到期由定时线程提交的批次在刷新线程池已满时直接放弃（继续返回旧值），不按CALLER_RUNS在定时线程中加载，
+ * 否则一次慢的批量加载会阻塞共用同一定时线程的所有缓存。
+ * 批量加载抛出异常时整个批次的刷新失败，返回结果中缺少某个key时只有该key的刷新失败，两种情况guava都会继续返回旧值。
+ * 统计批次数量、批次大小以及key在缓冲区中的等待时间，用于调整窗口期和批次上限。
+ */
+public class RefreshCoalescer<K, V> {
+
+    /**
+     * 批量加载方法
+     */
+    public interface BatchLoader<K, V> {
+        Map<K, V> loadAll(Collection<K> keys) throws Exception;
+    }
+
+    private static class PendingRefresh<V> {
+
+        final V oldValue;
+
+        final SettableFuture<V> future = SettableFuture.create();
+
+        final long enqueuedNanos = System.nanoTime();
+
+        PendingRefresh(V oldValue) {
+            this.oldValue = oldValue;
+        }
+    }
+
+    private final long windowNanos;
+
+    private final int maxPendingKeys;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final RefreshExecutor executor;
+
+    private final BatchLoader<K, V> loader;
+
+    // guarded by this
+    private Map<K, PendingRefresh<V>> pending = new LinkedHashMap<>();
+
+    // 当前缓冲区的批次号，避免上一批次的定时器提前提交新批次，guarded by this
+    private long generation = 0;
+
+    private final LongAdder batchCount = new LongAdder();
+
+    private final LongAdder sizeTriggeredBatchCount = new LongAdder();
+
+    private final LongAdder discardedBatchCount = new LongAdder();
+
+    private final LongAdder keyCount = new LongAdder();
+
+    private final AtomicLong maxObservedBatchSize = new AtomicLong();
+
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private final LongAdder totalLoadNanos = new LongAdder();
+
+    /**
+     * @param window         窗口期，缓冲区中第一个key到达后最多等待的时间
+     * @param timeUnit       窗口期时间格式
+     * @param maxPendingKeys 缓冲区上限，达到后立即提交，不再等待窗口期结束
+     * @param scheduler      窗口期定时器
+     * @param executor       执行批量加载的刷新线程池
+     * @param loader         批量加载方法
+     */
+    public RefreshCoalescer(long window, TimeUnit timeUnit, int maxPendingKeys, ScheduledExecutorService scheduler,
+                            RefreshExecutor executor, BatchLoader<K, V> loader) {
+        Preconditions.checkArgument(window > 0, "window必须大于0，当前window = %s", window);
+        Preconditions.checkArgument(maxPendingKeys > 0, "maxPendingKeys必须大于0，当前maxPendingKeys = %s", maxPendingKeys);
+        this.windowNanos = timeUnit.toNanos(window);
+        this.maxPendingKeys = maxPendingKeys;
+        this.scheduler = Preconditions.checkNotNull(scheduler);
+        this.executor = Preconditions.checkNotNull(executor);
+        this.loader = Preconditions.checkNotNull(loader);
+    }
+
+    /**
+     * 登记一个需要刷新的key。同一个key在当前批次中只会加载一次
+     */
+    public ListenableFuture<V> refresh(K key, V oldValue) {
+        PendingRefresh<V> refresh;
+        Map<K, PendingRefresh<V>> batch = null;
+        synchronized (this) {
+            refresh = pending.get(key);
+            if (refresh != null) {
+                return refresh.future;
+            }
+            refresh = new PendingRefresh<>(oldValue);
+            pending.put(key, refresh);
+            if (pending.size() >= maxPendingKeys) {
+                batch = swap();
+            } else if (pending.size() == 1) {
+                long current = generation;
+                scheduler.schedule(() -> flush(current), windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (batch != null) {
+            sizeTriggeredBatchCount.increment();
+            dispatch(batch, false);
+        }
+        return refresh.future;
+    }
+
+    /**
+     * 立即提交当前缓冲区中的所有key
+     */
+    public void flush() {
+        Map<K, PendingRefresh<V>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = swap();
+        }
+        dispatch(batch, false);
+    }
+
+    /**
+     * 窗口期到期，在定时线程中执行
+     */
+    private void flush(long expectedGeneration) {
+        Map<K, PendingRefresh<V>> batch;
+        synchronized (this) {
+            if (generation != expectedGeneration || pending.isEmpty()) {
+                return;
+            }
+            batch = swap();
+        }
+        dispatch(batch, true);
+    }
+
+    // guarded by this
+    private Map<K, PendingRefresh<V>> swap() {
+        Map<K, PendingRefresh<V>> batch = pending;
+        pending = new LinkedHashMap<>();
+        generation++;
+        return batch;
+    }
+
+    /**
+     * @param onTimer 是否由定时线程提交，是时刷新线程池已满也不在当前线程中加载
+     */
+    private void dispatch(Map<K, PendingRefresh<V>> batch, boolean onTimer) {
+        batchCount.increment();
+        keyCount.add(batch.size());
+        maxObservedBatchSize.accumulateAndGet(batch.size(), Math::max);
+        long now = System.nanoTime();
+        for (PendingRefresh<V> refresh : batch.values()) {
+            long wait = now - refresh.enqueuedNanos;
+            totalWaitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+        }
+        Runnable task = () -> load(batch);
+        Runnable onDiscard = () -> {
+            discardedBatchCount.increment();
+            for (PendingRefresh<V> refresh : batch.values()) {
+                refresh.future.set(refresh.oldValue);
+            }
+        };
+        if (onTimer) {
+            executor.tryExecute(task, onDiscard);
+        } else {
+            executor.execute(task, onDiscard);
+        }
+    }
+
+    private void load(Map<K, PendingRefresh<V>> batch) {
+        Map<K, V> values;
+        long start = System.nanoTime();
+        try {
+            values = loader.loadAll(batch.keySet());
+        } catch (Throwable t) {
+            for (PendingRefresh<V> refresh : batch.values()) {
+                refresh.future.setException(t);
+            }
+            return;
+        } finally {
+            totalLoadNanos.add(System.nanoTime() - start);
+        }
+        for (Map.Entry<K, PendingRefresh<V>> entry : batch.entrySet()) {
+            V value = values == null ? null : values.get(entry.getKey());
+            if (value != null) {
+                entry.getValue().future.set(value);
+            } else {
+                entry.getValue().future.setException(
+                        new CacheLoader.InvalidCacheLoadException("批量刷新结果中缺少key: " + entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * 当前缓冲区中等待提交的key数量
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 已提交的批次数
+     */
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    /**
+     * 因缓冲区达到maxPendingKeys而提前提交的批次数
+     */
+    public long getSizeTriggeredBatchCount() {
+        return sizeTriggeredBatchCount.sum();
+    }
+
+    /**
+     * 因刷新线程池队列已满而放弃（继续返回旧值）的批次数
+     */
+    public long getDiscardedBatchCount() {
+        return discardedBatchCount.sum();
+    }
+
+    /**
+     * 已提交的key总数
+     */
+    public long getKeyCount() {
+        return keyCount.sum();
+    }
+
+    public long getMaxBatchSize() {
+        return maxObservedBatchSize.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0 : (double) keyCount.sum() / batches;
+    }
+
+    /**
+     * key从进入缓冲区到随批次提交的平均等待时间（毫秒）
+     */
+    public double getAverageWaitMillis() {
+        long keys = keyCount.sum();
+        return keys == 0 ? 0 : totalWaitNanos.sum() / 1e6 / keys;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * 每个批次批量加载的平均耗时（毫秒）
+     */
+    public double getAverageLoadMillis() {
+        long batches = batchCount.sum() - discardedBatchCount.sum();
+        return batches <= 0 ? 0 : totalLoadNanos.sum() / 1e6 / batches;
+    }
+
+    @Override
+    public String toString() {
+        return "RefreshCoalescer{pendingCount=" + getPendingCount() + ", batchCount=" + getBatchCount()
+                + ", averageBatchSize=" + getAverageBatchSize() + ", maxBatchSize=" + getMaxBatchSize()
+                + ", averageWaitMillis=" + getAverageWaitMillis() + ", maxWaitMillis=" + getMaxWaitMillis() + "}";
+    }
+}
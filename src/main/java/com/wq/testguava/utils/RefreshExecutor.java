@@ -0,0 +1,196 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 缓存后台刷新线程池。线程数固定，任务队列有界，队列满时按 {@link OverflowPolicy} 处理，而不是无限堆积。
+ * 每个 {@link BaseGuavaCache} 可以持有独立实例（隔离慢加载器），也可以共用 {@link BaseGuavaCache#refreshPool}。
+ * 对外暴露队列深度、活跃线程数、拒绝次数等指标，用于压测时评估线程池大小。
+ */
+public class RefreshExecutor {
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 放弃本次刷新，继续返回旧值。旧值会被重新写入缓存，因此下一次刷新将顺延一个刷新周期
+         */
+        DISCARD,
+        /**
+         * 在触发刷新的调用线程中同步执行加载（即读请求线程承担本次刷新的耗时）
+         */
+        CALLER_RUNS
+    }
+
+    private final String name;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final ThreadPoolExecutor delegate;
+
+    private final ListeningExecutorService executorService;
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder callerRunsCount = new LongAdder();
+
+    /**
+     * @param name          线程名前缀
+     * @param threads       线程数
+     * @param queueCapacity 等待队列容量
+     * @param overflowPolicy 队列满时的处理策略
+     */
+    public RefreshExecutor(String name, int threads, int queueCapacity, OverflowPolicy overflowPolicy) {
+        Preconditions.checkArgument(threads > 0, "threads必须大于0，当前threads = %s", threads);
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity必须大于0，当前queueCapacity = %s", queueCapacity);
+        this.name = Preconditions.checkNotNull(name);
+        this.overflowPolicy = Preconditions.checkNotNull(overflowPolicy);
+        this.delegate = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-%d").build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executorService = MoreExecutors.listeningDecorator(delegate);
+    }
+
+    /**
+     * 提交一次刷新任务，队列满时按 overflowPolicy 处理
+     *
+     * @param loader   新值的计算方法
+     * @param oldValue 当前缓存的旧值，DISCARD 策略下直接返回
+     */
+    public <V> ListenableFuture<V> submit(Callable<V> loader, V oldValue) {
+        try {
+            return executorService.submit(loader);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            if (overflowPolicy == OverflowPolicy.DISCARD) {
+                return Futures.immediateFuture(oldValue);
+            }
+            callerRunsCount.increment();
+            try {
+                return Futures.immediateFuture(loader.call());
+            } catch (Exception ex) {
+                return Futures.immediateFailedFuture(ex);
+            }
+        }
+    }
+
+    /**
+     * 提交一次没有旧值可以兜底的加载（例如异步读取未命中），队列满时：
+     * DISCARD 策略返回以 RejectedExecutionException 失败的Future，CALLER_RUNS 策略在调用线程中直接加载
+     */
+    public <V> ListenableFuture<V> submit(Callable<V> loader) {
+        try {
+            return executorService.submit(loader);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            if (overflowPolicy == OverflowPolicy.DISCARD) {
+                return Futures.immediateFailedFuture(e);
+            }
+            callerRunsCount.increment();
+            try {
+                return Futures.immediateFuture(loader.call());
+            } catch (Exception ex) {
+                return Futures.immediateFailedFuture(ex);
+            }
+        }
+    }
+
+    /**
+     * 执行一个无返回值的任务（例如批量刷新），队列满时：DISCARD 策略执行 onDiscard，CALLER_RUNS 策略在调用线程中直接执行 task
+     */
+    public void execute(Runnable task, Runnable onDiscard) {
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            if (overflowPolicy == OverflowPolicy.DISCARD) {
+                onDiscard.run();
+                return;
+            }
+            callerRunsCount.increment();
+            task.run();
+        }
+    }
+
+    /**
+     * 执行一个由定时线程触发的任务，队列满时不论 overflowPolicy 都执行 onRejected，
+     * 不在调用线程中执行 task，避免阻塞所有缓存共用的定时线程
+     */
+    public void tryExecute(Runnable task, Runnable onRejected) {
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            onRejected.run();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * 当前排队等待执行的任务数
+     */
+    public int getQueueSize() {
+        return delegate.getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return delegate.getQueue().size() + delegate.getQueue().remainingCapacity();
+    }
+
+    public int getActiveCount() {
+        return delegate.getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return delegate.getPoolSize();
+    }
+
+    public long getCompletedTaskCount() {
+        return delegate.getCompletedTaskCount();
+    }
+
+    /**
+     * 因队列已满被拒绝的任务数（包括随后在调用线程中执行的任务）
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 因队列已满而在调用线程中同步执行的任务数
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.sum();
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{queueSize=" + getQueueSize() + ", activeCount=" + getActiveCount()
+                + ", rejectedCount=" + getRejectedCount() + ", callerRunsCount=" + getCallerRunsCount() + "}";
+    }
+}
@@ -0,0 +1,57 @@
+package com.wq.testguava.utils;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description: 保存在当前web请求属性中的缓存读取结果，每个缓存实例在请求中占一个属性，属性值为一个ConcurrentHashMap，
+ * 请求结束后随请求一起丢弃。命中时只需一次请求属性查找和一次map查找，跳过缓存的热点统计、负缓存检查和guava的分段读，
+ * 一次请求内同一个key最多加载一次并返回一致的值（开销对比见 RequestMemoBenchmark）。
+ * 请求属性可能被请求派生的异步线程共享，因此使用线程安全的map。
+ * 只在持有请求上下文的线程中生效（RequestContextHolder），不在web请求中时不做任何记录
+ */
+final class RequestMemo {
+
+    private static final String ATTRIBUTE_PREFIX = RequestMemo.class.getName() + ".";
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private RequestMemo() {
+    }
+
+    /**
+     * 为一个缓存实例分配请求属性名，不同实例的属性名不同
+     */
+    static String newAttributeName() {
+        return ATTRIBUTE_PREFIX + SEQUENCE.incrementAndGet();
+    }
+
+    /**
+     * 当前请求中attributeName对应的读取结果，不在web请求中时返回null
+     *
+     * @param create 当前请求中还没有记录时是否创建
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> ConcurrentMap<K, V> current(String attributeName, boolean create) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        ConcurrentMap<K, V> memo = (ConcurrentMap<K, V>) attributes.getAttribute(attributeName, RequestAttributes.SCOPE_REQUEST);
+        if (memo == null && create) {
+            //同一请求的多个线程同时创建时保证只有一个map
+            synchronized (attributes) {
+                memo = (ConcurrentMap<K, V>) attributes.getAttribute(attributeName, RequestAttributes.SCOPE_REQUEST);
+                if (memo == null) {
+                    memo = new ConcurrentHashMap<>();
+                    attributes.setAttribute(attributeName, memo, RequestAttributes.SCOPE_REQUEST);
+                }
+            }
+        }
+        return memo;
+    }
+}
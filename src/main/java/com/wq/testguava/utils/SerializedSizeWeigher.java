@@ -0,0 +1,42 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Weigher;
+
+import java.io.IOException;
+
+/**
+ * @description: 按序列化后的字节数估算entry大小的权重计算器，配合 maximumWeight 按字节预算限制缓存容量。
+ * 每次写入缓存都会序列化一次key和value（移除时使用写入时记录的权重，不再序列化），适用于写入频率不高、值大小差异较大的缓存；
+ * 对写入频繁的缓存建议提供基于对象结构的 {@link Weigher}。
+ * 无法序列化的entry按 fallbackWeight 计算
+ */
+public class SerializedSizeWeigher<K, V> implements Weigher<K, V> {
+
+    private final Serializer<K> keySerializer;
+
+    private final Serializer<V> valueSerializer;
+
+    private final int fallbackWeight;
+
+    public SerializedSizeWeigher() {
+        this(new JdkSerializer<>(), new JdkSerializer<>(), 1024);
+    }
+
+    public SerializedSizeWeigher(Serializer<K> keySerializer, Serializer<V> valueSerializer, int fallbackWeight) {
+        Preconditions.checkArgument(fallbackWeight >= 0, "fallbackWeight不能小于0，当前fallbackWeight = %s", fallbackWeight);
+        this.keySerializer = Preconditions.checkNotNull(keySerializer);
+        this.valueSerializer = Preconditions.checkNotNull(valueSerializer);
+        this.fallbackWeight = fallbackWeight;
+    }
+
+    @Override
+    public int weigh(K key, V value) {
+        try {
+            long size = (long) keySerializer.serialize(key).length + valueSerializer.serialize(value).length;
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            return fallbackWeight;
+        }
+    }
+}
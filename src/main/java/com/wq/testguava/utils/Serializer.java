@@ -0,0 +1,13 @@
+package com.wq.testguava.utils;
+
+import java.io.IOException;
+
+/**
+ * @description: 对象与字节数组之间的序列化方法，用于缓存快照等需要把对象写出堆外的场景
+ */
+public interface Serializer<T> {
+
+    byte[] serialize(T value) throws IOException;
+
+    T deserialize(byte[] bytes) throws IOException;
+}
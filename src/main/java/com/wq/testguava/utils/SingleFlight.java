@@ -0,0 +1,90 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 按加载key合并并发的加载请求：同一个flightKey同时只执行一次loader，其他线程等待并共享这次的结果（或异常），
+ * 加载完成后立即移除，之后的请求重新加载（不缓存结果）。
+ * guava只能合并同一个缓存中同一个key的加载，多个缓存（例如按id缓存用户详情和用户权限的两个子类）依赖同一个昂贵的查询时，
+ * 在getValueWhenExpired中通过 {@link BaseGuavaCache#loadShared} 以查询本身作为flightKey，并发未命中时只查询一次。
+ * flightKey需要唯一确定查询及其返回类型；loader中不能再以相同的flightKey调用load，否则会死锁
+ */
+public final class SingleFlight {
+
+    private static final SingleFlight GLOBAL = new SingleFlight();
+
+    private final ConcurrentMap<Object, ListenableFuture<Object>> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder loadCount = new LongAdder();
+
+    private final LongAdder sharedCount = new LongAdder();
+
+    /**
+     * 所有缓存默认共享的实例
+     */
+    public static SingleFlight global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 执行或加入flightKey对应的加载，loader抛出的异常原样抛给所有等待的线程
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(Object flightKey, Callable<? extends T> loader) throws Exception {
+        Preconditions.checkNotNull(flightKey);
+        SettableFuture<Object> future = SettableFuture.create();
+        ListenableFuture<Object> inFlight = flights.putIfAbsent(flightKey, future);
+        if (inFlight == null) {
+            inFlight = future;
+            loadCount.increment();
+            try {
+                future.set(loader.call());
+            } catch (Throwable t) {
+                future.setException(t);
+            } finally {
+                flights.remove(flightKey, future);
+            }
+        } else {
+            sharedCount.increment();
+        }
+        try {
+            return (T) Uninterruptibles.getUninterruptibly(inFlight);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * 实际执行的加载次数
+     */
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    /**
+     * 加入正在进行的加载、没有重复执行loader的次数
+     */
+    public long getSharedCount() {
+        return sharedCount.sum();
+    }
+
+    /**
+     * 正在进行的加载数量
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+}
@@ -0,0 +1,48 @@
+package com.wq.testguava.utils;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description: 限流的错误日志。每个时间间隔内最多输出一条带堆栈的错误日志，其余只计数，
+ * 下一条输出的日志会带上期间省略的条数，避免大量失败请求时每次都打印完整堆栈
+ */
+public class ThrottledLogger {
+
+    private final Logger logger;
+
+    private final long intervalNanos;
+
+    private final AtomicLong nextLogNanos = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public ThrottledLogger(Logger logger, long interval, TimeUnit timeUnit) {
+        this.logger = logger;
+        this.intervalNanos = timeUnit.toNanos(interval);
+    }
+
+    public void error(String message, Throwable t) {
+        long now = System.nanoTime();
+        long next = nextLogNanos.get();
+        if (now - next >= 0 && nextLogNanos.compareAndSet(next, now + intervalNanos)) {
+            long count = suppressed.getAndSet(0);
+            if (count > 0) {
+                logger.error(message + "（此前" + TimeUnit.NANOSECONDS.toSeconds(intervalNanos) + "秒内省略了" + count + "条同类日志）", t);
+            } else {
+                logger.error(message, t);
+            }
+        } else {
+            suppressed.incrementAndGet();
+        }
+    }
+
+    /**
+     * 当前已省略、尚未输出的日志条数
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+}
@@ -0,0 +1,32 @@
+package com.wq.testguava.utils;
+
+/**
+ * @description: TinyLFU准入策略：用 {@link FrequencySketch} 估算近期访问频率，候选key的频率高于受害者时才准入。
+ * 一次性扫描大量冷key时，这些key的频率很低，不会把热点key挤出缓存；而真正变热的新key频率上升后会被正常准入。
+ * 每个缓存使用独立的实例
+ */
+public class TinyLfuAdmission<K> implements AdmissionPolicy<K> {
+
+    private final FrequencySketch<K> sketch;
+
+    /**
+     * @param expectedSize 缓存容量（entry数量），决定sketch的大小和频率衰减周期
+     */
+    public TinyLfuAdmission(long expectedSize) {
+        this.sketch = new FrequencySketch<>(expectedSize);
+    }
+
+    @Override
+    public void record(K key) {
+        sketch.increment(key);
+    }
+
+    @Override
+    public boolean admit(K candidate, K victim) {
+        return sketch.frequency(candidate) > sketch.frequency(victim);
+    }
+
+    public int frequency(K key) {
+        return sketch.frequency(key);
+    }
+}
@@ -0,0 +1,169 @@
+package com.wq.testguava.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * @description: 基于UDP的失效消息传输，每条消息一个数据报。两种方式：
+ * 组播（{@link #multicast}）时所有节点加入同一个组播组，每条消息只发送一次，由网络复制给组内的所有节点；
+ * 单播时逐个发送给配置的节点地址（例如本机回环地址上的不同端口）。
+ * 只接收来自allowedSenders中地址的数据报，其他来源直接丢弃并计数；来源地址可以伪造，跨网络使用时还应为总线配置secret。
+ * UDP不保证送达，丢失的失效消息只能等待缓存自身的刷新或过期，因此仍应为缓存设置合理的刷新周期
+ */
+public class UdpInvalidationTransport implements InvalidationTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(UdpInvalidationTransport.class);
+
+    // IPv4下UDP数据报的最大负载
+    private static final int MAX_DATAGRAM_BYTES = 65507;
+
+    private final DatagramSocket socket;
+
+    private final List<SocketAddress> destinations;
+
+    private final Set<InetAddress> allowedSenders;
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private volatile Thread receiverThread;
+
+    /**
+     * 单播，只接收peers所在主机发来的消息
+     *
+     * @param bindAddress 本节点接收消息的地址，端口为0时使用随机端口（可通过getLocalAddress获取）
+     * @param peers       其他节点的地址
+     */
+    public UdpInvalidationTransport(InetSocketAddress bindAddress, List<InetSocketAddress> peers) throws IOException {
+        this(new DatagramSocket(Preconditions.checkNotNull(bindAddress)), peers,
+                peers.stream().map(InetSocketAddress::getAddress).collect(ImmutableSet.toImmutableSet()));
+    }
+
+    private UdpInvalidationTransport(DatagramSocket socket, List<? extends SocketAddress> destinations,
+                                     Collection<InetAddress> allowedSenders) {
+        this.socket = socket;
+        this.destinations = ImmutableList.copyOf(destinations);
+        this.allowedSenders = ImmutableSet.copyOf(allowedSenders);
+    }
+
+    /**
+     * 在本机回环地址的指定端口上接收消息，只接收本机发来的消息
+     */
+    public static UdpInvalidationTransport loopback(int port, List<? extends SocketAddress> peers) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        return new UdpInvalidationTransport(new DatagramSocket(new InetSocketAddress(loopback, port)), peers,
+                ImmutableSet.of(loopback));
+    }
+
+    /**
+     * 加入组播组，消息发送到组播组
+     *
+     * @param group            组播地址和端口，各节点相同
+     * @param networkInterface 收发组播使用的网卡，单机测试时使用回环网卡
+     * @param timeToLive       组播数据报的TTL，0表示只在本机内传递
+     * @param allowedSenders   各节点的地址
+     */
+    public static UdpInvalidationTransport multicast(InetSocketAddress group, NetworkInterface networkInterface,
+                                                     int timeToLive, Collection<InetAddress> allowedSenders)
+            throws IOException {
+        Preconditions.checkArgument(group.getAddress().isMulticastAddress(), "不是组播地址: %s", group);
+        MulticastSocket socket = new MulticastSocket(group.getPort());
+        try {
+            socket.setNetworkInterface(networkInterface);
+            socket.setTimeToLive(timeToLive);
+            //同一台机器上的其他节点也要收到
+            socket.setLoopbackMode(false);
+            socket.joinGroup(group, networkInterface);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new UdpInvalidationTransport(socket, ImmutableList.of(group), allowedSenders);
+    }
+
+    /**
+     * 在本机回环网卡上加入组播组，只接收本机发来的消息
+     */
+    public static UdpInvalidationTransport loopbackMulticast(InetSocketAddress group) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        return multicast(group, NetworkInterface.getByInetAddress(loopback), 0, ImmutableSet.of(loopback));
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /**
+     * 来源地址不在allowedSenders中被丢弃的数据报数量
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public synchronized void start(Consumer<byte[]> receiver) {
+        Preconditions.checkState(receiverThread == null, "传输已启动");
+        receiverThread = new Thread(() -> receive(receiver), "cache-invalidation-udp-" + getLocalAddress().getPort());
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+    }
+
+    @Override
+    public void send(byte[] payload) throws IOException {
+        Preconditions.checkArgument(payload.length <= MAX_DATAGRAM_BYTES, "消息超过UDP数据报上限，length = %s", payload.length);
+        for (SocketAddress destination : destinations) {
+            socket.send(new DatagramPacket(payload, payload.length, destination));
+        }
+    }
+
+    @Override
+    public int getMaxPayloadBytes() {
+        return MAX_DATAGRAM_BYTES;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    private void receive(Consumer<byte[]> receiver) {
+        byte[] buffer = new byte[MAX_DATAGRAM_BYTES];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    logger.error("接收缓存失效消息时发生异常，address: " + getLocalAddress(), e);
+                }
+                continue;
+            }
+            if (!allowedSenders.contains(packet.getAddress())) {
+                rejectedCount.increment();
+                continue;
+            }
+            try {
+                receiver.accept(Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength()));
+            } catch (RuntimeException e) {
+                logger.error("处理缓存失效消息时发生异常，from: " + packet.getSocketAddress(), e);
+            }
+        }
+    }
+}
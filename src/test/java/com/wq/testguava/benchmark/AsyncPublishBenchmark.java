@@ -0,0 +1,86 @@
+package com.wq.testguava.benchmark;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.wq.testguava.envntBus.EventBusTest;
+import com.wq.testguava.envntBus.FastEventBus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 异步总线上发布线程调用一次post的耗时，订阅方法在单独的线程中执行，每个事件消耗work个CPU单位。
+ * work为0时订阅方法跟得上发布速度，post只是入队并在需要时提交一次排空任务；work较大时订阅方法远慢于发布线程，队列很快被填满，
+ * 此后 DROP 的post只是丢弃事件并计数，耗时与订阅方法的速度无关；BLOCK 的post要等待队列腾出空间，耗时接近订阅方法处理一个事件的时间，
+ * 这是背压的预期行为而不是分发开销。结束时打印发布、处理、丢弃的事件数和发布线程的等待时间。
+ * 运行方式：mvn -Pbenchmark exec:java -Dbenchmark.threads=1 -Dbenchmark.include=.*AsyncPublishBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncPublishBenchmark {
+
+    @Param({"0", "100000"})
+    public long work;
+
+    @Param({"DROP", "BLOCK"})
+    public FastEventBus.BackPressure backPressure;
+
+    private ExecutorService executor;
+
+    private FastEventBus bus;
+
+    private final EventBusTest.Event1 event = new EventBusTest.Event1("benchmark");
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        bus = new FastEventBus("benchmark", executor, 1024, 64, backPressure);
+        bus.register(new SlowListener(work));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println("posted = " + bus.getPostedCount() + ", delivered = " + bus.getDeliveredCount()
+                + ", dropped = " + bus.getDroppedCount() + ", blockedMillis = " + bus.getBlockedMillis());
+        MoreExecutors.shutdownAndAwaitTermination(executor, 1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public void post() {
+        bus.post(event);
+    }
+
+    public static class SlowListener {
+
+        private final long work;
+
+        SlowListener(long work) {
+            this.work = work;
+        }
+
+        @Subscribe
+        public void listen(EventBusTest.Event1 event1) {
+            Blackhole.consumeCPU(work);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.wq.testguava.benchmark;
+
+import com.wq.testguava.utils.BaseGuavaCache;
+import com.wq.testguava.utils.GuavaCacheSpec;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @description: 基准测试使用的缓存，加载时消耗固定数量的CPU（模拟回源耗时）后返回key本身
+ */
+public class BenchmarkCache extends BaseGuavaCache<Integer, Integer> {
+
+    private final long loadTokens;
+
+    /**
+     * @param loadTokens 每次加载消耗的CPU，单位见 {@link Blackhole#consumeCPU(long)}
+     */
+    public BenchmarkCache(GuavaCacheSpec<Integer, Integer> spec, long loadTokens) {
+        super(spec);
+        this.loadTokens = loadTokens;
+    }
+
+    @Override
+    public void loadValueWhenStarted() {
+    }
+
+    @Override
+    protected Integer getValueWhenExpired(Integer key) {
+        if (loadTokens > 0) {
+            Blackhole.consumeCPU(loadTokens);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,79 @@
+package com.wq.testguava.benchmark;
+
+import com.google.common.base.Splitter;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @description: 依次以每个线程数运行基准测试，所有结果合并写入一个JSON文件（JMH标准格式，每条结果包含threads、params和score），
+ * 便于在不同版本之间对比。通过系统属性配置：
+ * benchmark.threads 逗号分隔的线程数，默认 1,2,4,8,16,32,64；
+ * benchmark.include 需要运行的基准测试（正则），默认本包下全部；
+ * benchmark.result 结果文件，默认 target/jmh-result.json。
+ * 其余命令行参数按JMH的格式解析（例如 -wi 1 -i 1 -f 1 -p concurrencyLevel=4）。
+ * 运行方式：mvn -Pbenchmark test-compile exec:java -Dbenchmark.threads=1,8 -Dexec.args="-f 1"
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        exposeClasspathToForks();
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        String include = System.getProperty("benchmark.include", BenchmarkRunner.class.getPackage().getName() + ".*");
+        Path resultFile = Paths.get(System.getProperty("benchmark.result", "target/jmh-result.json"));
+
+        List<RunResult> results = new ArrayList<>();
+        for (String threads : Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(System.getProperty("benchmark.threads", "1,2,4,8,16,32,64"))) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .include(include)
+                    .threads(Integer.parseInt(threads))
+                    .build();
+            results.addAll(new Runner(options).run());
+        }
+
+        Path parent = resultFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(resultFile), false, "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("基准测试结果已写入 " + resultFile.toAbsolutePath());
+    }
+
+    /**
+     * JMH按java.class.path启动fork出的JVM，通过exec:java运行时该属性是maven自身的classpath，
+     * 这里替换为项目（test scope）的classpath，否则fork出的JVM找不到ForkedMain和基准测试类
+     */
+    private static void exposeClasspathToForks() throws URISyntaxException {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (!(classLoader instanceof URLClassLoader)) {
+            return;
+        }
+        List<String> entries = new ArrayList<>();
+        for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+            entries.add(Paths.get(url.toURI()).toString());
+        }
+        System.setProperty("java.class.path", String.join(File.pathSeparator, entries));
+    }
+}
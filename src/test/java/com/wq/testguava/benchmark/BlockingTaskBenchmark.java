@@ -0,0 +1,79 @@
+package com.wq.testguava.benchmark;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.wq.testguava.concurrent.BlockingTaskExecutors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 同时提交tasks个阻塞任务（每个sleep blockMillis，模拟远程调用）并等待全部完成的耗时，
+ * 对比普通线程池（platformThreads个线程）和每个任务一个虚拟线程。普通线程池的耗时约为 tasks / platformThreads * blockMillis，
+ * 虚拟线程的耗时接近单个任务的耗时，直到调度和内存开销成为瓶颈。
+ * VIRTUAL需要在JDK 21及以上运行，低版本JDK上该组参数在setUp时失败并被跳过。
+ * 项目使用的lombok版本不能在JDK 21上编译，需要先用JDK 8执行 mvn test-compile，再切换到JDK 21以单线程运行：
+ * mvn -Pbenchmark exec:java -Dbenchmark.threads=1 -Dbenchmark.include=.*BlockingTaskBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockingTaskBenchmark {
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public BlockingTaskExecutors.Mode mode;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int tasks;
+
+    @Param({"200"})
+    public int platformThreads;
+
+    @Param({"10"})
+    public long blockMillis;
+
+    private ListeningExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = BlockingTaskExecutors.create(mode, "blocking-benchmark", platformThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MoreExecutors.shutdownAndAwaitTermination(executor, 1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public void runAll() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(blockMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+}
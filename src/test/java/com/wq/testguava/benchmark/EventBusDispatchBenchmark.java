@@ -0,0 +1,110 @@
+package com.wq.testguava.benchmark;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.wq.testguava.envntBus.EventBusTest;
+import com.wq.testguava.envntBus.FastEventBus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 同步分发一个事件的耗时，事件类型与订阅方式与EventBusTest相同（Event1同时匹配listen(Event1)和listen(Event)）。
+ * guavaEventBus 为guava默认的EventBus：每次post遍历事件类的继承层次，通过Method.invoke调用，每个订阅方法加锁；
+ * fastEventBus 使用预先计算的分发表和生成的调用器，executor为directExecutor，即在发布线程中经过队列立即处理；
+ * fastEventBusReflective 的订阅方法所在类不是public，只能退化为MethodHandle调用，用来区分分发表和调用器各自的收益。
+ * 运行方式：mvn -Pbenchmark exec:java -Dbenchmark.threads=1 -Dbenchmark.include=.*EventBusDispatchBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventBusDispatchBenchmark {
+
+    private EventBus guavaEventBus;
+
+    private FastEventBus fastEventBus;
+
+    private FastEventBus fastEventBusReflective;
+
+    private final EventBusTest.Event1 event = new EventBusTest.Event1("benchmark");
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        guavaEventBus = new EventBus("guava");
+        guavaEventBus.register(new Listener(blackhole));
+
+        fastEventBus = new FastEventBus("fast", MoreExecutors.directExecutor(), 1024, 64, FastEventBus.BackPressure.BLOCK);
+        fastEventBus.register(new Listener(blackhole));
+
+        fastEventBusReflective = new FastEventBus("reflective", MoreExecutors.directExecutor(), 1024, 64,
+                FastEventBus.BackPressure.BLOCK);
+        fastEventBusReflective.register(new HiddenListener(blackhole));
+    }
+
+    @Benchmark
+    public void guavaEventBus() {
+        guavaEventBus.post(event);
+    }
+
+    @Benchmark
+    public void fastEventBus() {
+        fastEventBus.post(event);
+    }
+
+    @Benchmark
+    public void fastEventBusReflective() {
+        fastEventBusReflective.post(event);
+    }
+
+    public static class Listener {
+
+        private final Blackhole blackhole;
+
+        Listener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Subscribe
+        public void listen(EventBusTest.Event1 event1) {
+            blackhole.consume(event1);
+        }
+
+        @Subscribe
+        public void listen(EventBusTest.Event event) {
+            blackhole.consume(event);
+        }
+    }
+
+    static class HiddenListener {
+
+        private final Blackhole blackhole;
+
+        HiddenListener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Subscribe
+        public void listen(EventBusTest.Event1 event1) {
+            blackhole.consume(event1);
+        }
+
+        @Subscribe
+        public void listen(EventBusTest.Event event) {
+            blackhole.consume(event);
+        }
+    }
+}
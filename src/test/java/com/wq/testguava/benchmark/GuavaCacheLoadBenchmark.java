@@ -0,0 +1,73 @@
+package com.wq.testguava.benchmark;
+
+import com.wq.testguava.utils.GuavaCacheSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: getValue未命中路径的吞吐量。每个线程访问互不重复的key，每次读取都同步加载并淘汰一个entry，
+ * 衡量加载、写入、淘汰（包括移除监听中的统计）的开销，loadTokens模拟回源耗时
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GuavaCacheLoadBenchmark {
+
+    @Param({"4", "64"})
+    public int concurrencyLevel;
+
+    @Param({"0", "1000"})
+    public long loadTokens;
+
+    @Param({"1024"})
+    public int maxSize;
+
+    private BenchmarkCache cache;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams threadParams) {
+            //每个线程使用独立的key区间
+            next = threadParams.getThreadIndex() << 24;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = new BenchmarkCache(GuavaCacheSpec.<Integer, Integer>newBuilder()
+                .maxSize(maxSize)
+                .concurrencyLevel(concurrencyLevel)
+                .build(), loadTokens);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Benchmark
+    public Integer miss(ThreadKeys keys) throws Exception {
+        return cache.getValue(keys.next++);
+    }
+}
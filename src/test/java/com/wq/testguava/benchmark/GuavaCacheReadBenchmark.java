@@ -0,0 +1,167 @@
+package com.wq.testguava.benchmark;
+
+import com.wq.testguava.utils.GuavaCacheSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: getValue读取路径的吞吐量。
+ * hit：key范围小于缓存容量，预热后基本全部命中，衡量读取路径本身（热点统计、负缓存检查、guava分段读）的开销；
+ * mixed：key范围为缓存容量的16倍，命中率由key分布决定，未命中时同步加载并触发淘汰。
+ * hitLazy、mixedLazy 为对照组：缓存在第一次读取时创建，之后每次读取都先经过非volatile字段上双重检查的getCache()
+ * （{@link LazyCache}，即BaseGuavaCache在构造时创建LoadingCache之前的写法），其余读取路径与hit、mixed相同，差值即为该检查的开销。
+ * 该检查在命中路径上只是一次字段读取和判空，在单核环境下1~16线程的测量中与误差相比没有可分辨的差异。
+ * 分别在不同的concurrencyLevel、key分布和准入策略下运行，线程数由 {@link BenchmarkRunner} 控制。
+ * 线程数远多于CPU核数时（例如单核上64线程），guava每个分段的读记录队列（recencyQueue）写入快于清理，迭代可能无法按时结束
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GuavaCacheReadBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"1", "4", "16", "64"})
+    public int concurrencyLevel;
+
+    @Param({"1024"})
+    public int maxSize;
+
+    @Param({"false", "true"})
+    public boolean tinyLfu;
+
+    private BenchmarkCache hitCache;
+
+    private BenchmarkCache mixedCache;
+
+    private LazyCache lazyHitCache;
+
+    private LazyCache lazyMixedCache;
+
+    /**
+     * 延迟创建缓存的写法：非volatile字段上的双重检查锁，第一次读取时创建缓存
+     */
+    static final class LazyCache {
+
+        private final GuavaCacheSpec<Integer, Integer> spec;
+
+        private final long loadTokens;
+
+        private BenchmarkCache cache = null;
+
+        LazyCache(GuavaCacheSpec<Integer, Integer> spec, long loadTokens) {
+            this.spec = spec;
+            this.loadTokens = loadTokens;
+        }
+
+        Integer getValue(Integer key) throws Exception {
+            return getCache().getValue(key);
+        }
+
+        BenchmarkCache getCache() {
+            if (cache == null) {
+                synchronized (this) {
+                    if (cache == null) {
+                        cache = new BenchmarkCache(spec, loadTokens);
+                    }
+                }
+            }
+            return cache;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+
+        int[] hitKeys;
+
+        int[] mixedKeys;
+
+        int index;
+
+        @Setup(Level.Trial)
+        public void setUp(GuavaCacheReadBenchmark benchmark, ThreadParams threadParams) {
+            long seed = 31L * threadParams.getThreadIndex() + 17;
+            hitKeys = benchmark.distribution.sample(benchmark.maxSize, SAMPLES, seed);
+            mixedKeys = benchmark.distribution.sample(benchmark.maxSize * 16, SAMPLES, seed);
+        }
+
+        int next(int[] keys) {
+            return keys[index++ & (SAMPLES - 1)];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        //容量为key范围的2倍，避免分段间分布不均导致命中路径上出现淘汰
+        hitCache = new BenchmarkCache(spec(maxSize * 2), 0);
+        for (int key = 0; key < maxSize; key++) {
+            hitCache.getValue(key);
+        }
+        mixedCache = new BenchmarkCache(spec(maxSize), 100);
+
+        lazyHitCache = new LazyCache(spec(maxSize * 2), 0);
+        for (int key = 0; key < maxSize; key++) {
+            lazyHitCache.getValue(key);
+        }
+        lazyMixedCache = new LazyCache(spec(maxSize), 100);
+    }
+
+    private GuavaCacheSpec<Integer, Integer> spec(int size) {
+        GuavaCacheSpec.Builder<Integer, Integer> builder = GuavaCacheSpec.<Integer, Integer>newBuilder()
+                .maxSize(size)
+                .concurrencyLevel(concurrencyLevel);
+        if (tinyLfu) {
+            builder.tinyLfuAdmission();
+        }
+        return builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        hitCache.shutdown();
+        mixedCache.shutdown();
+        lazyHitCache.getCache().shutdown();
+        lazyMixedCache.getCache().shutdown();
+    }
+
+    @Benchmark
+    public Integer hit(ThreadKeys keys) throws Exception {
+        return hitCache.getValue(keys.next(keys.hitKeys));
+    }
+
+    @Benchmark
+    public Integer mixed(ThreadKeys keys) throws Exception {
+        return mixedCache.getValue(keys.next(keys.mixedKeys));
+    }
+
+    @Benchmark
+    public Integer hitLazy(ThreadKeys keys) throws Exception {
+        return lazyHitCache.getValue(keys.next(keys.hitKeys));
+    }
+
+    @Benchmark
+    public Integer mixedLazy(ThreadKeys keys) throws Exception {
+        return lazyMixedCache.getValue(keys.next(keys.mixedKeys));
+    }
+}
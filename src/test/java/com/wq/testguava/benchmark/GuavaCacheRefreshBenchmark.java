@@ -0,0 +1,90 @@
+package com.wq.testguava.benchmark;
+
+import com.wq.testguava.utils.GuavaCacheSpec;
+import com.wq.testguava.utils.RefreshExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 后台刷新对并发读的影响。所有key都已在缓存中，refreshMillis > 0 时entry很快到达刷新时间，
+ * 读请求持续触发reload，刷新任务在独立的刷新线程池中执行（队列满时放弃刷新）。
+ * 与 refreshMillis = 0（不刷新）对比，衡量触发刷新、提交任务以及刷新结果写回对读吞吐量的影响
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GuavaCacheRefreshBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"0", "1", "100"})
+    public int refreshMillis;
+
+    @Param({"1000"})
+    public long loadTokens;
+
+    @Param({"1024"})
+    public int maxSize;
+
+    private RefreshExecutor refreshExecutor;
+
+    private BenchmarkCache cache;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+
+        int[] keys;
+
+        int index;
+
+        @Setup(Level.Trial)
+        public void setUp(GuavaCacheRefreshBenchmark benchmark, ThreadParams threadParams) {
+            keys = KeyDistribution.ZIPFIAN.sample(benchmark.maxSize, SAMPLES, 31L * threadParams.getThreadIndex() + 17);
+        }
+
+        int next() {
+            return keys[index++ & (SAMPLES - 1)];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        refreshExecutor = new RefreshExecutor("benchmark-refresh", 4, 1000, RefreshExecutor.OverflowPolicy.DISCARD);
+        cache = new BenchmarkCache(GuavaCacheSpec.<Integer, Integer>newBuilder()
+                .maxSize(maxSize * 2)
+                .refreshAfterWrite(refreshMillis, TimeUnit.MILLISECONDS)
+                .refreshExecutor(refreshExecutor)
+                .build(), loadTokens);
+        for (int key = 0; key < maxSize; key++) {
+            cache.getValue(key);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.shutdown();
+        refreshExecutor.shutdown();
+    }
+
+    @Benchmark
+    public Integer read(ThreadKeys keys) throws Exception {
+        return cache.getValue(keys.next());
+    }
+}
@@ -0,0 +1,126 @@
+package com.wq.testguava.benchmark;
+
+import com.google.common.base.Splitter;
+import com.wq.testguava.utils.GuavaCacheSpec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 单线程回放访问序列，对比guava分段LRU与TinyLFU准入在不同缓存容量下的命中率。命中率与线程数无关，因此不使用JMH。
+ * 合成序列：zipfian（Zipf分布）、zipfian+scan（Zipf分布的访问中每隔一段插入一次性的顺序扫描）、uniform（均匀分布，作为对照）；
+ * 录制序列：通过系统属性 benchmark.traces 指定，逗号分隔的文件路径，每行一个key（例如从访问日志中提取的缓存key）。
+ * 结果打印到控制台并写入 benchmark.result（默认 target/hit-rate.json）。
+ * 运行方式：mvn -Pbenchmark test-compile exec:java -Dbenchmark.mainClass=com.wq.testguava.benchmark.HitRateSimulation
+ */
+public final class HitRateSimulation {
+
+    private static final int KEY_SPACE = 100_000;
+
+    private static final int TRACE_LENGTH = 2_000_000;
+
+    private static final int[] MAX_SIZES = {100, 1_000, 10_000};
+
+    private HitRateSimulation() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, int[]> traces = new LinkedHashMap<>();
+        traces.put("zipfian", KeyDistribution.ZIPFIAN.sample(KEY_SPACE, TRACE_LENGTH, 1));
+        traces.put("zipfian+scan", withScans(KeyDistribution.ZIPFIAN.sample(KEY_SPACE, TRACE_LENGTH, 1)));
+        traces.put("uniform", KeyDistribution.UNIFORM.sample(KEY_SPACE, TRACE_LENGTH, 1));
+        for (String file : Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(System.getProperty("benchmark.traces", ""))) {
+            traces.put(file, readTrace(Paths.get(file)));
+        }
+
+        List<String> rows = new ArrayList<>();
+        System.out.printf("%-40s %10s %10s %10s%n", "trace", "maxSize", "lru", "tinyLfu");
+        for (Map.Entry<String, int[]> trace : traces.entrySet()) {
+            for (int maxSize : MAX_SIZES) {
+                double lru = replay(trace.getValue(), maxSize, false);
+                double tinyLfu = replay(trace.getValue(), maxSize, true);
+                System.out.printf("%-40s %10d %10.4f %10.4f%n", trace.getKey(), maxSize, lru, tinyLfu);
+                rows.add(String.format("{\"trace\":\"%s\",\"maxSize\":%d,\"lru\":%.6f,\"tinyLfu\":%.6f}",
+                        trace.getKey().replace("\\", "\\\\").replace("\"", "\\\""), maxSize, lru, tinyLfu));
+            }
+        }
+
+        Path resultFile = Paths.get(System.getProperty("benchmark.result", "target/hit-rate.json"));
+        Path parent = resultFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(resultFile), false, "UTF-8")) {
+            out.println("[" + String.join(",\n", rows) + "]");
+        }
+        System.out.println("命中率结果已写入 " + resultFile.toAbsolutePath());
+    }
+
+    private static double replay(int[] trace, int maxSize, boolean tinyLfu) throws Exception {
+        GuavaCacheSpec.Builder<Integer, Integer> builder = GuavaCacheSpec.<Integer, Integer>newBuilder()
+                .maxSize(maxSize)
+                .refreshAfterWrite(-1, TimeUnit.MINUTES);
+        if (tinyLfu) {
+            builder.tinyLfuAdmission();
+        }
+        BenchmarkCache cache = new BenchmarkCache(builder.build(), 0);
+        try {
+            for (int key : trace) {
+                cache.getValue(key);
+            }
+            return cache.getStats().getHitRate();
+        } finally {
+            cache.shutdown();
+        }
+    }
+
+    /**
+     * 每隔20000次访问插入一段长度为5000的顺序扫描，扫描的key不在Zipf序列的key范围内，只会被访问一次
+     */
+    private static int[] withScans(int[] trace) {
+        int period = 20_000;
+        int scanLength = 5_000;
+        int[] result = new int[trace.length + trace.length / period * scanLength];
+        int next = KEY_SPACE;
+        int position = 0;
+        for (int i = 0; i < trace.length; i++) {
+            result[position++] = trace[i];
+            if ((i + 1) % period == 0) {
+                for (int j = 0; j < scanLength; j++) {
+                    result[position++] = next++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取录制的访问序列，每行一个key，key按出现顺序映射为整数
+     */
+    private static int[] readTrace(Path file) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<Integer> keys = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    keys.add(ids.computeIfAbsent(line, k -> ids.size()));
+                }
+            }
+        }
+        return keys.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
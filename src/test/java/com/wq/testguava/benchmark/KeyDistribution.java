@@ -0,0 +1,69 @@
+package com.wq.testguava.benchmark;
+
+import java.util.Random;
+
+/**
+ * @description: 基准测试的key分布。预先生成固定长度的key序列，测量阶段只做数组下标访问，避免随机数生成计入耗时
+ */
+public enum KeyDistribution {
+
+    /**
+     * 所有key被访问的概率相同
+     */
+    UNIFORM {
+        @Override
+        int[] sample(int keySpace, int length, long seed) {
+            Random random = new Random(seed);
+            int[] keys = new int[length];
+            for (int i = 0; i < length; i++) {
+                keys[i] = random.nextInt(keySpace);
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * Zipf分布（theta = 0.99，与YCSB相同），少量热点key占大部分访问
+     */
+    ZIPFIAN {
+        @Override
+        int[] sample(int keySpace, int length, long seed) {
+            double theta = 0.99;
+            double zetaN = zeta(keySpace, theta);
+            double alpha = 1 / (1 - theta);
+            double eta = (1 - Math.pow(2.0 / keySpace, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+            Random random = new Random(seed);
+            int[] keys = new int[length];
+            for (int i = 0; i < length; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetaN;
+                int key;
+                if (uz < 1) {
+                    key = 0;
+                } else if (uz < 1 + Math.pow(0.5, theta)) {
+                    key = 1;
+                } else {
+                    key = (int) (keySpace * Math.pow(eta * u - eta + 1, alpha));
+                }
+                //打散热点key，避免热点集中在相邻的key（以及guava的同一个分段）上
+                keys[i] = Math.floorMod(key * 0x9E3779B1, keySpace);
+            }
+            return keys;
+        }
+    };
+
+    /**
+     * @param keySpace key的取值范围 [0, keySpace)
+     * @param length   序列长度
+     * @param seed     随机种子，不同线程使用不同的种子
+     */
+    abstract int[] sample(int keySpace, int length, long seed);
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
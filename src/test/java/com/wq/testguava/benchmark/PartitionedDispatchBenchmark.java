@@ -0,0 +1,120 @@
+package com.wq.testguava.benchmark;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.eventbus.Subscribe;
+import com.wq.testguava.envntBus.EventBusTest;
+import com.wq.testguava.envntBus.FastEventBus;
+import com.wq.testguava.envntBus.PartitionedSubscribe;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 发布events个Event1（message为key，共keys个不同的key）并等待全部处理完的耗时，每个事件在订阅方法中消耗work个CPU单位。
+ * SERIAL 为普通的 @Subscribe，同一订阅方法串行处理所有事件，与guava默认的订阅方法锁相同；
+ * PARTITIONED 为 @PartitionedSubscribe，按message分配到CPU核数个通道，同一key仍按发布顺序处理。
+ * 线程池大小为CPU核数，SERIAL的耗时与核数无关，PARTITIONED随核数增加而下降，直到发布线程成为瓶颈。
+ * 运行方式：mvn -Pbenchmark exec:java -Dbenchmark.threads=1 -Dbenchmark.include=.*PartitionedDispatchBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PartitionedDispatchBenchmark {
+
+    public enum DispatchMode {
+        SERIAL, PARTITIONED
+    }
+
+    @Param({"SERIAL", "PARTITIONED"})
+    public DispatchMode mode;
+
+    @Param({"10000"})
+    public int events;
+
+    @Param({"1024"})
+    public int keys;
+
+    @Param({"1000"})
+    public long work;
+
+    private ExecutorService executor;
+
+    private FastEventBus bus;
+
+    private EventBusTest.Event1[] prepared;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        bus = new FastEventBus("benchmark", executor, 4096, 64, FastEventBus.BackPressure.BLOCK);
+        bus.register(mode == DispatchMode.SERIAL ? new SerialListener(work) : new PartitionedListener(work));
+        prepared = new EventBusTest.Event1[events];
+        for (int i = 0; i < events; i++) {
+            prepared[i] = new EventBusTest.Event1("order-" + i % keys);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        bus.getLaneStats().forEach((subscriber, lanes) -> lanes.forEach(System.out::println));
+        MoreExecutors.shutdownAndAwaitTermination(executor, 1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public void postAndDrain() {
+        long target = bus.getDeliveredCount() + events;
+        for (EventBusTest.Event1 event : prepared) {
+            bus.post(event);
+        }
+        while (bus.getDeliveredCount() < target) {
+            Thread.yield();
+        }
+    }
+
+    public static class SerialListener {
+
+        private final long work;
+
+        SerialListener(long work) {
+            this.work = work;
+        }
+
+        @Subscribe
+        public void listen(EventBusTest.Event1 event1) {
+            Blackhole.consumeCPU(work);
+        }
+    }
+
+    public static class PartitionedListener {
+
+        private final long work;
+
+        PartitionedListener(long work) {
+            this.work = work;
+        }
+
+        @PartitionedSubscribe(key = "getMessage")
+        public void listen(EventBusTest.Event1 event1) {
+            Blackhole.consumeCPU(work);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.wq.testguava.benchmark;
+
+import com.wq.testguava.utils.GuavaCacheSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description: 一次web请求内重复读取同一批key时requestMemo的开销。
+ * cache：未开启requestMemo，每次读取都经过热点统计、负缓存检查和guava的分段读；
+ * memo：开启requestMemo，每个线程持有一个请求上下文，预热后所有读取都从请求属性中的map返回。
+ * 两者使用相同的key序列且全部命中
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestMemoBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    @Param({"64"})
+    public int keysPerRequest;
+
+    private BenchmarkCache cache;
+
+    private BenchmarkCache memoCache;
+
+    @State(Scope.Thread)
+    public static class ThreadRequest {
+
+        int[] keys;
+
+        int index;
+
+        @Setup(Level.Trial)
+        public void setUp(RequestMemoBenchmark benchmark, ThreadParams threadParams) {
+            keys = benchmark.distribution.sample(benchmark.keysPerRequest, SAMPLES, 31L * threadParams.getThreadIndex() + 17);
+            //Thread范围的Setup在执行基准测试的线程中运行
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            RequestContextHolder.resetRequestAttributes();
+        }
+
+        int next() {
+            return keys[index++ & (SAMPLES - 1)];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        cache = new BenchmarkCache(spec(false), 0);
+        memoCache = new BenchmarkCache(spec(true), 0);
+        for (int key = 0; key < keysPerRequest; key++) {
+            cache.getValue(key);
+            memoCache.getValue(key);
+        }
+    }
+
+    private GuavaCacheSpec<Integer, Integer> spec(boolean requestMemo) {
+        return GuavaCacheSpec.<Integer, Integer>newBuilder()
+                .maxSize(keysPerRequest * 2)
+                .requestMemo(requestMemo)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.shutdown();
+        memoCache.shutdown();
+    }
+
+    @Benchmark
+    public Integer cache(ThreadRequest request) throws Exception {
+        return cache.getValue(request.next());
+    }
+
+    @Benchmark
+    public Integer memo(ThreadRequest request) throws Exception {
+        return memoCache.getValue(request.next());
+    }
+}
@@ -0,0 +1,50 @@
+package com.wq.testguava.concurrent;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockingTaskExecutorsTests {
+
+    @Test
+    public void autoUsesVirtualThreadsOnlyWhenSupported() throws Exception {
+        ListeningExecutorService executor = BlockingTaskExecutors.create(BlockingTaskExecutors.Mode.AUTO, "test-auto", 2);
+        try {
+            String threadName = executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+            assertTrue(threadName, threadName.startsWith("test-auto-"));
+            boolean virtual = executor.submit(() -> Thread.currentThread().toString().startsWith("VirtualThread"))
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals(BlockingTaskExecutors.isVirtualThreadSupported(), virtual);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualModeFailsFastWhenUnsupported() {
+        try {
+            BlockingTaskExecutors.create(BlockingTaskExecutors.Mode.VIRTUAL, "test-virtual", 2).shutdown();
+            assertTrue(BlockingTaskExecutors.isVirtualThreadSupported());
+        } catch (IllegalStateException e) {
+            if (BlockingTaskExecutors.isVirtualThreadSupported()) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void modeIsReadFromSystemProperty() {
+        System.setProperty(BlockingTaskExecutors.MODE_PROPERTY, " platform ");
+        try {
+            assertEquals(BlockingTaskExecutors.Mode.PLATFORM, BlockingTaskExecutors.configuredMode());
+        } finally {
+            System.clearProperty(BlockingTaskExecutors.MODE_PROPERTY);
+        }
+        assertEquals(BlockingTaskExecutors.Mode.AUTO, BlockingTaskExecutors.configuredMode());
+    }
+}
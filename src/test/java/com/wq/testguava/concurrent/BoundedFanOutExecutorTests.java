@@ -0,0 +1,193 @@
+package com.wq.testguava.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedFanOutExecutorTests {
+
+    @Test
+    public void tensOfThousandsOfTasksRunWithinConcurrencyLimit() throws Exception {
+        BoundedFanOutExecutor executor = new BoundedFanOutExecutor("test-fan-out", 8);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int index = i;
+            tasks.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    if (index % 5000 == 0) {
+                        throw new IllegalStateException("task " + index);
+                    }
+                    return index;
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        }
+        try {
+            List<Integer> results = executor.successfulAsList(tasks).get(30, TimeUnit.SECONDS);
+            assertEquals(20000, results.size());
+            assertNull(results.get(5000));
+            assertEquals(Integer.valueOf(19999), results.get(19999));
+            assertEquals(4, executor.getFailedCount());
+            assertTrue(maxRunning.get() <= 8);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void forEachSuccessfulStreamsResultsWithoutKeepingThem() throws Exception {
+        BoundedFanOutExecutor executor = new BoundedFanOutExecutor("test-fan-out-stream", 8);
+        AtomicLong sum = new AtomicLong();
+        AtomicInteger outOfRange = new AtomicInteger();
+        Iterable<Callable<Integer>> tasks = () -> IntStream.range(0, 20000).<Callable<Integer>>mapToObj(i -> () -> {
+            if (i % 5000 == 0) {
+                throw new IllegalStateException("task " + i);
+            }
+            return i;
+        }).iterator();
+        try {
+            int submitted = executor.forEachSuccessful(tasks, (Integer result, int index) -> {
+                if (result != index) {
+                    outOfRange.incrementAndGet();
+                }
+                sum.addAndGet(result);
+            }).get(30, TimeUnit.SECONDS);
+            assertEquals(20000, submitted);
+            assertEquals(0, outOfRange.get());
+            assertEquals(19999L * 20000 / 2 - (5000 + 10000 + 15000), sum.get());
+            assertEquals(4, executor.getFailedCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void submitRejectedAfterAcquiringPermitReleasesIt() throws Exception {
+        BoundedFanOutExecutor executor = new BoundedFanOutExecutor("test-fan-out-reject", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        ListenableFuture<Integer> running = executor.submit(() -> {
+            release.await();
+            return 0;
+        });
+        CompletableFuture<Throwable> blocked = CompletableFuture.supplyAsync(() -> {
+            try {
+                executor.submit(() -> 1);
+                return null;
+            } catch (Throwable t) {
+                return t;
+            }
+        });
+        //等待提交线程阻塞在许可上
+        Thread.sleep(100);
+        executor.shutdown();
+        release.countDown();
+
+        assertEquals(Integer.valueOf(0), running.get(5, TimeUnit.SECONDS));
+        assertTrue(blocked.get(5, TimeUnit.SECONDS) instanceof RejectedExecutionException);
+        assertEquals(0, executor.getInFlightCount());
+        assertEquals(1, executor.getFailedCount());
+    }
+
+    @Test
+    public void successfulAsListKeepsStartedResultsWhenShutDownDuringSubmission() throws Exception {
+        BoundedFanOutExecutor executor = new BoundedFanOutExecutor("test-fan-out-partial", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            release.await();
+            return 0;
+        });
+        for (int i = 1; i < 5; i++) {
+            int index = i;
+            tasks.add(() -> index);
+        }
+        CompletableFuture<ListenableFuture<List<Integer>>> aggregate =
+                CompletableFuture.supplyAsync(() -> executor.successfulAsList(tasks));
+        Thread.sleep(100);
+        executor.shutdown();
+        release.countDown();
+
+        //第二个任务拿到许可时线程池已关闭，停止提交，第一个任务的结果保留
+        assertEquals(Arrays.asList(0, null), aggregate.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getInFlightCount());
+        assertEquals(1, executor.getFailedCount());
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void submitAsyncQueuesInsteadOfRejecting() throws Exception {
+        BoundedFanOutExecutor executor = new BoundedFanOutExecutor("test-fan-out-async", 2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<ListenableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int index = i;
+            futures.add(executor.submitAsync(() -> {
+                release.await();
+                return index;
+            }));
+        }
+        assertEquals(2, executor.getInFlightCount());
+        assertEquals(8, executor.getPendingCount());
+        release.countDown();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void shutdownFailsQueuedTasksAndLetsRunningOnesFinish() throws Exception {
+        BoundedFanOutExecutor executor = new BoundedFanOutExecutor("test-fan-out-shutdown", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        ListenableFuture<Integer> running = executor.submitAsync(() -> {
+            release.await();
+            return 0;
+        });
+        List<ListenableFuture<Integer>> queued = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            int index = i;
+            queued.add(executor.submitAsync(() -> index));
+        }
+        assertEquals(3, executor.getPendingCount());
+
+        executor.shutdown();
+        for (ListenableFuture<Integer> future : queued) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("关闭时等待队列中的任务应失败");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+        assertEquals(0, executor.getPendingCount());
+
+        //正在执行的任务完成后归还许可，不会再向已关闭的线程池提交
+        release.countDown();
+        assertEquals(Integer.valueOf(0), running.get(5, TimeUnit.SECONDS));
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getCompletedCount());
+    }
+}
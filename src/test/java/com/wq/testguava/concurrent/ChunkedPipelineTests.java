@@ -0,0 +1,93 @@
+package com.wq.testguava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkedPipelineTests {
+
+    @Test
+    public void resultsStreamInChunksAndChunksGrowForCheapItems() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Integer> items = new ArrayList<>();
+            for (int i = 0; i < 100000; i++) {
+                items.add(i);
+            }
+            ChunkedPipeline<Integer, Integer> pipeline = new ChunkedPipeline<>(executor, 4, item -> {
+                if (item % 10000 == 0) {
+                    throw new IllegalArgumentException("item " + item);
+                }
+                return item * 2;
+            }, 16, 4096, 1, TimeUnit.MILLISECONDS);
+            Integer[] results = new Integer[items.size()];
+            AtomicInteger callbacks = new AtomicInteger();
+            ChunkedPipeline.Report report = pipeline.process(items, (offset, chunk) -> {
+                callbacks.incrementAndGet();
+                for (int i = 0; i < chunk.size(); i++) {
+                    results[offset + i] = chunk.get(i);
+                }
+            }).get(30, TimeUnit.SECONDS);
+
+            assertEquals(100000, report.getItems());
+            assertEquals(10, report.getFailedItems());
+            assertEquals(callbacks.get(), report.getChunks());
+            //每块一个任务，加上表示完成的Future
+            assertEquals(report.getChunks() + 1, report.getFuturesAllocated());
+            assertEquals((double) report.getFuturesAllocated() / items.size(), report.getFuturesPerItem(), 1e-12);
+            assertTrue(report.getFuturesPerItem() < 1.0 / 16);
+            assertTrue(report.getMaxChunkSize() > 16);
+            assertTrue(report.getChunks() < items.size() / 16);
+            assertNull(results[20000]);
+            assertEquals(Integer.valueOf(199998), results[99999]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void errorInStageFailsTheRunInsteadOfHanging() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Integer> items = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                items.add(i);
+            }
+            ChunkedPipeline<Integer, Integer> pipeline = new ChunkedPipeline<>(executor, 2, item -> {
+                if (item == 500) {
+                    throw new Error("stage error");
+                }
+                return item;
+            });
+            try {
+                pipeline.process(items, (offset, chunk) -> {
+                }).get(5, TimeUnit.SECONDS);
+                fail("stage抛出Error时应以该Error失败");
+            } catch (ExecutionException e) {
+                assertEquals("stage error", e.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void emptyInputCompletesImmediately() throws Exception {
+        ChunkedPipeline<Integer, Integer> pipeline = new ChunkedPipeline<>(Runnable::run, 2, item -> item);
+        ChunkedPipeline.Report report = pipeline.process(new ArrayList<Integer>(), (offset, chunk) -> {
+        }).get();
+        assertEquals(0, report.getChunks());
+        assertEquals(1, report.getFuturesAllocated());
+    }
+}
@@ -0,0 +1,83 @@
+package com.wq.testguava.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompletionStreamTests {
+
+    @Test
+    public void resultsArriveInCompletionOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch slowRelease = new CountDownLatch(1);
+        try {
+            CompletionStream<String> stream = new CompletionStream<>(executor, 10);
+            stream.submit(() -> {
+                slowRelease.await();
+                return "slow";
+            });
+            stream.submit(() -> "fast");
+
+            CompletionStream.Result<String> first = stream.take();
+            assertEquals("fast", first.getValue());
+            assertEquals(1, first.getIndex());
+            slowRelease.countDown();
+            assertEquals("slow", stream.take().getValue());
+            assertNull(stream.take());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void producerIsHeldBackUntilResultsAreTaken() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CompletionStream<Integer> stream = new CompletionStream<>(executor, 2);
+            assertTrue(stream.trySubmit(() -> 1));
+            assertTrue(stream.trySubmit(() -> 2));
+            assertFalse(stream.trySubmit(() -> 3));
+            stream.take();
+            assertTrue(stream.trySubmit(() -> 3));
+            assertEquals(2, stream.getOutstanding());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void reduceSkipsFailures() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Iterable<Callable<Integer>> tasks = () -> IntStream.range(0, 50000).<Callable<Integer>>mapToObj(i -> () -> {
+                if (i % 1000 == 0) {
+                    throw new IllegalStateException("task " + i);
+                }
+                return 1;
+            }).iterator();
+            long count = CompletionStream.reduce(executor, 16, tasks, 0L, (total, value) -> total + value);
+            assertEquals(49950, count);
+
+            List<Long> indexes = new ArrayList<>();
+            CompletionStream.forEach(executor, 4, Arrays.<Callable<Integer>>asList(() -> 1, () -> 2),
+                    result -> indexes.add(result.getIndex()));
+            assertEquals(2, indexes.size());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.wq.testguava.controller;
+
+import com.wq.testguava.utils.BaseGuavaCache;
+import com.wq.testguava.utils.GuavaCacheSpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(GuavaCacheStatsController.class)
+public class GuavaCacheStatsControllerTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void exportsStatsOfRegisteredCaches() throws Exception {
+        BaseGuavaCache<String, String> cache = new BaseGuavaCache<String, String>(
+                GuavaCacheSpec.<String, String>newBuilder().cacheName("stats-test").build()) {
+            @Override
+            public void loadValueWhenStarted() {
+            }
+
+            @Override
+            protected String getValueWhenExpired(String key) {
+                return key;
+            }
+        };
+        cache.getValue("a");
+        cache.getValue("a");
+
+        mockMvc.perform(get("/caches/stats/stats-test"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hitCount").value(1))
+                .andExpect(jsonPath("$.missCount").value(1))
+                .andExpect(jsonPath("$.loadLatency.count").value(1))
+                .andExpect(jsonPath("$.refreshExecutor.name").value("guava-cache-refresh"));
+        mockMvc.perform(get("/caches/stats/not-exists"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,431 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import com.wq.testguava.utils.JdkSerializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventJournalTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReadBackInOrderAcrossSegments() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 256, 10, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, journal.append(("record-" + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            journal.sync();
+            assertTrue(journal.getSegmentCount() > 1);
+            assertTrue("每批只fsync一次", journal.getSyncCount() <= journal.getAppendedCount());
+
+            assertEquals(50, read(journal, 0).size());
+            List<String> tail = read(journal, 30);
+            assertEquals(20, tail.size());
+            assertEquals("record-30", tail.get(0));
+            assertEquals("record-49", tail.get(19));
+        }
+    }
+
+    @Test
+    public void tornTailIsTruncatedOnReopen() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        try (EventJournal journal = new EventJournal(directory)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(("record-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        //模拟写到一半时进程退出
+        Path segment = Files.list(directory).filter(file -> file.toString().endsWith(".log")).findFirst().get();
+        Files.write(segment, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (EventJournal journal = new EventJournal(directory)) {
+            assertEquals(10, journal.getNextOffset());
+            assertEquals(10, journal.append("record-10".getBytes(StandardCharsets.UTF_8)));
+            journal.sync();
+            List<String> records = read(journal, 0);
+            assertEquals(11, records.size());
+            assertEquals("record-10", records.get(10));
+        }
+    }
+
+    @Test
+    public void subscriberResumesFromCommittedOffsetAfterRestart() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 1024, 1, TimeUnit.MILLISECONDS)) {
+                FastEventBus bus = journaledBus(executor, 16, journal);
+                RecordingListener listener = new RecordingListener();
+                bus.register(listener);
+                for (int i = 0; i < 5; i++) {
+                    bus.post(new Payment("p" + i));
+                }
+                await(() -> journal.getCommittedOffsets().containsValue(4L));
+                //停止消费后发布的事件只在日志中
+                bus.unregister(listener);
+                for (int i = 5; i < 10; i++) {
+                    bus.post(new Payment("p" + i));
+                }
+            }
+
+            try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 1024, 1, TimeUnit.MILLISECONDS)) {
+                FastEventBus bus = journaledBus(executor, 16, journal);
+                RecordingListener listener = new RecordingListener();
+                bus.register(listener);
+                bus.post(new Payment("p10"));
+                await(() -> listener.received.size() == 6);
+                assertEquals(ImmutableList.of("p5", "p6", "p7", "p8", "p9", "p10"), listener.received);
+
+                //新注册的订阅方法不补投之前的事件
+                RecordingListener late = new RecordingListener() {
+                };
+                bus.register(late);
+                bus.post(new Payment("p11"));
+                await(() -> late.received.size() == 1 && listener.received.size() == 7);
+                assertEquals(ImmutableList.of("p11"), late.received);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void fullQueueFallsBackToJournalWithoutBlockingOrDropping() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (EventJournal journal = new EventJournal(directory)) {
+            FastEventBus bus = journaledBus(executor, 2, journal);
+            CountDownLatch release = new CountDownLatch(1);
+            RecordingListener listener = new RecordingListener() {
+                @Override
+                public void listen(Payment payment) throws InterruptedException {
+                    release.await();
+                    super.listen(payment);
+                }
+            };
+            bus.register(listener);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                expected.add("p" + i);
+                bus.post(new Payment("p" + i));
+            }
+            assertEquals(0, bus.getBlockedMillis());
+            release.countDown();
+
+            await(() -> listener.received.size() == 200);
+            assertEquals(expected, listener.received);
+            assertEquals(0, bus.getDroppedCount());
+            //追赶完成后切换回队列
+            bus.post(new Payment("p200"));
+            await(() -> listener.received.size() == 201);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failedEventIsDeadLetteredAndNotRedeliveredAfterRestart() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 1024, 1, TimeUnit.MILLISECONDS)) {
+                FastEventBus bus = journaledBus(executor, 16, journal);
+                FlakyListener listener = new FlakyListener("p1", Integer.MAX_VALUE);
+                bus.register(listener);
+                for (int i = 0; i < 3; i++) {
+                    bus.post(new Payment("p" + i));
+                }
+                await(() -> listener.received.size() == 2 && bus.getDeadLetterCount() == 1);
+                assertEquals(QueuedSubscriber.MAX_ATTEMPTS, bus.getFailedCount());
+                //失败的事件不阻止进度推进
+                await(() -> journal.getCommittedOffsets().containsValue(2L));
+            }
+
+            try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 1024, 1, TimeUnit.MILLISECONDS)) {
+                List<EventJournal.DeadLetter> deadLetters = journal.getDeadLetters();
+                assertEquals(1, deadLetters.size());
+                assertEquals(1, deadLetters.get(0).getOffset());
+                assertEquals("p1", ((Payment) deadLetters.get(0).getEvent()).id);
+
+                FastEventBus bus = journaledBus(executor, 16, journal);
+                FlakyListener listener = new FlakyListener(null, 0);
+                bus.register(listener);
+                bus.post(new Payment("p3"));
+                await(() -> listener.received.size() == 1);
+                assertEquals(ImmutableList.of("p3"), listener.received);
+
+                journal.clearDeadLetters();
+                assertTrue(journal.getDeadLetters().isEmpty());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void transientFailureIsRetried() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (EventJournal journal = new EventJournal(directory)) {
+            FastEventBus bus = journaledBus(executor, 16, journal);
+            FlakyListener listener = new FlakyListener("p1", QueuedSubscriber.MAX_ATTEMPTS - 1);
+            bus.register(listener);
+            for (int i = 0; i < 3; i++) {
+                bus.post(new Payment("p" + i));
+            }
+            await(() -> listener.received.size() == 3);
+            assertEquals(ImmutableList.of("p0", "p1", "p2"), listener.received);
+            assertEquals(QueuedSubscriber.MAX_ATTEMPTS - 1, bus.getFailedCount());
+            assertEquals(0, bus.getDeadLetterCount());
+            assertTrue(journal.getDeadLetters().isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void segmentsAreDeletedAfterFailureAndUnregister() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 256, 1, 50, TimeUnit.MILLISECONDS)) {
+            FastEventBus bus = journaledBus(executor, 16, journal);
+            FlakyListener flaky = new FlakyListener("p1", Integer.MAX_VALUE);
+            CoalescingListener coalescing = new CoalescingListener();
+            RecordingListener gone = new RecordingListener();
+            bus.register(flaky);
+            bus.register(coalescing);
+            bus.register(gone);
+            bus.unregister(gone);
+            for (int i = 0; i < 100; i++) {
+                bus.post(new Payment("p" + i));
+            }
+            journal.sync();
+            assertTrue(journal.getSegmentCount() > 10);
+
+            await(() -> flaky.received.size() == 99 && coalescing.received.size() == 100);
+            //失败的事件和超过untrackedExpiry的注销订阅方法都不阻止删除segment
+            await(() -> journal.getSegmentCount() <= 2);
+            assertEquals(1, journal.getDeadLetters().size());
+            assertEquals(2, journal.getCommittedOffsets().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void idleSubscribersDoNotHoldBackRetention() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 256, 1, TimeUnit.MILLISECONDS)) {
+            FastEventBus bus = journaledBus(executor, 16, journal);
+            RecordingListener payments = new RecordingListener();
+            RefundListener refunds = new RefundListener();
+            PartitionedListener partitioned = new PartitionedListener();
+            bus.register(payments);
+            bus.register(refunds);
+            bus.register(partitioned);
+            //只发布Payment，且key都相同：Refund的订阅方法和其余3个通道一直收不到事件
+            for (int i = 0; i < 100; i++) {
+                bus.post(new Payment("p" + i));
+            }
+            journal.sync();
+            assertTrue(journal.getSegmentCount() > 10);
+
+            await(() -> payments.received.size() == 100 && partitioned.received.size() == 100);
+            await(() -> journal.getSegmentCount() <= 2);
+            assertTrue(refunds.received.isEmpty());
+
+            //空闲的订阅方法之后收到的事件仍然投递
+            bus.post(new Refund("r0"));
+            await(() -> refunds.received.size() == 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void partitionedSubscriberRefusesAChangedLaneCount() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 1024, 1, TimeUnit.MILLISECONDS)) {
+                //上次运行时按8个通道保存的进度
+                for (int i = 0; i < 3; i++) {
+                    journal.append(new JdkSerializer<>().serialize(new Payment("p" + i)));
+                }
+                journal.sync();
+                for (int lane = 0; lane < 8; lane++) {
+                    journal.track(PartitionedListener.class.getName() + ".listen(Payment)#" + lane + "/8", () -> 1L);
+                }
+            }
+
+            try (EventJournal journal = new EventJournal(directory, new JdkSerializer<>(), 1024, 1, TimeUnit.MILLISECONDS)) {
+                FastEventBus bus = journaledBus(executor, 16, journal);
+                PartitionedListener partitioned = new PartitionedListener();
+                try {
+                    bus.register(partitioned);
+                    fail();
+                } catch (IllegalStateException expected) {
+                }
+                //开启journal时不能按CPU核数分配通道
+                try {
+                    bus.register(new DefaultLanesListener());
+                    fail();
+                } catch (IllegalArgumentException expected) {
+                }
+                bus.post(new Payment("p3"));
+                assertTrue(partitioned.received.isEmpty());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static FastEventBus journaledBus(ExecutorService executor, int queueCapacity, EventJournal journal) {
+        return new FastEventBus("test", executor, queueCapacity, 8, FastEventBus.BackPressure.BLOCK, journal);
+    }
+
+    private static List<String> read(EventJournal journal, long offset) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (EventJournal.Reader reader = journal.reader(offset)) {
+            for (EventJournal.Entry entry = reader.next(); entry != null; entry = reader.next()) {
+                assertEquals(offset + records.size(), entry.offset);
+                records.add(new String(entry.payload, StandardCharsets.UTF_8));
+            }
+            assertNull(reader.next());
+        }
+        return records;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("等待超时", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    public static class RecordingListener {
+
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @Subscribe
+        public void listen(Payment payment) throws InterruptedException {
+            received.add(payment.id);
+        }
+    }
+
+    public static class FlakyListener extends RecordingListener {
+
+        private final String failOn;
+
+        // failOn连续失败的次数
+        private int failures;
+
+        FlakyListener(String failOn, int failures) {
+            this.failOn = failOn;
+            this.failures = failures;
+        }
+
+        @Override
+        public void listen(Payment payment) throws InterruptedException {
+            if (payment.id.equals(failOn) && failures > 0) {
+                failures--;
+                throw new IllegalStateException("下游不可用");
+            }
+            super.listen(payment);
+        }
+    }
+
+    public static class CoalescingListener {
+
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @CoalesceSubscribe(key = "getId")
+        public void listen(Payment payment) {
+            received.add(payment.id);
+        }
+    }
+
+    public static class RefundListener {
+
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @Subscribe
+        public void listen(Refund refund) {
+            received.add(refund.id);
+        }
+    }
+
+    public static class PartitionedListener {
+
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @PartitionedSubscribe(key = "getCurrency", lanes = 4)
+        public void listen(Payment payment) {
+            received.add(payment.id);
+        }
+    }
+
+    public static class DefaultLanesListener {
+
+        @PartitionedSubscribe(key = "getCurrency")
+        public void listen(Payment payment) {
+        }
+    }
+
+    public static class Refund implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String id;
+
+        public Refund(String id) {
+            this.id = id;
+        }
+    }
+
+    public static class Payment implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String id;
+
+        public Payment(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getCurrency() {
+            return "CNY";
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.collect.Iterables;
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.eventbus.Subscribe;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FastEventBusTests {
+
+    @Test
+    public void deliversToSubscribersOfEventTypeAndSupertypes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 16, 4, FastEventBus.BackPressure.BLOCK);
+            RecordingListener listener = new RecordingListener();
+            bus.register(listener);
+
+            bus.post(new EventBusTest.Event1("a"));
+            bus.post(new EventBusTest.Event2("b"));
+
+            await(() -> bus.getDeliveredCount() == 3);
+            assertEquals(1, listener.event1.size());
+            assertEquals(2, listener.event.size());
+            assertEquals(2, bus.getPostedCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void eachSubscriberIsInvokedSeriallyInPostOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 64, 8, FastEventBus.BackPressure.BLOCK);
+            AtomicInteger concurrent = new AtomicInteger();
+            AtomicInteger maxConcurrent = new AtomicInteger();
+            List<String> received = new CopyOnWriteArrayList<>();
+            bus.register(new Object() {
+                @Subscribe
+                public void listen(EventBusTest.Event1 event) {
+                    maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                    received.add(event.getMessage());
+                    concurrent.decrementAndGet();
+                }
+            });
+
+            for (int i = 0; i < 1000; i++) {
+                bus.post(new EventBusTest.Event1(String.valueOf(i)));
+            }
+
+            await(() -> received.size() == 1000);
+            assertEquals(1, maxConcurrent.get());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(String.valueOf(i), received.get(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void slowSubscriberDoesNotBlockPublisherUntilQueueIsFull() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 8, 4, FastEventBus.BackPressure.DROP);
+            bus.register(new Object() {
+                @Subscribe
+                public void listen(EventBusTest.Event1 event) throws InterruptedException {
+                    release.await();
+                }
+            });
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                bus.post(new EventBusTest.Event1(String.valueOf(i)));
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            // 第一个事件可能已被取出并阻塞在订阅方法中，队列中最多再放8个
+            assertTrue(bus.getDroppedCount() >= 100 - 9);
+
+            release.countDown();
+            await(() -> bus.getDeliveredCount() + bus.getDroppedCount() == 100);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void blockPolicyWaitsForQueueSpace() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 4, 2, FastEventBus.BackPressure.BLOCK);
+            AtomicInteger received = new AtomicInteger();
+            bus.register(new Object() {
+                @Subscribe
+                public void listen(EventBusTest.Event1 event) throws InterruptedException {
+                    Thread.sleep(1);
+                    received.incrementAndGet();
+                }
+            });
+
+            for (int i = 0; i < 50; i++) {
+                bus.post(new EventBusTest.Event1(String.valueOf(i)));
+            }
+
+            await(() -> received.get() == 50);
+            assertEquals(0, bus.getDroppedCount());
+            assertTrue(bus.getBlockedMillis() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void subscriberPostingToItselfWithFullQueueDoesNotDeadlock() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 1, 1, FastEventBus.BackPressure.BLOCK);
+            AtomicInteger received = new AtomicInteger();
+            bus.register(new Object() {
+                @Subscribe
+                public void listen(EventBusTest.Event1 event) {
+                    if (received.incrementAndGet() == 1) {
+                        for (int i = 0; i < 3; i++) {
+                            bus.post(new EventBusTest.Event1("nested"));
+                        }
+                    }
+                }
+            });
+
+            bus.post(new EventBusTest.Event1("first"));
+
+            await(() -> received.get() == 4);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failuresAreCountedAndDeadEventsRepublished() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 16, 4, FastEventBus.BackPressure.BLOCK);
+            List<Object> dead = new CopyOnWriteArrayList<>();
+            Object failing = new Object() {
+                @Subscribe
+                public void listen(EventBusTest.Event1 event) {
+                    throw new IllegalStateException("boom");
+                }
+
+                @Subscribe
+                public void dead(DeadEvent event) {
+                    dead.add(event.getEvent());
+                }
+            };
+            bus.register(failing);
+
+            bus.post(new EventBusTest.Event1("a"));
+            bus.post("nobody listens");
+
+            await(() -> bus.getFailedCount() == 1 && dead.size() == 1);
+            assertEquals("nobody listens", dead.get(0));
+
+            bus.unregister(failing);
+            bus.post(new EventBusTest.Event1("b"));
+            Thread.sleep(50);
+            assertEquals(1, bus.getFailedCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unregisterUnknownListenerFails() {
+        new FastEventBus("test", Runnable::run, 4, 1, FastEventBus.BackPressure.BLOCK).unregister(new Object());
+    }
+
+    @Test
+    public void batchSubscriberReceivesFullBatchesInPostOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 256, 64, FastEventBus.BackPressure.BLOCK);
+            List<List<EventBusTest.Event1>> batches = new CopyOnWriteArrayList<>();
+            bus.register(new Object() {
+                @BatchSubscribe(maxSize = 10, maxDelayMillis = 60000)
+                public void listen(List<EventBusTest.Event1> events) {
+                    batches.add(events);
+                }
+            });
+
+            for (int i = 0; i < 100; i++) {
+                bus.post(new EventBusTest.Event1(String.valueOf(i)));
+            }
+
+            await(() -> bus.getDeliveredCount() == 100);
+            assertEquals(10, bus.getInvocationCount());
+            int next = 0;
+            for (List<EventBusTest.Event1> batch : batches) {
+                assertEquals(10, batch.size());
+                for (EventBusTest.Event1 event : batch) {
+                    assertEquals(String.valueOf(next++), event.getMessage());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void batchSubscriberFlushesPartialBatchAfterMaxDelay() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 256, 64, FastEventBus.BackPressure.BLOCK);
+            List<List<EventBusTest.Event>> batches = new CopyOnWriteArrayList<>();
+            bus.register(new Object() {
+                @BatchSubscribe(maxSize = 1000, maxDelayMillis = 200)
+                public void listen(List<EventBusTest.Event> events) {
+                    batches.add(events);
+                }
+            });
+
+            long start = System.nanoTime();
+            bus.post(new EventBusTest.Event1("a"));
+            bus.post(new EventBusTest.Event2("b"));
+            bus.post(new EventBusTest.Event1("c"));
+
+            await(() -> batches.size() == 1);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+            assertEquals(3, batches.get(0).size());
+            assertEquals(3, bus.getDeliveredCount());
+            assertEquals(1, bus.getInvocationCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void coalescingSubscriberOnlyReceivesLatestEventPerKey() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 16, 16, FastEventBus.BackPressure.BLOCK);
+            List<Quote> received = new CopyOnWriteArrayList<>();
+            bus.register(new Object() {
+                @CoalesceSubscribe(key = "getSymbol")
+                public void listen(Quote quote) throws InterruptedException {
+                    received.add(quote);
+                    entered.countDown();
+                    release.await();
+                }
+            });
+
+            bus.post(new Quote("gate", 0));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            for (int price = 1; price <= 100; price++) {
+                bus.post(new Quote("a", price));
+                bus.post(new Quote("b", price));
+            }
+            release.countDown();
+
+            await(() -> bus.getDeliveredCount() == 3);
+            assertEquals(3, bus.getInvocationCount());
+            assertEquals(198, bus.getCoalescedCount());
+            assertEquals("a", received.get(1).getSymbol());
+            assertEquals(100, received.get(1).getPrice());
+            assertEquals("b", received.get(2).getSymbol());
+            assertEquals(100, received.get(2).getPrice());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchSubscriberRequiresListParameter() {
+        new FastEventBus("test", Runnable::run, 4, 1, FastEventBus.BackPressure.BLOCK).register(new Object() {
+            @BatchSubscribe
+            public void listen(EventBusTest.Event1 event) {
+            }
+        });
+    }
+
+    @Test
+    public void partitionedSubscriberKeepsPerKeyOrderAcrossLanes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 64, 16, FastEventBus.BackPressure.BLOCK);
+            Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+            bus.register(new Object() {
+                @PartitionedSubscribe(key = "getSymbol", lanes = 4)
+                public void listen(Quote quote) {
+                    received.computeIfAbsent(quote.getSymbol(), symbol -> new CopyOnWriteArrayList<>()).add(quote.getPrice());
+                }
+            });
+
+            for (int price = 0; price < 200; price++) {
+                for (int symbol = 0; symbol < 8; symbol++) {
+                    bus.post(new Quote("s" + symbol, price));
+                }
+            }
+
+            await(() -> bus.getDeliveredCount() == 1600);
+            for (List<Integer> prices : received.values()) {
+                for (int i = 0; i < 200; i++) {
+                    assertEquals(i, (int) prices.get(i));
+                }
+            }
+            List<FastEventBus.LaneStats> lanes = Iterables.getOnlyElement(bus.getLaneStats().values());
+            assertEquals(4, lanes.size());
+            long delivered = 0;
+            for (FastEventBus.LaneStats lane : lanes) {
+                assertEquals(0, lane.getQueueDepth());
+                assertEquals(0, lane.getDeliveredCount() % 200);
+                delivered += lane.getDeliveredCount();
+            }
+            assertEquals(1600, delivered);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void partitionedLanesRunConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        String blocked = "a";
+        String other = "b";
+        while (PartitionedSubscriber.laneOf(other, 2) == PartitionedSubscriber.laneOf(blocked, 2)) {
+            other = other + "b";
+        }
+        String unblocking = other;
+        CountDownLatch otherLaneRan = new CountDownLatch(1);
+        AtomicInteger waited = new AtomicInteger();
+        try {
+            FastEventBus bus = new FastEventBus("test", executor, 16, 16, FastEventBus.BackPressure.BLOCK);
+            bus.register(new Object() {
+                @PartitionedSubscribe(key = "getSymbol", lanes = 2)
+                public void listen(Quote quote) throws InterruptedException {
+                    if (quote.getSymbol().equals(blocked)) {
+                        if (otherLaneRan.await(5, TimeUnit.SECONDS)) {
+                            waited.incrementAndGet();
+                        }
+                    } else if (quote.getSymbol().equals(unblocking)) {
+                        otherLaneRan.countDown();
+                    }
+                }
+            });
+
+            bus.post(new Quote(blocked, 1));
+            bus.post(new Quote(unblocking, 1));
+
+            await(() -> bus.getDeliveredCount() == 2);
+            assertEquals(1, waited.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void queueRejectsWhenFullAndDrainsInOrder() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(3);
+        assertEquals(4, queue.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+
+        List<Integer> drained = new CopyOnWriteArrayList<>();
+        assertEquals(3, queue.drain(drained::add, 3));
+        assertTrue(queue.offer(4));
+        assertEquals(2, queue.drain(drained::add, 10));
+        assertTrue(queue.isEmpty());
+        assertEquals(5, drained.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) drained.get(i));
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("等待超时", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    public static class Quote {
+
+        private final String symbol;
+
+        private final int price;
+
+        Quote(String symbol, int price) {
+            this.symbol = symbol;
+            this.price = price;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public int getPrice() {
+            return price;
+        }
+    }
+
+    public static class RecordingListener {
+
+        final List<EventBusTest.Event1> event1 = new CopyOnWriteArrayList<>();
+
+        final List<EventBusTest.Event> event = new CopyOnWriteArrayList<>();
+
+        @Subscribe
+        public void listen(EventBusTest.Event1 e) {
+            event1.add(e);
+        }
+
+        @Subscribe
+        public void listen(EventBusTest.Event e) {
+            event.add(e);
+        }
+    }
+}
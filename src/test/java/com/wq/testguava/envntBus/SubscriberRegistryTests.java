@@ -0,0 +1,95 @@
+package com.wq.testguava.envntBus;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriberRegistryTests {
+
+    private final FastEventBus bus = new FastEventBus("test", Runnable::run, 16, 16, FastEventBus.BackPressure.BLOCK);
+
+    @Test
+    public void dispatchTableIsFlattenedAndCachedPerEventClass() throws Exception {
+        SubscriberRegistry registry = new SubscriberRegistry();
+        EventBusTest.EventListener listener = new EventBusTest.EventListener();
+        QueuedSubscriber event1 = subscriber(listener, "listen", EventBusTest.Event1.class);
+        QueuedSubscriber event = subscriber(listener, "listen", EventBusTest.Event.class);
+        registry.register(ImmutableList.of(event1, event));
+
+        Subscription[] forEvent1 = registry.subscribersFor(EventBusTest.Event1.class);
+        assertArrayEquals(new QueuedSubscriber[]{event1, event}, forEvent1);
+        assertSame(forEvent1, registry.subscribersFor(EventBusTest.Event1.class));
+        assertArrayEquals(new QueuedSubscriber[]{event}, registry.subscribersFor(EventBusTest.Event2.class));
+        assertEquals(0, registry.subscribersFor(String.class).length);
+
+        assertTrue(registry.unregister(listener));
+        assertFalse(registry.unregister(listener));
+        assertEquals(0, registry.subscribersFor(EventBusTest.Event1.class).length);
+        assertEquals(0, registry.subscribersFor(EventBusTest.Event2.class).length);
+    }
+
+    @Test
+    public void registeringRebuildsEntriesResolvedBeforehand() throws Exception {
+        SubscriberRegistry registry = new SubscriberRegistry();
+        assertEquals(0, registry.subscribersFor(EventBusTest.Event2.class).length);
+
+        EventBusTest.EventListener listener = new EventBusTest.EventListener();
+        QueuedSubscriber event = subscriber(listener, "listen", EventBusTest.Event.class);
+        registry.register(ImmutableList.of(event));
+
+        assertArrayEquals(new QueuedSubscriber[]{event}, registry.subscribersFor(EventBusTest.Event2.class));
+    }
+
+    @Test
+    public void publicMethodsUseGeneratedInvokerAndOthersFallBack() throws Throwable {
+        Method publicMethod = PublicListener.class.getMethod("listen", EventBusTest.Event1.class);
+        Method privateMethod = PublicListener.class.getDeclaredMethod("hidden", EventBusTest.Event1.class);
+        assertTrue(SubscriberInvoker.isDirectlyAccessible(publicMethod));
+        assertFalse(SubscriberInvoker.isDirectlyAccessible(privateMethod));
+
+        PublicListener listener = new PublicListener();
+        SubscriberInvoker.of(publicMethod).invoke(listener, new EventBusTest.Event1("a"));
+        SubscriberInvoker.of(privateMethod).invoke(listener, new EventBusTest.Event1("b"));
+        assertEquals(ImmutableList.of("a", "hidden:b"), listener.received);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invokerPropagatesSubscriberException() throws Throwable {
+        Method method = PublicListener.class.getMethod("fail", EventBusTest.Event2.class);
+        SubscriberInvoker.of(method).invoke(new PublicListener(), new EventBusTest.Event2("boom"));
+    }
+
+    private QueuedSubscriber subscriber(Object target, String name, Class<?> eventType) throws NoSuchMethodException {
+        return new QueuedSubscriber(bus, target, target.getClass().getMethod(name, eventType), 16);
+    }
+
+    public static class PublicListener {
+
+        final List<String> received = new ArrayList<>();
+
+        @Subscribe
+        public void listen(EventBusTest.Event1 event) {
+            received.add(event.getMessage());
+        }
+
+        @Subscribe
+        private void hidden(EventBusTest.Event1 event) {
+            received.add("hidden:" + event.getMessage());
+        }
+
+        @Subscribe
+        public String fail(EventBusTest.Event2 event) {
+            throw new IllegalStateException(event.getMessage());
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.wq.testguava.utils;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.cache.RemovalCause;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BaseGuavaCacheTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * 记录每个key的加载次数，返回值为 key + "-" + 第几次加载，以missing开头的key返回null
+     */
+    static class CountingCache extends BaseGuavaCache<String, String> {
+
+        final Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+
+        final List<Collection<String>> batches = new CopyOnWriteArrayList<>();
+
+        volatile boolean failing = false;
+
+        CountingCache(GuavaCacheSpec<String, String> spec) {
+            super(spec);
+        }
+
+        @Override
+        public void loadValueWhenStarted() {
+        }
+
+        @Override
+        protected String getValueWhenExpired(String key) {
+            if (failing) {
+                throw new IllegalStateException("backend down");
+            }
+            int count = loads.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            return key.startsWith("missing") ? null : key + "-" + count;
+        }
+
+        @Override
+        protected Map<String, String> getValuesWhenExpired(Collection<String> keys) {
+            batches.add(keys);
+            Map<String, String> values = new HashMap<>();
+            for (String key : keys) {
+                values.put(key, getValueWhenExpired(key));
+            }
+            return values;
+        }
+
+        int loadCount(String key) {
+            AtomicInteger count = loads.get(key);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    @Test
+    public void proactiveRefreshReloadsHotKeysWithoutReads() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .proactiveRefresh(50, TimeUnit.MILLISECONDS, 10)
+                .build());
+        try {
+            assertEquals("hot-1", cache.getValue("hot"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.loadCount("hot") < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(cache.loadCount("hot") >= 2);
+        } finally {
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    public void proactiveRefreshSkipsKeysInvalidatedAfterSelection() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .proactiveRefresh(300, TimeUnit.MILLISECONDS, 10)
+                .build());
+        try {
+            assertEquals("hot-1", cache.getValue("hot"));
+            //第一个周期开始时已选出hot，刷新在本周期内随机延迟执行
+            Thread.sleep(320);
+            cache.invalidate("hot");
+            Thread.sleep(700);
+            assertFalse(cache.cache.asMap().containsKey("hot"));
+        } finally {
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    public void getValuesLoadsMissesInBatches() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .maxBatchSize(2)
+                .build());
+        cache.getValue("a");
+
+        Map<String, String> values = cache.getValues(Arrays.asList("a", "b", "c", "d"));
+
+        assertEquals(4, values.size());
+        assertEquals("a-1", values.get("a"));
+        //a已命中，其余3个key按maxBatchSize=2拆分为两批
+        assertEquals(2, cache.batches.size());
+        assertEquals(Arrays.asList("b", "c"), cache.batches.get(0));
+        assertEquals(Arrays.asList("d"), cache.batches.get(1));
+    }
+
+    @Test
+    public void refreshesDueTogetherAreCoalescedIntoOneBatch() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .refreshAfterWrite(1, TimeUnit.MILLISECONDS)
+                .refreshBatchWindow(50, TimeUnit.MILLISECONDS)
+                .build());
+        cache.getValues(Arrays.asList("a", "b", "c"));
+        cache.batches.clear();
+        Thread.sleep(5);
+
+        //三个key都已到刷新时间，读取时触发的刷新应合并为一次批量加载
+        cache.getValue("a");
+        cache.getValue("b");
+        cache.getValue("c");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.loadCount("c") < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, cache.batches.size());
+        assertEquals(3, cache.batches.get(0).size());
+        RefreshCoalescer<?, ?> coalescer = cache.getRefreshCoalescer();
+        assertEquals(1, coalescer.getBatchCount());
+        assertEquals(3, coalescer.getMaxBatchSize());
+        assertEquals(0, coalescer.getSizeTriggeredBatchCount());
+        assertTrue(coalescer.getMaxWaitMillis() > 0);
+    }
+
+    @Test
+    public void coalescerDispatchesAsSoonAsMaxKeysArePending() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .refreshAfterWrite(1, TimeUnit.MILLISECONDS)
+                .refreshBatchWindow(10, TimeUnit.SECONDS, 2)
+                .build());
+        cache.getValues(Arrays.asList("a", "b", "c"));
+        cache.batches.clear();
+        Thread.sleep(5);
+
+        cache.getValue("a");
+        cache.getValue("b");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.loadCount("b") < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        //窗口期为10秒，缓冲区达到2个key后立即提交
+        assertEquals(2, cache.loadCount("b"));
+        assertEquals(1, cache.getRefreshCoalescer().getSizeTriggeredBatchCount());
+    }
+
+    @Test
+    public void warmUpRestoresSnapshotAndRevalidates() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("cache.snapshot");
+        CountingCache before = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .snapshot(file, 1, TimeUnit.HOURS)
+                .build());
+        before.getValues(Arrays.asList("a", "b"));
+        before.shutdown();
+
+        CountingCache after = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .snapshot(file, 1, TimeUnit.HOURS)
+                .warmUpRevalidateWindow(50, TimeUnit.MILLISECONDS)
+                .build());
+        assertEquals(2, after.warmUp());
+        //恢复的值直接返回，不回源
+        assertEquals("a-1", after.getValue("a"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((after.loadCount("a") < 1 || after.loadCount("b") < 1) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        //恢复的entry随后在后台重新加载
+        assertEquals(1, after.loadCount("a"));
+        assertEquals(1, after.loadCount("b"));
+        after.shutdown();
+    }
+
+    @Test
+    public void warmUpSkipsSnapshotOlderThanExpireAfterWrite() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("expired.snapshot");
+        CountingCache before = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .snapshot(file, 1, TimeUnit.HOURS)
+                .build());
+        before.getValues(Arrays.asList("a", "b"));
+        before.shutdown();
+        Thread.sleep(20);
+
+        CountingCache after = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .refreshAfterWrite(5, TimeUnit.MILLISECONDS)
+                .expireAfterWrite(10, TimeUnit.MILLISECONDS)
+                .snapshot(file, 1, TimeUnit.HOURS)
+                .build());
+        assertEquals(0, after.warmUp());
+        assertEquals(0, after.loadCount("a"));
+        //没有恢复，直接回源
+        assertEquals("a-1", after.getValue("a"));
+        assertEquals(1, after.loadCount("a"));
+        after.shutdown();
+    }
+
+    @Test
+    public void warmUpSkipsEntriesOlderThanExpireAfterWrite() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("mixed.snapshot");
+        CacheSnapshotStore<String, String> store = new CacheSnapshotStore<>(file, new JdkSerializer<>(), new JdkSerializer<>());
+        long now = System.currentTimeMillis();
+        //快照本身是新的，但a在写入快照前已经在缓存中存在了两个小时
+        Map<String, Long> writeMillis = ImmutableMap.of("a", now - TimeUnit.HOURS.toMillis(2), "b", now);
+        store.write(ImmutableMap.of("a", "a-0", "b", "b-0"), writeMillis::get);
+        assertEquals(writeMillis.get("a").longValue(), store.readSnapshot().getWriteMillis("a"));
+
+        CountingCache after = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .snapshot(store, 1, TimeUnit.HOURS)
+                .warmUpRevalidateWindow(1, TimeUnit.HOURS)
+                .build());
+        assertEquals(1, after.warmUp());
+        assertEquals("b-0", after.getValue("b"));
+        //a已过期，不恢复，直接回源
+        assertEquals("a-1", after.getValue("a"));
+        assertEquals(1, after.loadCount("a"));
+        after.shutdown();
+    }
+
+    @Test
+    public void evictedEntriesAreServedFromOffHeapTier() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(1)
+                .offHeapCapacity(1024 * 1024)
+                .build());
+
+        cache.getValue("a");
+        //a因容量不足被淘汰，写入堆外二级缓存
+        cache.getValue("b");
+        assertEquals(1, cache.getOffHeapStore().size());
+
+        assertEquals("a-1", cache.getValue("a"));
+        assertEquals(1, cache.loadCount("a"));
+        assertEquals(1, cache.getOffHeapStore().getHitCount());
+    }
+
+    @Test
+    public void maxWeightBytesBoundsWeightedSize() throws Exception {
+        //每个值按10字节计算，预算30字节最多容纳3个entry
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxWeightBytes(30)
+                .weigher((String key, String value) -> 10)
+                .build());
+        for (int i = 0; i < 10; i++) {
+            cache.getValue("k" + i);
+        }
+
+        //guava按分段分配权重预算，实际容纳的entry数可能少于3个
+        long evicted = cache.getRemovalCounts().get(RemovalCause.SIZE);
+        assertTrue(cache.getWeightedSize() <= 30);
+        assertEquals(10 * (10 - evicted), cache.getWeightedSize());
+    }
+
+    @Test
+    public void removalSubtractsTheWeightComputedOnInsert() throws Exception {
+        //每次计算的权重都不同，移除时重新计算会使weightedSize偏离
+        AtomicInteger weighs = new AtomicInteger();
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxWeightBytes(1000)
+                .weigher((String key, String value) -> 10 * weighs.incrementAndGet())
+                .build());
+        cache.getValue("a");
+        cache.getValue("b");
+        assertEquals(30, cache.getWeightedSize());
+
+        cache.invalidate("a");
+        assertEquals(20, cache.getWeightedSize());
+        cache.clearAll();
+        assertEquals(0, cache.getWeightedSize());
+        assertEquals(2, weighs.get());
+    }
+
+    @Test
+    public void missingKeysAreNegativelyCached() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .negativeCache(1, TimeUnit.MINUTES)
+                .build());
+
+        try {
+            cache.getValue("missing");
+            fail();
+        } catch (CacheLoader.InvalidCacheLoadException expected) {
+        }
+        try {
+            cache.getValue("missing");
+            fail();
+        } catch (CacheMissException expected) {
+        }
+        assertEquals("default", cache.getValueOrDefault("missing", "default"));
+        assertEquals(1, cache.loadCount("missing"));
+    }
+
+    @Test
+    public void keyGuardRejectsUnknownKeysWithoutLoading() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder().build());
+        cache.setKeyGuard(Arrays.asList("a", "b"), Funnels.unencodedCharsFunnel(), 0.001);
+
+        assertEquals("a-1", cache.getValue("a"));
+        try {
+            cache.getValue("unknown");
+            fail();
+        } catch (CacheMissException expected) {
+        }
+        assertEquals(0, cache.loadCount("unknown"));
+    }
+
+    @Test
+    public void tinyLfuKeepsHotKeysDuringScan() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(2)
+                .concurrencyLevel(1)
+                .tinyLfuAdmission()
+                .build());
+        for (int i = 0; i < 5; i++) {
+            cache.getValue("hot");
+        }
+        cache.getValue("warm");
+        cache.getValue("hot");
+
+        //还没有淘汰记录时按LRU淘汰warm，之后扫描的key访问频率不高于最近被淘汰的warm，加载后不会被缓存
+        for (int i = 0; i < 10; i++) {
+            assertEquals("scan" + i + "-1", cache.getValue("scan" + i));
+        }
+
+        assertEquals("hot-1", cache.getValue("hot"));
+        assertEquals(1, cache.loadCount("hot"));
+        assertEquals("scan0-1", cache.getValue("scan0"));
+        assertEquals(9, cache.getAdmissionRejectedCount());
+        assertEquals(1L, (long) cache.getRemovalCounts().get(RemovalCause.SIZE));
+        //未被准入的key计为未命中
+        assertEquals(12, cache.getStats().getMissCount());
+    }
+
+    @Test
+    public void expiredValueIsServedWhenReloadFails() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .refreshAfterWrite(-1, TimeUnit.MINUTES)
+                .expireAfterWrite(50, TimeUnit.MILLISECONDS)
+                .staleIfError(1, TimeUnit.MINUTES)
+                .build());
+        assertEquals("a-1", cache.getValue("a"));
+        Thread.sleep(80);
+
+        //已过期，重新加载失败时返回旧值
+        cache.failing = true;
+        assertEquals("a-1", cache.getValue("a"));
+        assertEquals(1, cache.getStaleIfErrorCount());
+
+        //后端恢复后同步加载新值
+        cache.failing = false;
+        assertEquals("a-2", cache.getValue("a"));
+    }
+
+    @Test
+    public void maxStalenessAllowsExpiredValueWithoutBlocking() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .refreshAfterWrite(-1, TimeUnit.MINUTES)
+                .expireAfterWrite(50, TimeUnit.MILLISECONDS)
+                .staleIfError(1, TimeUnit.MINUTES)
+                .build());
+        cache.getValue("a");
+        Thread.sleep(80);
+
+        assertEquals("a-1", cache.getValue("a", 1, TimeUnit.MINUTES));
+        assertEquals(1, cache.loadCount("a"));
+        //要求比expireAfterWrite更新的值时同步重新加载
+        assertEquals("a-2", cache.getValue("a", 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void expireNotAfterRefreshFailsFast() {
+        GuavaCacheSpec.<String, String>newBuilder()
+                .refreshAfterWrite(10, TimeUnit.MINUTES)
+                .expireAfterWrite(5, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void weigherWithoutWeightBudgetFailsFast() {
+        GuavaCacheSpec.<String, String>newBuilder()
+                .weigher((String key, String value) -> 10)
+                .build();
+    }
+
+    @Test
+    public void requestMemoSkipsCacheWithinOneRequest() throws Exception {
+        CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                .maxSize(100)
+                .requestMemo(true)
+                .build());
+        ServletRequestAttributes attributes = new ServletRequestAttributes(new MockHttpServletRequest());
+        RequestContextHolder.setRequestAttributes(attributes);
+        try {
+            assertEquals("a-1", cache.getValue("a"));
+            assertEquals("a-1", cache.getValue("a"));
+            assertEquals("a-1", cache.getValue("a"));
+            assertEquals(1, cache.getStats().getMissCount());
+            assertEquals(0, cache.getStats().getHitCount());
+
+            //共享请求上下文的异步线程使用同一份记录
+            CompletableFuture.runAsync(() -> {
+                RequestContextHolder.setRequestAttributes(attributes);
+                try {
+                    assertEquals("a-1", cache.getValue("a"));
+                    assertEquals("b-1", cache.getValue("b"));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    RequestContextHolder.resetRequestAttributes();
+                }
+            }).get(5, TimeUnit.SECONDS);
+            assertEquals("b-1", cache.getValue("b"));
+            assertEquals(2, cache.getStats().getMissCount());
+            assertEquals(0, cache.getStats().getHitCount());
+
+            cache.invalidate("a");
+            assertEquals("a-2", cache.getValue("a"));
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+        //请求结束后回到普通读取
+        assertEquals("a-2", cache.getValue("a"));
+        assertEquals(1, cache.getStats().getHitCount());
+    }
+
+    @Test
+    public void asyncReadCompletesImmediatelyOnHitAndLoadsOnExecutorOnMiss() throws Exception {
+        RefreshExecutor executor = new RefreshExecutor("test-async", 1, 10, RefreshExecutor.OverflowPolicy.DISCARD);
+        try {
+            CountingCache cache = new CountingCache(GuavaCacheSpec.<String, String>newBuilder()
+                    .maxSize(100)
+                    .refreshExecutor(executor)
+                    .build());
+            ListenableFuture<String> miss = cache.getValueAsync("a");
+            assertEquals("a-1", miss.get(5, TimeUnit.SECONDS));
+
+            ListenableFuture<String> hit = cache.getValueAsync("a");
+            assertTrue(hit.isDone());
+            assertEquals("a-1", hit.get());
+
+            assertEquals(ImmutableMap.of("a", "a-1", "b", "b-1"),
+                    cache.getValuesAsync(Arrays.asList("a", "b")).get(5, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList(Collections.singletonList("b")), cache.batches);
+            assertEquals(2, cache.getStats().getHitCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
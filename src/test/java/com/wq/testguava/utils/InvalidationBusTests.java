@@ -0,0 +1,228 @@
+package com.wq.testguava.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+public class InvalidationBusTests {
+
+    /**
+     * 记录发送的消息，由测试手动投递给接收方
+     */
+    static class RecordingTransport implements InvalidationTransport {
+
+        final List<byte[]> sent = new CopyOnWriteArrayList<>();
+
+        volatile Consumer<byte[]> receiver;
+
+        @Override
+        public void start(Consumer<byte[]> receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void send(byte[] payload) {
+            sent.add(payload);
+        }
+
+        @Override
+        public int getMaxPayloadBytes() {
+            return 65507;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("等待超时", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void invalidationReachesOtherNodeOverUdp() throws Exception {
+        UdpInvalidationTransport transportA = UdpInvalidationTransport.loopback(0, Collections.emptyList());
+        UdpInvalidationTransport transportB = UdpInvalidationTransport.loopback(0,
+                Collections.singletonList(transportA.getLocalAddress()));
+        try (InvalidationBus busA = new InvalidationBus(transportA, 0, TimeUnit.MILLISECONDS, 100);
+             InvalidationBus busB = new InvalidationBus(transportB, 20, TimeUnit.MILLISECONDS, 100)) {
+            BaseGuavaCacheTests.CountingCache nodeA = new BaseGuavaCacheTests.CountingCache(
+                    GuavaCacheSpec.<String, String>newBuilder().cacheName("invalidation-test").maxSize(100)
+                            .invalidationBus(busA).build());
+            BaseGuavaCacheTests.CountingCache nodeB = new BaseGuavaCacheTests.CountingCache(
+                    GuavaCacheSpec.<String, String>newBuilder().cacheName("invalidation-test").maxSize(100)
+                            .invalidationBus(busB).build());
+            assertEquals("a-1", nodeA.getValue("a"));
+            assertEquals("b-1", nodeA.getValue("b"));
+
+            nodeB.invalidate("a");
+            await(() -> busA.getAppliedCount() == 1);
+            assertEquals("a-2", nodeA.getValue("a"));
+            assertEquals("b-1", nodeA.getValue("b"));
+
+            nodeB.clearAll();
+            await(() -> busA.getAppliedCount() == 2);
+            assertEquals("b-2", nodeA.getValue("b"));
+            await(() -> busB.getSentBatchCount() == 2);
+        }
+    }
+
+    /**
+     * 运行环境不支持在回环网卡上组播时跳过
+     */
+    private static UdpInvalidationTransport loopbackMulticast(InetSocketAddress group) {
+        try {
+            return UdpInvalidationTransport.loopbackMulticast(group);
+        } catch (IOException e) {
+            assumeNoException(e);
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void invalidationReachesOtherNodeOverLoopbackMulticast() throws Exception {
+        InetSocketAddress group;
+        try (DatagramSocket probe = new DatagramSocket()) {
+            group = new InetSocketAddress("239.255.27.1", probe.getLocalPort());
+        }
+        byte[] secret = "shared-secret".getBytes(StandardCharsets.UTF_8);
+        try (InvalidationBus busA = new InvalidationBus(loopbackMulticast(group), 0,
+                TimeUnit.MILLISECONDS, 100, secret);
+             InvalidationBus busB = new InvalidationBus(loopbackMulticast(group), 0,
+                     TimeUnit.MILLISECONDS, 100, secret);
+             InvalidationBus busC = new InvalidationBus(loopbackMulticast(group), 0,
+                     TimeUnit.MILLISECONDS, 100, secret)) {
+            BaseGuavaCacheTests.CountingCache nodeA = new BaseGuavaCacheTests.CountingCache(
+                    GuavaCacheSpec.<String, String>newBuilder().cacheName("multicast-test").maxSize(100)
+                            .invalidationBus(busA).build());
+            BaseGuavaCacheTests.CountingCache nodeB = new BaseGuavaCacheTests.CountingCache(
+                    GuavaCacheSpec.<String, String>newBuilder().cacheName("multicast-test").maxSize(100)
+                            .invalidationBus(busB).build());
+            BaseGuavaCacheTests.CountingCache nodeC = new BaseGuavaCacheTests.CountingCache(
+                    GuavaCacheSpec.<String, String>newBuilder().cacheName("multicast-test").maxSize(100)
+                            .invalidationBus(busC).build());
+            assertEquals("a-1", nodeA.getValue("a"));
+            assertEquals("a-1", nodeB.getValue("a"));
+
+            //一次发送，组内的其他节点都收到，自己发出的忽略
+            nodeC.invalidate("a");
+            await(() -> busA.getAppliedCount() == 1 && busB.getAppliedCount() == 1);
+            assertEquals(1, busC.getSentBatchCount());
+            assertEquals(0, busC.getAppliedCount());
+            assertEquals("a-2", nodeA.getValue("a"));
+            assertEquals("a-2", nodeB.getValue("a"));
+        }
+    }
+
+    @Test
+    public void unsignedTamperedAndMalformedBatchesAreRejected() throws Exception {
+        RecordingTransport sender = new RecordingTransport();
+        RecordingTransport unsigned = new RecordingTransport();
+        RecordingTransport receiver = new RecordingTransport();
+        byte[] secret = "shared-secret".getBytes(StandardCharsets.UTF_8);
+        try (InvalidationBus busA = new InvalidationBus(sender, 0, TimeUnit.MILLISECONDS, 100, secret);
+             InvalidationBus attacker = new InvalidationBus(unsigned, 0, TimeUnit.MILLISECONDS, 100);
+             InvalidationBus busB = new InvalidationBus(receiver, 0, TimeUnit.MILLISECONDS, 100, secret)) {
+            busA.publish("signed-test", "k1");
+            attacker.publish("signed-test", "k2");
+            byte[] tampered = sender.sent.get(0).clone();
+            tampered[tampered.length - 40] ^= 1;
+
+            receiver.receiver.accept(unsigned.sent.get(0));
+            receiver.receiver.accept(tampered);
+            //JDK序列化的对象不会被反序列化
+            receiver.receiver.accept(new JdkSerializer<>().serialize("not a batch"));
+            receiver.receiver.accept(new byte[]{1, 2, 3});
+            assertEquals(4, busB.getRejectedBatchCount());
+            assertEquals(0, busB.getReceivedBatchCount());
+
+            receiver.receiver.accept(sender.sent.get(0));
+            assertEquals(1, busB.getReceivedBatchCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedKeyTypeIsRejected() throws IOException {
+        try (InvalidationBus bus = new InvalidationBus(new RecordingTransport(), 0, TimeUnit.MILLISECONDS, 100)) {
+            bus.publish("key-test", new Object());
+        }
+    }
+
+    @Test
+    public void datagramsFromUnknownSendersAreDropped() throws Exception {
+        //只接受127.0.0.2发来的消息，从127.0.0.1发送
+        InetSocketAddress peer = new InetSocketAddress(InetAddress.getByName("127.0.0.2"), 9);
+        UdpInvalidationTransport transport = new UdpInvalidationTransport(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), Collections.singletonList(peer));
+        try (InvalidationBus bus = new InvalidationBus(transport, 0, TimeUnit.MILLISECONDS, 100);
+             DatagramSocket attacker = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            byte[] payload = {1, 2, 3};
+            attacker.send(new DatagramPacket(payload, payload.length, transport.getLocalAddress()));
+            await(() -> transport.getRejectedCount() == 1);
+            assertEquals(0, bus.getRejectedBatchCount());
+        }
+    }
+
+    @Test
+    public void duplicateAndStaleBatchesAreDropped() throws Exception {
+        RecordingTransport sender = new RecordingTransport();
+        RecordingTransport receiver = new RecordingTransport();
+        try (InvalidationBus busA = new InvalidationBus(sender, 0, TimeUnit.MILLISECONDS, 100);
+             InvalidationBus busB = new InvalidationBus(receiver, 0, TimeUnit.MILLISECONDS, 100)) {
+            BaseGuavaCacheTests.CountingCache node = new BaseGuavaCacheTests.CountingCache(
+                    GuavaCacheSpec.<String, String>newBuilder().cacheName("replay-test").maxSize(100)
+                            .invalidationBus(busB).build());
+            for (int i = 0; i < 70; i++) {
+                busA.publish("replay-test", "k" + i);
+            }
+            assertEquals(70, sender.sent.size());
+
+            //乱序到达：先收到第2个批次，再收到第1个
+            receiver.receiver.accept(sender.sent.get(1));
+            receiver.receiver.accept(sender.sent.get(0));
+            receiver.receiver.accept(sender.sent.get(1));
+            assertEquals(1, busB.getDuplicateBatchCount());
+
+            //第70个批次把窗口推过了第3个批次
+            receiver.receiver.accept(sender.sent.get(69));
+            receiver.receiver.accept(sender.sent.get(2));
+            receiver.receiver.accept(sender.sent.get(10));
+            assertEquals(1, busB.getStaleBatchCount());
+            await(() -> busB.getAppliedCount() == 4);
+            assertEquals("replay-test", node.getCacheName());
+        }
+    }
+
+    @Test
+    public void pendingInvalidationsAreBatched() throws IOException {
+        RecordingTransport transport = new RecordingTransport();
+        try (InvalidationBus bus = new InvalidationBus(transport, 1, TimeUnit.HOURS, 3)) {
+            for (int i = 0; i < 7; i++) {
+                bus.publish("batch-test", i);
+            }
+            assertEquals(2, transport.sent.size());
+            bus.flush();
+            assertEquals(3, transport.sent.size());
+            assertEquals(7, bus.getPublishedCount());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.wq.testguava.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void percentilesStayWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMeanMillis(), 0.001);
+        assertEquals(1000, histogram.getMaxMillis(), 0.001);
+        assertWithin(500, histogram.getPercentileMillis(50));
+        assertWithin(990, histogram.getPercentileMillis(99));
+    }
+
+    @Test
+    public void bucketBoundsCoverEveryValue() {
+        long[] values = {0, 7, 8, 15, 16, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(index));
+            assertTrue(index == 0 || value > LatencyHistogram.upperBoundOf(index - 1));
+        }
+    }
+
+    private static void assertWithin(double expected, double actual) {
+        assertTrue("actual = " + actual, actual >= expected && actual <= expected * 1.125);
+    }
+}
@@ -0,0 +1,38 @@
+package com.wq.testguava.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapStoreTests {
+
+    @Test
+    public void overwritesOldestEntriesWhenFull() throws Exception {
+        OffHeapStore<Integer, String> store = OffHeapStore.direct(1024, new JdkSerializer<>());
+        for (int i = 0; i < 100; i++) {
+            store.put(i, "value-" + i, i);
+        }
+
+        //最早写入的entry已被覆盖，最近写入的仍然可读
+        assertNull(store.get(0));
+        assertEquals("value-99", store.get(99).getValue());
+        assertEquals(99, store.get(99).getWriteMillis());
+        assertEquals(100 - store.size(), store.getEvictionCount());
+        assertTrue(store.getUsedBytes() <= store.getCapacityBytes());
+    }
+
+    @Test
+    public void removeAndReplaceKeepIndexConsistent() throws Exception {
+        OffHeapStore<String, String> store = OffHeapStore.direct(4096, new JdkSerializer<>());
+        store.put("a", "1", 0);
+        store.put("a", "2", 0);
+        assertEquals(1, store.size());
+        assertEquals("2", store.remove("a").getValue());
+        assertNull(store.get("a"));
+        assertEquals(0, store.getUsedBytes());
+        assertFalse(store.put("big", new String(new char[8192]), 0));
+    }
+}
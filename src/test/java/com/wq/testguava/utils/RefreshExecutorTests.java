@@ -0,0 +1,93 @@
+package com.wq.testguava.utils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshExecutorTests {
+
+    @Test
+    public void discardReturnsOldValueWhenQueueIsFull() throws Exception {
+        RefreshExecutor executor = new RefreshExecutor("test-discard", 1, 1, RefreshExecutor.OverflowPolicy.DISCARD);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            //占满唯一的线程和队列
+            executor.submit(() -> {
+                latch.await();
+                return "running";
+            }, "old");
+            executor.submit(() -> "queued", "old");
+
+            ListenableFuture<String> rejected = executor.submit(() -> "new", "old");
+            assertEquals("old", rejected.get());
+            assertEquals(1, executor.getRejectedCount());
+            assertEquals(0, executor.getCallerRunsCount());
+            assertEquals(1, executor.getQueueSize());
+        } finally {
+            latch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void callerRunsLoadsInlineWhenQueueIsFull() throws Exception {
+        RefreshExecutor executor = new RefreshExecutor("test-caller-runs", 1, 1, RefreshExecutor.OverflowPolicy.CALLER_RUNS);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            executor.submit(() -> {
+                latch.await();
+                return "running";
+            }, "old");
+            executor.submit(() -> "queued", "old");
+
+            String caller = Thread.currentThread().getName();
+            ListenableFuture<String> inline = executor.submit(() -> Thread.currentThread().getName(), "old");
+            assertEquals(caller, inline.get());
+            assertEquals(1, executor.getRejectedCount());
+            assertEquals(1, executor.getCallerRunsCount());
+        } finally {
+            latch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void timerBatchIsNotLoadedOnSchedulerWhenQueueIsFull() throws Exception {
+        RefreshExecutor executor = new RefreshExecutor("test-timer", 1, 1, RefreshExecutor.OverflowPolicy.CALLER_RUNS);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> loadThreads = new CopyOnWriteArrayList<>();
+        try {
+            executor.submit(() -> {
+                latch.await();
+                return "running";
+            }, "old");
+            executor.submit(() -> "queued", "old");
+
+            RefreshCoalescer<String, String> coalescer = new RefreshCoalescer<>(10, TimeUnit.MILLISECONDS, 100,
+                    scheduler, executor, keys -> {
+                loadThreads.add(Thread.currentThread().getName());
+                return ImmutableMap.of("a", "new");
+            });
+            //窗口期到期时线程池已满，批次被放弃而不是在定时线程中加载
+            assertEquals("old", coalescer.refresh("a", "old").get(5, TimeUnit.SECONDS));
+            assertTrue(loadThreads.isEmpty());
+            assertEquals(1, coalescer.getDiscardedBatchCount());
+            assertEquals(0, executor.getCallerRunsCount());
+        } finally {
+            latch.countDown();
+            scheduler.shutdown();
+            executor.shutdown();
+        }
+    }
+}
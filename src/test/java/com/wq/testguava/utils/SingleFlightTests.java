@@ -0,0 +1,97 @@
+package com.wq.testguava.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTests {
+
+    /**
+     * 两个缓存共用同一个"查询"，各自从查询结果中取不同的字段
+     */
+    static class ProfileCache extends BaseGuavaCache<String, String> {
+
+        private final Backend backend;
+
+        private final String field;
+
+        ProfileCache(String name, SingleFlight singleFlight, Backend backend, String field) {
+            super(GuavaCacheSpec.<String, String>newBuilder().cacheName(name).singleFlight(singleFlight).build());
+            this.backend = backend;
+            this.field = field;
+        }
+
+        @Override
+        public void loadValueWhenStarted() {
+        }
+
+        @Override
+        protected String getValueWhenExpired(String key) throws Exception {
+            return loadShared("profile:" + key, () -> backend.query(key)) + "." + field;
+        }
+    }
+
+    static class Backend {
+
+        final AtomicInteger queries = new AtomicInteger();
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        String query(String key) throws InterruptedException {
+            queries.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return key;
+        }
+    }
+
+    @Test
+    public void concurrentMissesAcrossCachesShareOneQuery() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        Backend backend = new Backend();
+        ProfileCache names = new ProfileCache("profile-name", singleFlight, backend, "name");
+        ProfileCache roles = new ProfileCache("profile-roles", singleFlight, backend, "roles");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> name = executor.submit(() -> names.getValue("u1"));
+            Future<String> role = executor.submit(() -> roles.getValue("u1"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (singleFlight.getSharedCount() == 0) {
+                assertTrue("等待超时", System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+            backend.release.countDown();
+
+            assertEquals("u1.name", name.get());
+            assertEquals("u1.roles", role.get());
+            assertEquals(1, backend.queries.get());
+            assertEquals(1, singleFlight.getLoadCount());
+            assertEquals(0, singleFlight.getInFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failureIsSharedAndNotRemembered() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        try {
+            singleFlight.load("k", () -> {
+                throw new IllegalStateException("backend down");
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("backend down", expected.getMessage());
+        }
+        assertEquals("ok", singleFlight.load("k", () -> "ok"));
+        assertEquals(2, singleFlight.getLoadCount());
+    }
+}